@@ -0,0 +1,112 @@
+#!/bin/bash
+
+# Runs each test in tests/ (or the ones given) with every engine, with and without -O, and checks what it prints
+# against its "// expect: <line>" comments, in order. Then checks that cached trees (.loxc files) are only reused by
+# the source and charset they were made from.
+# usage: ./scripts/test.sh [test.lox ...]
+
+cd "$(dirname "$0")/.."
+
+CLASSES=build/classes
+CONFIGS=("--engine=vm" "--engine=nodes" "--jit=1" "--jit=off")
+
+passed=0
+failed=0
+
+# compile Java sources
+echo "Compiling Java sources"
+mkdir -p $CLASSES
+javac -encoding UTF-8 -d $CLASSES src/jlox/*.java || exit 1
+
+# check <name> <expected> <actual>
+check() {
+    if [ "$2" == "$3" ]; then
+        passed=$((passed + 1))
+    else
+        failed=$((failed + 1))
+        echo "FAIL: $1"
+        diff <(echo "$2") <(echo "$3") | sed 's/^/    /'
+    fi
+}
+
+# run <java options> -- <jlox arguments>: what jlox prints
+run() {
+    local options=()
+    while [ "$1" != "--" ]; do options+=("$1"); shift; done
+    shift
+    java -cp $CLASSES "${options[@]}" jlox.jlox "$@" 2>&1
+}
+
+# .lox tests
+tests=("$@")
+if [ ${#tests[@]} -eq 0 ]; then
+    tests=(tests/*.lox)
+fi
+
+echo "Running tests"
+for test in "${tests[@]}"; do
+    expected=$(grep -o '// expect: .*' "$test" | sed 's|^// expect: ||')
+    for config in "${CONFIGS[@]}"; do
+        for optimize in "" "-O"; do
+            check "$test $config $optimize" "$expected" "$(run -- $config $optimize "$test")"
+        done
+    done
+done
+
+# .loxc files
+echo "Checking cached trees"
+dir=$(mktemp -d)
+trap 'rm -rf "$dir"' EXIT
+script=$dir/cached.lox
+
+sha256() {
+    if command -v sha256sum > /dev/null; then
+        sha256sum "$1" | cut -d ' ' -f 1
+    else
+        shasum -a 256 "$1" | cut -d ' ' -f 1
+    fi
+}
+
+# overwrite <file> <offset> <bytes, as printf escapes>
+overwrite() {
+    printf "$3" | dd of="$1" bs=1 seek="$2" conv=notrunc 2> /dev/null
+}
+
+echo 'print("first");' > "$script"
+check "first run" "first" "$(run -- "$script")"
+check "first run writes a cache" "yes" "$([ -f "${script}c" ] && echo yes)"
+check "run from the cache" "first" "$(run -- --engine=vm "$script")"
+
+# an edit the same size as before, so only the contents tell the versions apart
+echo 'print("again");' > "$script"
+check "reload after an edit" "again" "$(run -- "$script")"
+check "the edited version is cached" "again" "$(run -- --engine=nodes "$script")"
+
+# a cache belongs to the charset the source was decoded with: "é" is one character in UTF-8, two in ISO-8859-1
+printf 'print(len("\xc3\xa9"));\n' > "$script"
+check "UTF-8" "1" "$(run -Dfile.encoding=UTF-8 -- "$script")"
+check "charset change" "2" "$(run -Dfile.encoding=ISO-8859-1 -- "$script")"
+check "charset changed back" "1" "$(run -Dfile.encoding=UTF-8 -- "$script")"
+
+printf '\x00garbage' > "${script}c"
+check "corrupt cache" "1" "$(run -Dfile.encoding=UTF-8 -- "$script")"
+check "corrupt cache replaced" "1" "$(run -Dfile.encoding=UTF-8 -- "$script")"
+: > "${script}c"
+check "empty cache" "1" "$(run -Dfile.encoding=UTF-8 -- "$script")"
+
+# A cache of another source (with the same length of fingerprint) relabelled with this source's fingerprint. It's
+# used as it is, which shows the relabelling works; once it's marked as an older VERSION, it's ignored.
+# Layout: magic (4 bytes), VERSION (4), then the fingerprint as writeUTF: a 2-byte length then the SHA-256 in hex.
+other=$dir/other.lox
+echo 'print("stale");' > "$other"
+echo 'print("fresh");' > "$script"
+run -Dfile.encoding=UTF-8 -- "$other" > /dev/null
+cp "${other}c" "${script}c"
+overwrite "${script}c" 10 "$(sha256 "$script")"
+check "relabelled cache is used" "stale" "$(run -Dfile.encoding=UTF-8 -- "$script")"
+overwrite "${script}c" 4 '\x00\x00\x00\x01'
+check "old VERSION" "fresh" "$(run -Dfile.encoding=UTF-8 -- "$script")"
+check "old VERSION replaced" "fresh" "$(run -Dfile.encoding=UTF-8 -- "$script")"
+
+echo "$passed passed, $failed failed"
+[ $failed -eq 0 ]
@@ -0,0 +1,646 @@
+package jlox;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+// The resolved tree of a script, kept in a .loxc file next to it so later runs can skip scanning, parsing and
+// resolving. It's stored with the fingerprint of the source it came from (see jlox.fingerprint) and only used by a
+// run of that same source. The tree is saved before -O rewrites it, and without anything filled in at run time
+// (global indices, caches, loop counts), so it suits every engine and option.
+//
+// Layout: magic, VERSION, fingerprint, then the statements. Each node is a tag byte (0 for null) followed by its
+// fields in declaration order. Counts and positions are varints, and each string is written once then referred
+// to by index.
+final class AstCache implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
+    private static final int MAGIC = 0x4C4F5843; // "LOXC"
+    private static final int VERSION = 2; // bump whenever Expr or Stmt (or what the Resolver records) changes
+
+    private static final TokenType[] TYPES = TokenType.values();
+
+    // Expr tags
+    private static final byte ARRAY = 1, ASSIGN = 2, BINARY = 3, CALL = 4, FUNCTION_EXPR = 5, GET = 6, GROUPING = 7,
+            LITERAL = 8, LOGICAL = 9, SET = 10, SUPER = 11, THIS = 12, TERNARY = 13, UNARY = 14, VARIABLE = 15;
+    // Stmt tags
+    private static final byte BLOCK = 1, BREAK = 2, CLASS = 3, CONTINUE = 4, EXPRESSION = 5, FOR = 6, FUNCTION = 7,
+            IF = 8, RETURN = 9, VAR = 10, WHILE = 11;
+
+    private final DataOutputStream out;
+    private final Map<String, Integer> strings = new HashMap<>();
+
+    private AstCache(DataOutputStream out) {
+        this.out = out;
+    }
+
+    static Path pathFor(Path script) {
+        String name = script.getFileName().toString();
+        return script.resolveSibling(name.endsWith(".lox") ? name + "c" : name + ".loxc");
+    }
+
+    // The cached tree of the script, or null if there isn't one for this version of it
+    static List<Stmt> load(Path script, String fingerprint) {
+        Path file = pathFor(script);
+        if (!Files.isRegularFile(file)) return null;
+
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION || !in.readUTF().equals(fingerprint)) return null;
+            return new Loader(in).statements();
+        } catch (IOException | RuntimeException e) {
+            return null; // unreadable or damaged: parse the source instead, and write a new one
+        }
+    }
+
+    static void save(Path script, String fingerprint, List<Stmt> statements) {
+        Path file = pathFor(script);
+        Path temp = null;
+        try {
+            // written to the side and moved into place, so a run starting meanwhile never sees half a file
+            temp = file.resolveSibling(file.getFileName() + "." + ProcessHandle.current().pid() + ".tmp");
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temp)))) {
+                out.writeInt(MAGIC);
+                out.writeInt(VERSION);
+                out.writeUTF(fingerprint);
+                new AstCache(out).statements(statements);
+            }
+            Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException | UncheckedIOException e) {
+            // e.g. a read-only directory: the script still runs, just without a cache
+            if (temp != null) {
+                try {
+                    Files.deleteIfExists(temp);
+                } catch (IOException ignored) {
+                    // nothing more to do
+                }
+            }
+        }
+    }
+
+    // Writing
+
+    private void statements(List<? extends Stmt> statements) {
+        if (statements == null) {
+            count(-1);
+            return;
+        }
+        count(statements.size());
+        for (Stmt statement : statements) {
+            stmt(statement);
+        }
+    }
+
+    private void expressions(List<Expr> expressions) {
+        count(expressions.size());
+        for (Expr expression : expressions) {
+            expr(expression);
+        }
+    }
+
+    private void tokens(List<Token> tokens) {
+        if (tokens == null) { // a getter's parameters
+            count(-1);
+            return;
+        }
+        count(tokens.size());
+        for (Token token : tokens) {
+            token(token);
+        }
+    }
+
+    private void stmt(Stmt stmt) {
+        if (stmt == null) {
+            tag(0);
+        } else {
+            stmt.accept(this);
+        }
+    }
+
+    private void expr(Expr expr) {
+        if (expr == null) {
+            tag(0);
+        } else {
+            expr.accept(this);
+        }
+    }
+
+    private void token(Token token) {
+        if (token == null) {
+            varint(0);
+            return;
+        }
+        varint(token.type.ordinal() + 1);
+        string(token.lexeme);
+        varint(token.line);
+        varint(token.column);
+    }
+
+    private void string(String string) {
+        Integer index = strings.get(string);
+        if (index != null) {
+            varint(index);
+            return;
+        }
+
+        varint(strings.size()); // the next index, so the reader knows the string follows
+        strings.put(string, strings.size());
+        byte[] bytes = string.getBytes(StandardCharsets.UTF_8); // not writeUTF, which stops at 64K
+        varint(bytes.length);
+        write(() -> out.write(bytes));
+    }
+
+    private void literal(Object value) {
+        if (value == null) {
+            tag(0);
+        } else if (value instanceof Boolean bool) {
+            tag(bool ? 1 : 2);
+        } else if (value instanceof Double number) {
+            tag(3);
+            write(() -> out.writeDouble(number));
+        } else {
+            tag(4);
+            string((String)value);
+        }
+    }
+
+    private void count(int count) {
+        varint(count + 1);
+    }
+
+    private void tag(int tag) {
+        write(() -> out.writeByte(tag));
+    }
+
+    private void varint(int value) {
+        write(() -> {
+            int rest = value;
+            while ((rest & ~0x7F) != 0) {
+                out.writeByte((rest & 0x7F) | 0x80);
+                rest >>>= 7;
+            }
+            out.writeByte(rest);
+        });
+    }
+
+    private interface Write {
+        void run() throws IOException;
+    }
+
+    // The visitors can't throw IOException, so it's carried out to save() unchecked
+    private static void write(Write write) {
+        try {
+            write.run();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    @Override
+    public Void visitArrayExpr(Expr.Array expr) {
+        tag(ARRAY);
+        expressions(expr.elements);
+        return null;
+    }
+
+    @Override
+    public Void visitAssignExpr(Expr.Assign expr) {
+        tag(ASSIGN);
+        token(expr.name);
+        expr(expr.value);
+        count(expr.depth);
+        count(expr.slot);
+        return null;
+    }
+
+    @Override
+    public Void visitBinaryExpr(Expr.Binary expr) {
+        tag(BINARY);
+        expr(expr.left);
+        token(expr.operator);
+        expr(expr.right);
+        return null;
+    }
+
+    @Override
+    public Void visitCallExpr(Expr.Call expr) {
+        tag(CALL);
+        expr(expr.callee);
+        token(expr.paren);
+        expressions(expr.arguments);
+        return null;
+    }
+
+    @Override
+    public Void visitFunctionExpr(Expr.Function expr) {
+        tag(FUNCTION_EXPR);
+        tokens(expr.params);
+        statements(expr.body);
+        return null;
+    }
+
+    @Override
+    public Void visitGetExpr(Expr.Get expr) {
+        tag(GET);
+        expr(expr.object);
+        token(expr.name);
+        return null;
+    }
+
+    @Override
+    public Void visitGroupingExpr(Expr.Grouping expr) {
+        tag(GROUPING);
+        expr(expr.expression);
+        return null;
+    }
+
+    @Override
+    public Void visitInlineExpr(Expr.Inline expr) {
+        throw new IllegalStateException("The cache is written before -O adds inlined calls.");
+    }
+
+    @Override
+    public Void visitInvariantExpr(Expr.Invariant expr) {
+        throw new IllegalStateException("The cache is written before -O adds loop invariants.");
+    }
+
+    @Override
+    public Void visitLiteralExpr(Expr.Literal expr) {
+        tag(LITERAL);
+        literal(expr.value);
+        return null;
+    }
+
+    @Override
+    public Void visitLogicalExpr(Expr.Logical expr) {
+        tag(LOGICAL);
+        expr(expr.left);
+        token(expr.operator);
+        expr(expr.right);
+        return null;
+    }
+
+    @Override
+    public Void visitSetExpr(Expr.Set expr) {
+        tag(SET);
+        expr(expr.object);
+        token(expr.name);
+        expr(expr.value);
+        return null;
+    }
+
+    @Override
+    public Void visitSuperExpr(Expr.Super expr) {
+        tag(SUPER);
+        token(expr.keyword);
+        token(expr.method);
+        count(expr.depth);
+        return null;
+    }
+
+    @Override
+    public Void visitThisExpr(Expr.This expr) {
+        tag(THIS);
+        token(expr.keyword);
+        count(expr.depth);
+        count(expr.slot);
+        return null;
+    }
+
+    @Override
+    public Void visitTernaryExpr(Expr.Ternary expr) {
+        tag(TERNARY);
+        expr(expr.condition);
+        token(expr.op1);
+        expr(expr.thenExpr);
+        token(expr.op2);
+        expr(expr.elseExpr);
+        return null;
+    }
+
+    @Override
+    public Void visitUnaryExpr(Expr.Unary expr) {
+        tag(UNARY);
+        token(expr.operator);
+        expr(expr.right);
+        return null;
+    }
+
+    @Override
+    public Void visitVariableExpr(Expr.Variable expr) {
+        tag(VARIABLE);
+        token(expr.name);
+        count(expr.depth);
+        count(expr.slot);
+        // Only whether a local is ever assigned is read from its binding (by Inliner and LoopInvariants)
+        tag(expr.binding == null ? 0 : expr.binding.assigned ? 2 : 1);
+        return null;
+    }
+
+    @Override
+    public Void visitBlockStmt(Stmt.Block stmt) {
+        tag(BLOCK);
+        statements(stmt.statements);
+        tag(stmt.hasScope ? 1 : 0);
+        return null;
+    }
+
+    @Override
+    public Void visitBreakStmt(Stmt.Break stmt) {
+        tag(BREAK);
+        return null;
+    }
+
+    @Override
+    public Void visitClassStmt(Stmt.Class stmt) {
+        tag(CLASS);
+        token(stmt.name);
+        expr(stmt.superclass);
+        statements(stmt.staticMethods);
+        statements(stmt.methods);
+        return null;
+    }
+
+    @Override
+    public Void visitContinueStmt(Stmt.Continue stmt) {
+        tag(CONTINUE);
+        return null;
+    }
+
+    @Override
+    public Void visitExpressionStmt(Stmt.Expression stmt) {
+        tag(EXPRESSION);
+        expr(stmt.expression);
+        return null;
+    }
+
+    @Override
+    public Void visitForDesugaredStmt(Stmt.ForDesugared stmt) {
+        tag(FOR);
+        token(stmt.keyword);
+        expr(stmt.condition);
+        stmt(stmt.increment);
+        stmt(stmt.body);
+        return null;
+    }
+
+    @Override
+    public Void visitFunctionStmt(Stmt.Function stmt) {
+        tag(FUNCTION);
+        token(stmt.name);
+        tokens(stmt.params);
+        statements(stmt.body);
+        return null;
+    }
+
+    @Override
+    public Void visitIfStmt(Stmt.If stmt) {
+        tag(IF);
+        expr(stmt.condition);
+        stmt(stmt.thenBranch);
+        stmt(stmt.elseBranch);
+        return null;
+    }
+
+    @Override
+    public Void visitReturnStmt(Stmt.Return stmt) {
+        tag(RETURN);
+        token(stmt.keyword);
+        expr(stmt.value);
+        return null;
+    }
+
+    @Override
+    public Void visitVarStmt(Stmt.Var stmt) {
+        tag(VAR);
+        token(stmt.name);
+        expr(stmt.initialiser);
+        return null;
+    }
+
+    @Override
+    public Void visitWhileStmt(Stmt.While stmt) {
+        tag(WHILE);
+        token(stmt.keyword);
+        expr(stmt.condition);
+        stmt(stmt.body);
+        return null;
+    }
+
+    // Reading: the mirror image of the visitors above. Anything malformed surfaces as an exception, which load()
+    // treats the same as a missing cache.
+    private static final class Loader {
+        private final DataInputStream in;
+        private final List<String> strings = new ArrayList<>();
+
+        Loader(DataInputStream in) {
+            this.in = in;
+        }
+
+        List<Stmt> statements() throws IOException {
+            int count = count();
+            if (count < 0) return null;
+
+            List<Stmt> statements = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) {
+                statements.add(stmt());
+            }
+            return statements;
+        }
+
+        private List<Stmt.Function> functions() throws IOException {
+            int count = count();
+            List<Stmt.Function> functions = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) {
+                functions.add((Stmt.Function)stmt());
+            }
+            return functions;
+        }
+
+        private List<Expr> expressions() throws IOException {
+            int count = count();
+            List<Expr> expressions = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) {
+                expressions.add(expr());
+            }
+            return expressions;
+        }
+
+        private List<Token> tokens() throws IOException {
+            int count = count();
+            if (count < 0) return null;
+
+            List<Token> tokens = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) {
+                tokens.add(token());
+            }
+            return tokens;
+        }
+
+        private Stmt stmt() throws IOException {
+            byte tag = in.readByte();
+            switch (tag) {
+                case 0 -> {
+                    return null;
+                }
+                case BLOCK -> {
+                    Stmt.Block block = new Stmt.Block(statements());
+                    block.hasScope = in.readByte() != 0;
+                    return block;
+                }
+                case BREAK -> {
+                    return new Stmt.Break();
+                }
+                case CLASS -> {
+                    return new Stmt.Class(token(), (Expr.Variable)expr(), functions(), functions());
+                }
+                case CONTINUE -> {
+                    return new Stmt.Continue();
+                }
+                case EXPRESSION -> {
+                    return new Stmt.Expression(expr());
+                }
+                case FOR -> {
+                    return new Stmt.ForDesugared(token(), expr(), stmt(), stmt());
+                }
+                case FUNCTION -> {
+                    return new Stmt.Function(token(), tokens(), statements());
+                }
+                case IF -> {
+                    return new Stmt.If(expr(), stmt(), stmt());
+                }
+                case RETURN -> {
+                    return new Stmt.Return(token(), expr());
+                }
+                case VAR -> {
+                    return new Stmt.Var(token(), expr());
+                }
+                case WHILE -> {
+                    return new Stmt.While(token(), expr(), stmt());
+                }
+                default -> throw new IOException("Unknown statement tag " + tag);
+            }
+        }
+
+        private Expr expr() throws IOException {
+            byte tag = in.readByte();
+            switch (tag) {
+                case 0 -> {
+                    return null;
+                }
+                case ARRAY -> {
+                    return new Expr.Array(expressions());
+                }
+                case ASSIGN -> {
+                    Expr.Assign assign = new Expr.Assign(token(), expr());
+                    assign.depth = count();
+                    assign.slot = count();
+                    return assign;
+                }
+                case BINARY -> {
+                    return new Expr.Binary(expr(), token(), expr());
+                }
+                case CALL -> {
+                    return new Expr.Call(expr(), token(), expressions());
+                }
+                case FUNCTION_EXPR -> {
+                    return new Expr.Function(tokens(), statements());
+                }
+                case GET -> {
+                    return new Expr.Get(expr(), token());
+                }
+                case GROUPING -> {
+                    return new Expr.Grouping(expr());
+                }
+                case LITERAL -> {
+                    return new Expr.Literal(literal());
+                }
+                case LOGICAL -> {
+                    return new Expr.Logical(expr(), token(), expr());
+                }
+                case SET -> {
+                    return new Expr.Set(expr(), token(), expr());
+                }
+                case SUPER -> {
+                    Expr.Super expr = new Expr.Super(token(), token());
+                    expr.depth = count();
+                    return expr;
+                }
+                case THIS -> {
+                    Expr.This expr = new Expr.This(token());
+                    expr.depth = count();
+                    expr.slot = count();
+                    return expr;
+                }
+                case TERNARY -> {
+                    return new Expr.Ternary(expr(), token(), expr(), token(), expr());
+                }
+                case UNARY -> {
+                    return new Expr.Unary(token(), expr());
+                }
+                case VARIABLE -> {
+                    Expr.Variable variable = new Expr.Variable(token());
+                    variable.depth = count();
+                    variable.slot = count();
+                    byte binding = in.readByte();
+                    if (binding != 0) {
+                        variable.binding = new Resolver.VariableInfo(variable.name, true, true, variable.slot);
+                        variable.binding.assigned = binding == 2;
+                    }
+                    return variable;
+                }
+                default -> throw new IOException("Unknown expression tag " + tag);
+            }
+        }
+
+        private Token token() throws IOException {
+            int type = varint();
+            if (type == 0) return null;
+            return new Token(TYPES[type - 1], string(), null, varint(), varint());
+        }
+
+        private String string() throws IOException {
+            int index = varint();
+            if (index == strings.size()) {
+                byte[] bytes = new byte[varint()];
+                in.readFully(bytes);
+                strings.add(new String(bytes, StandardCharsets.UTF_8));
+            }
+            return strings.get(index);
+        }
+
+        private Object literal() throws IOException {
+            byte tag = in.readByte();
+            return switch (tag) {
+                case 0 -> null;
+                case 1 -> true;
+                case 2 -> false;
+                case 3 -> in.readDouble();
+                case 4 -> string();
+                default -> throw new IOException("Unknown literal tag " + tag);
+            };
+        }
+
+        private int count() throws IOException {
+            return varint() - 1;
+        }
+
+        private int varint() throws IOException {
+            int value = 0;
+            for (int shift = 0; ; shift += 7) {
+                byte b = in.readByte();
+                value |= (b & 0x7F) << shift;
+                if (b >= 0) return value;
+            }
+        }
+    }
+
+}
@@ -0,0 +1,904 @@
+package jlox;
+
+import java.util.ArrayList;
+import java.util.List;
+
+// Compiles a resolved Stmt/Expr tree to register-based bytecode for the VM.
+// Each function's frame is an array of registers: slot 0 holds the callee (or the receiver for methods), then come
+// the locals in declaration order, then temporaries, which are handed out and freed like a stack as expressions
+// nest. Instructions name their operand registers directly, so reading a local costs nothing and `i = i + 1` is a
+// single instruction. Captured locals become upvalues (as in clox).
+// The Resolver has already decided which names are global (depth -1), so only locals are searched here.
+class BytecodeCompiler implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
+    private static final int MAX_LOCALS = 256;
+    private static final int MAX_UPVALUES = 256;
+    private static final int NO_TARGET = -1; // an assignment or property store whose value is thrown away
+
+    private final VM vm;
+    private FunctionState current = null;
+    private int line = 0;
+    private int target; // the register the expression being visited leaves its value in
+
+    private enum FunctionType {
+        SCRIPT,
+        FUNCTION,
+        METHOD,
+        INITIALISER
+    }
+
+    private static class Local {
+        final String name;
+        final int depth;
+        boolean isCaptured = false;
+
+        Local(String name, int depth) {
+            this.name = name;
+            this.depth = depth;
+        }
+    }
+
+    private static class UpvalueRef {
+        final int index;
+        final boolean isLocal;
+
+        UpvalueRef(int index, boolean isLocal) {
+            this.index = index;
+            this.isLocal = isLocal;
+        }
+    }
+
+    private static class Loop {
+        final Loop enclosing;
+        final int start;
+        final int scopeDepth;
+        final boolean continuesForward; // 'for' loops continue at the increment, which isn't emitted yet
+        final List<Integer> breakJumps = new ArrayList<>();
+        final List<Integer> continueJumps = new ArrayList<>();
+
+        Loop(Loop enclosing, int start, int scopeDepth, boolean continuesForward) {
+            this.enclosing = enclosing;
+            this.start = start;
+            this.scopeDepth = scopeDepth;
+            this.continuesForward = continuesForward;
+        }
+    }
+
+    private static class FunctionState {
+        final FunctionState enclosing;
+        final VM.Function function;
+        final FunctionType type;
+        final List<Local> locals = new ArrayList<>(); // a local's register is its index here
+        final List<UpvalueRef> upvalues = new ArrayList<>();
+        int scopeDepth = 0;
+        Loop loop = null;
+        int top = 0; // the first free register
+
+        FunctionState(FunctionState enclosing, VM.Function function, FunctionType type) {
+            this.enclosing = enclosing;
+            this.function = function;
+            this.type = type;
+        }
+    }
+
+    BytecodeCompiler(VM vm) {
+        this.vm = vm;
+    }
+
+    VM.Function compile(List<Stmt> statements) {
+        beginFunction(new VM.Function("script"), FunctionType.SCRIPT);
+        for (Stmt statement : statements) {
+            compile(statement);
+        }
+        emitReturn();
+        return endFunction().function;
+    }
+
+    // Challenge 8.1
+    VM.Function compileExpression(Expr expr) {
+        beginFunction(new VM.Function("script"), FunctionType.SCRIPT);
+        int register = allocate();
+        compileTo(expr, register);
+        emit(OpCode.RETURN, register);
+        return endFunction().function;
+    }
+
+    private void compile(Stmt stmt) {
+        stmt.accept(this);
+        current.top = current.locals.size(); // a statement's temporaries die with it
+    }
+
+    // Leaves expr's value in register. Any temporaries it needed on the way are free again afterwards
+    private void compileTo(Expr expr, int register) {
+        int mark = current.top;
+        target = register;
+        expr.accept(this);
+        current.top = mark;
+    }
+
+    // A register holding expr's value. A local is read in place when nothing evaluated after it can change it;
+    // anything else is compiled into a new temporary
+    private int operand(Expr expr, boolean stable) {
+        if (stable) {
+            int local = localRegister(expr);
+            if (local >= 0) return local;
+        }
+        int register = allocate();
+        compileTo(expr, register);
+        return register;
+    }
+
+    private int localRegister(Expr expr) {
+        while (expr instanceof Expr.Grouping grouping) {
+            expr = grouping.expression;
+        }
+        if (expr instanceof Expr.Variable variable && variable.depth >= 0) {
+            return resolveLocal(current, variable.name.lexeme);
+        }
+        if (expr instanceof Expr.This) {
+            return resolveLocal(current, "this");
+        }
+        return -1;
+    }
+
+    // Whether evaluating expr can't assign a local: it has no assignment, and no call or property access, which
+    // could run a closure that assigns one through an upvalue
+    private static boolean isPure(Expr expr) {
+        if (expr instanceof Expr.Literal || expr instanceof Expr.Variable || expr instanceof Expr.This) return true;
+        if (expr instanceof Expr.Grouping grouping) return isPure(grouping.expression);
+        if (expr instanceof Expr.Unary unary) return isPure(unary.right);
+        if (expr instanceof Expr.Binary binary) return isPure(binary.left) && isPure(binary.right);
+        if (expr instanceof Expr.Logical logical) return isPure(logical.left) && isPure(logical.right);
+        if (expr instanceof Expr.Ternary ternary) {
+            return isPure(ternary.condition) && isPure(ternary.thenExpr) && isPure(ternary.elseExpr);
+        }
+        return false;
+    }
+
+    // Whether compiling expr into a register writes it only once its operands have all been read, so a local can
+    // be assigned in place. and/or and ?: write their result part way through, and may read the local afterwards
+    private static boolean writesLast(Expr expr) {
+        if (expr instanceof Expr.Grouping grouping) return writesLast(grouping.expression);
+        if (expr instanceof Expr.Binary binary) return binary.operator.type != TokenType.COMMA;
+        return expr instanceof Expr.Literal || expr instanceof Expr.Variable || expr instanceof Expr.This
+                || expr instanceof Expr.Unary || expr instanceof Expr.Call || expr instanceof Expr.Get
+                || expr instanceof Expr.Array || expr instanceof Expr.Function;
+    }
+
+    @Override
+    public Void visitArrayExpr(Expr.Array expr) {
+        int target = this.target;
+        int first = current.top;
+        for (Expr element : expr.elements) {
+            compileTo(element, allocate());
+        }
+        emit(OpCode.ARRAY, target, first, expr.elements.size());
+        return null;
+    }
+
+    @Override
+    public Void visitAssignExpr(Expr.Assign expr) {
+        int target = this.target;
+        if (expr.depth < 0) {
+            int value = operand(expr.value, true);
+            line = expr.name.line;
+            emit(OpCode.SET_GLOBAL, value);
+            emitGlobalIndex(expr.name);
+            emitInt(makeConstant(expr.name));
+            emitMove(target, value);
+            return null;
+        }
+
+        int local = resolveLocal(current, expr.name.lexeme);
+        if (local >= 0) {
+            if (writesLast(expr.value)) {
+                compileTo(expr.value, local);
+            } else {
+                int value = operand(expr.value, true);
+                emitMove(local, value);
+            }
+            emitMove(target, local);
+            return null;
+        }
+
+        int value = operand(expr.value, true);
+        line = expr.name.line;
+        emit(OpCode.SET_UPVALUE, value, resolveUpvalue(current, expr.name.lexeme));
+        emitMove(target, value);
+        return null;
+    }
+
+    @SuppressWarnings("incomplete-switch")
+    @Override
+    public Void visitBinaryExpr(Expr.Binary expr) {
+        int target = this.target;
+        if (expr.operator.type == TokenType.COMMA) {
+            operand(expr.left, false);
+            compileTo(expr.right, target);
+            return null;
+        }
+
+        int left = operand(expr.left, isPure(expr.right));
+        int op = -1;
+        switch (expr.operator.type) {
+            case STAR -> op = OpCode.MULTIPLY;
+            case SLASH -> op = OpCode.DIVIDE;
+            case PLUS -> op = OpCode.ADD;
+            case MINUS -> op = OpCode.SUBTRACT;
+            case PERCENT -> op = OpCode.MODULO;
+            case GREATER -> op = OpCode.GREATER;
+            case GREATER_EQUAL -> op = OpCode.GREATER_EQUAL;
+            case LESS -> op = OpCode.LESS;
+            case LESS_EQUAL -> op = OpCode.LESS_EQUAL;
+            case BANG_EQUAL -> op = OpCode.NOT_EQUAL;
+            case EQUAL_EQUAL -> op = OpCode.EQUAL;
+        }
+
+        // arithmetic by a number literal takes the number straight from the code
+        if (op <= OpCode.MODULO && op >= OpCode.ADD && number(expr.right) != null) {
+            line = expr.operator.line;
+            emit(op + OpCode.ADD_NUMBER - OpCode.ADD, target, left);
+            emitNumber(number(expr.right));
+            return null;
+        }
+
+        int right = operand(expr.right, true);
+        line = expr.operator.line;
+        emit(op, target, left, right);
+        return null;
+    }
+
+    private static Double number(Expr expr) {
+        while (expr instanceof Expr.Grouping grouping) {
+            expr = grouping.expression;
+        }
+        return expr instanceof Expr.Literal literal && literal.value instanceof Double value ? value : null;
+    }
+
+    @Override
+    public Void visitCallExpr(Expr.Call expr) {
+        int target = this.target;
+        if (expr.arguments.size() > 255) {
+            jlox.error(expr.paren, "Can't have more than 255 arguments.");
+        }
+
+        // the callee and its arguments go in consecutive registers, which become the bottom of the callee's frame
+        int base = target >= current.locals.size() && target == current.top - 1 ? target : allocate();
+
+        if (expr.callee instanceof Expr.Get get) {
+            compileTo(get.object, base);
+            compileArguments(expr.arguments);
+            line = expr.paren.line;
+            emit(OpCode.INVOKE, base, makeConstant(get.name), expr.arguments.size());
+        } else if (expr.callee instanceof Expr.Super superExpr) {
+            loadThis(superExpr.keyword, base);
+            compileArguments(expr.arguments);
+            int superclass = allocate();
+            loadNamed(superExpr.keyword, "super", superclass);
+            line = expr.paren.line;
+            emit(OpCode.SUPER_INVOKE, base, makeConstant(superExpr.method), expr.arguments.size());
+            emitInt(superclass);
+        } else {
+            compileTo(expr.callee, base);
+            compileArguments(expr.arguments);
+            line = expr.paren.line;
+            emit(OpCode.CALL, base, expr.arguments.size());
+        }
+
+        emitMove(target, base);
+        return null;
+    }
+
+    private void compileArguments(List<Expr> arguments) {
+        for (Expr argument : arguments) {
+            compileTo(argument, allocate());
+        }
+    }
+
+    // Challenge 10.2
+    @Override
+    public Void visitFunctionExpr(Expr.Function expr) {
+        function(null, expr.params, expr.body, FunctionType.FUNCTION, target);
+        return null;
+    }
+
+    @Override
+    public Void visitGetExpr(Expr.Get expr) {
+        int target = this.target;
+        int object = operand(expr.object, true);
+        line = expr.name.line;
+        emit(OpCode.GET_PROPERTY, target, object, makeConstant(expr.name));
+        return null;
+    }
+
+    @Override
+    public Void visitGroupingExpr(Expr.Grouping expr) {
+        compileTo(expr.expression, target);
+        return null;
+    }
+
+    // -O inlining isn't carried over to bytecode either: the call is compiled as written
+    @Override
+    public Void visitInlineExpr(Expr.Inline expr) {
+        compileTo(expr.call, target);
+        return null;
+    }
+
+    // -O hoisting isn't carried over to bytecode: the expression is just compiled in place
+    @Override
+    public Void visitInvariantExpr(Expr.Invariant expr) {
+        compileTo(expr.expression, target);
+        return null;
+    }
+
+    @Override
+    public Void visitLiteralExpr(Expr.Literal expr) {
+        if (expr.value == null) {
+            emit(OpCode.NIL, target);
+        } else if (expr.value == Boolean.TRUE) {
+            emit(OpCode.TRUE, target);
+        } else if (expr.value == Boolean.FALSE) {
+            emit(OpCode.FALSE, target);
+        } else if (expr.value instanceof Double number) {
+            emit(OpCode.NUMBER, target);
+            emitNumber(number);
+        } else {
+            emitConstant(target, expr.value);
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitLogicalExpr(Expr.Logical expr) {
+        int target = this.target;
+        compileTo(expr.left, target);
+        line = expr.operator.line;
+
+        int endJump = emitJump(expr.operator.type == TokenType.OR ? OpCode.JUMP_IF_TRUE : OpCode.JUMP_IF_FALSE, target);
+        compileTo(expr.right, target);
+        patchJump(endJump);
+        return null;
+    }
+
+    @Override
+    public Void visitSetExpr(Expr.Set expr) {
+        int target = this.target;
+        int object = operand(expr.object, isPure(expr.value));
+        int value = operand(expr.value, true);
+        line = expr.name.line;
+        emit(OpCode.SET_PROPERTY, object, value, makeConstant(expr.name));
+        emitMove(target, value);
+        return null;
+    }
+
+    @Override
+    public Void visitSuperExpr(Expr.Super expr) {
+        int target = this.target;
+        int receiver = allocate();
+        loadThis(expr.keyword, receiver);
+        int superclass = allocate();
+        loadNamed(expr.keyword, "super", superclass);
+        line = expr.method.line;
+        emit(OpCode.GET_SUPER, target, receiver, superclass);
+        emitInt(makeConstant(expr.method));
+        return null;
+    }
+
+    @Override
+    public Void visitTernaryExpr(Expr.Ternary expr) {
+        int target = this.target;
+        int elseJump = emitConditionJump(expr.condition);
+        compileTo(expr.thenExpr, target);
+        int endJump = emitJump(OpCode.JUMP);
+
+        patchJump(elseJump);
+        compileTo(expr.elseExpr, target);
+        patchJump(endJump);
+        return null;
+    }
+
+    @Override
+    public Void visitThisExpr(Expr.This expr) {
+        loadThis(expr.keyword, target);
+        return null;
+    }
+
+    @SuppressWarnings("incomplete-switch")
+    @Override
+    public Void visitUnaryExpr(Expr.Unary expr) {
+        int target = this.target;
+        int right = operand(expr.right, true);
+        line = expr.operator.line;
+
+        switch (expr.operator.type) {
+            case BANG -> emit(OpCode.NOT, target, right);
+            case MINUS -> emit(OpCode.NEGATE, target, right);
+        }
+
+        return null;
+    }
+
+    @Override
+    public Void visitVariableExpr(Expr.Variable expr) {
+        line = expr.name.line;
+        if (expr.depth < 0) {
+            emitGetGlobal(expr.name, target);
+        } else {
+            loadNamed(expr.name, expr.name.lexeme, target);
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitBlockStmt(Stmt.Block stmt) {
+        beginScope();
+        for (Stmt statement : stmt.statements) {
+            compile(statement);
+        }
+        endScope();
+        return null;
+    }
+
+    @Override // Challenge 9.3
+    public Void visitBreakStmt(Stmt.Break stmt) {
+        Loop loop = current.loop;
+        if (loop == null) {
+            throw new RuntimeError(null, "Cannot use 'break' outside of a loop.");
+        }
+        closeLocals(loop.scopeDepth);
+        loop.breakJumps.add(emitJump(OpCode.JUMP));
+        return null;
+    }
+
+    @Override
+    public Void visitClassStmt(Stmt.Class stmt) {
+        line = stmt.name.line;
+
+        // The class sits in a register while its methods are attached: the named local itself for a local
+        // class, so methods can capture it, or a hidden local that is copied into the global afterwards
+        boolean isGlobal = current.scopeDepth == 0;
+        if (isGlobal) beginScope();
+        int klass = allocate();
+        emit(OpCode.CLASS, klass, makeConstant(stmt.name));
+        addLocal(isGlobal ? " class" : stmt.name.lexeme, stmt.name);
+
+        if (stmt.superclass != null) {
+            beginScope();
+            int superclass = allocate();
+            compileTo(stmt.superclass, superclass);
+            addLocal("super", stmt.superclass.name);
+            line = stmt.superclass.name.line;
+            emit(OpCode.INHERIT, klass, superclass);
+        }
+
+        // challenge 12.1
+        for (Stmt.Function staticMethod : stmt.staticMethods) {
+            int method = allocate();
+            function(staticMethod.name, staticMethod.params, staticMethod.body, FunctionType.METHOD, method);
+            emit(OpCode.STATIC_METHOD, klass, method, makeConstant(staticMethod.name));
+            current.top = method;
+        }
+
+        for (Stmt.Function method : stmt.methods) {
+            FunctionType type = method.name.lexeme.equals("init") ? FunctionType.INITIALISER : FunctionType.METHOD;
+            int closure = allocate();
+            function(method.name, method.params, method.body, type, closure);
+            emit(OpCode.METHOD, klass, closure, makeConstant(method.name));
+            current.top = closure;
+        }
+
+        if (stmt.superclass != null) endScope();
+
+        if (isGlobal) {
+            emitDefineGlobal(stmt.name, klass);
+            endScope();
+        }
+
+        return null;
+    }
+
+    @Override // Challenge 9.3
+    public Void visitContinueStmt(Stmt.Continue stmt) {
+        Loop loop = current.loop;
+        if (loop == null) {
+            throw new RuntimeError(null, "Cannot use 'continue' outside of a loop.");
+        }
+        closeLocals(loop.scopeDepth);
+        if (loop.continuesForward) {
+            loop.continueJumps.add(emitJump(OpCode.JUMP));
+        } else {
+            emitLoop(loop.start);
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitExpressionStmt(Stmt.Expression stmt) {
+        if (stmt.expression instanceof Expr.Assign || stmt.expression instanceof Expr.Set) {
+            compileTo(stmt.expression, NO_TARGET);
+        } else {
+            compileTo(stmt.expression, allocate());
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitForDesugaredStmt(Stmt.ForDesugared stmt) {
+        Loop loop = beginLoop(true);
+
+        int exitJump = emitConditionJump(stmt.condition);
+        compile(stmt.body);
+
+        for (int jump : loop.continueJumps) {
+            patchJump(jump);
+        }
+        compile(stmt.increment);
+        emitLoop(loop.start);
+
+        patchJump(exitJump);
+        endLoop(loop);
+        return null;
+    }
+
+    @Override
+    public Void visitFunctionStmt(Stmt.Function stmt) {
+        line = stmt.name.line;
+        if (current.scopeDepth > 0) {
+            // declared before the body is compiled so the function can refer to itself
+            int register = allocate();
+            addLocal(stmt.name.lexeme, stmt.name);
+            function(stmt.name, stmt.params, stmt.body, FunctionType.FUNCTION, register);
+        } else {
+            int register = allocate();
+            function(stmt.name, stmt.params, stmt.body, FunctionType.FUNCTION, register);
+            emitDefineGlobal(stmt.name, register);
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitIfStmt(Stmt.If stmt) {
+        int thenJump = emitConditionJump(stmt.condition);
+        compile(stmt.thenBranch);
+        if (stmt.elseBranch == null) {
+            patchJump(thenJump);
+            return null;
+        }
+
+        int elseJump = emitJump(OpCode.JUMP);
+        patchJump(thenJump);
+        compile(stmt.elseBranch);
+        patchJump(elseJump);
+        return null;
+    }
+
+    @Override
+    public Void visitReturnStmt(Stmt.Return stmt) {
+        line = stmt.keyword.line;
+        if (stmt.value == null) {
+            emitReturn();
+        } else {
+            returnValue(stmt.value);
+        }
+        return null;
+    }
+
+    // The VM makes a call a tail call when a RETURN of the call's register follows it directly, so each branch of a
+    // ternary in tail position (also through parentheses) gets its own RETURN rather than jumping to a shared one
+    private void returnValue(Expr value) {
+        if (value instanceof Expr.Grouping grouping) {
+            returnValue(grouping.expression);
+        } else if (value instanceof Expr.Ternary ternary) {
+            int elseJump = emitConditionJump(ternary.condition);
+            returnValue(ternary.thenExpr);
+            patchJump(elseJump);
+            returnValue(ternary.elseExpr);
+        } else {
+            int mark = current.top;
+            int register = operand(value, true);
+            emit(OpCode.RETURN, register);
+            current.top = mark;
+        }
+    }
+
+    @Override
+    public Void visitVarStmt(Stmt.Var stmt) {
+        int register = allocate();
+        if (stmt.initialiser != null) {
+            compileTo(stmt.initialiser, register);
+        } else {
+            emitConstant(register, Environment.uninitialisedValue());
+        }
+
+        line = stmt.name.line;
+        if (current.scopeDepth > 0) {
+            addLocal(stmt.name.lexeme, stmt.name);
+        } else {
+            emitDefineGlobal(stmt.name, register);
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitWhileStmt(Stmt.While stmt) {
+        Loop loop = beginLoop(false);
+
+        int exitJump = emitConditionJump(stmt.condition);
+        compile(stmt.body);
+        emitLoop(loop.start);
+
+        patchJump(exitJump);
+        endLoop(loop);
+        return null;
+    }
+
+    private void function(Token name, List<Token> params, List<Stmt> body, FunctionType type, int target) {
+        VM.Function function = new VM.Function(name == null ? null : name.lexeme);
+        function.isInitialiser = type == FunctionType.INITIALISER;
+        function.isGetter = params == null && type == FunctionType.METHOD; // challenge 12.2
+
+        beginFunction(function, type);
+        beginScope();
+        if (params != null) {
+            function.arity = params.size();
+            for (Token param : params) {
+                allocate(); // filled in by the caller
+                addLocal(param.lexeme, param);
+            }
+        }
+
+        for (Stmt statement : body) {
+            compile(statement);
+        }
+        emitReturn();
+
+        FunctionState state = endFunction();
+
+        emit(OpCode.CLOSURE, target, makeConstant(function));
+        for (UpvalueRef upvalue : state.upvalues) {
+            emitInt(upvalue.isLocal ? 1 : 0);
+            emitInt(upvalue.index);
+        }
+    }
+
+    private void beginFunction(VM.Function function, FunctionType type) {
+        current = new FunctionState(current, function, type);
+
+        // register 0 holds the callee, or the receiver for methods
+        boolean hasReceiver = type == FunctionType.METHOD || type == FunctionType.INITIALISER;
+        allocate();
+        current.locals.add(new Local(hasReceiver ? "this" : "", 0));
+    }
+
+    private FunctionState endFunction() {
+        FunctionState state = current;
+        state.function.upvalueCount = state.upvalues.size();
+        state.function.chunk.seal();
+        current = state.enclosing;
+        return state;
+    }
+
+    private void beginScope() {
+        current.scopeDepth++;
+    }
+
+    private void endScope() {
+        closeLocals(current.scopeDepth - 1);
+        current.scopeDepth--;
+
+        List<Local> locals = current.locals;
+        while (!locals.isEmpty() && locals.get(locals.size() - 1).depth > current.scopeDepth) {
+            locals.remove(locals.size() - 1);
+        }
+        current.top = locals.size();
+    }
+
+    // Closes the upvalues of every captured local deeper than depth, for the end of a scope and for jumps that leave
+    // scopes early. A register isn't reused until its local's scope has ended, so nothing else needs undoing
+    private void closeLocals(int depth) {
+        List<Local> locals = current.locals;
+        int lowest = -1;
+        for (int i = locals.size() - 1; i >= 0 && locals.get(i).depth > depth; i--) {
+            if (locals.get(i).isCaptured) lowest = i;
+        }
+        if (lowest >= 0) emit(OpCode.CLOSE_UPVALUES, lowest);
+    }
+
+    private Loop beginLoop(boolean continuesForward) {
+        current.loop = new Loop(current.loop, current.function.chunk.count, current.scopeDepth, continuesForward);
+        return current.loop;
+    }
+
+    private void endLoop(Loop loop) {
+        for (int jump : loop.breakJumps) {
+            patchJump(jump);
+        }
+        current.loop = loop.enclosing;
+    }
+
+    // The local takes the register allocated last, which already holds its value
+    private void addLocal(String name, Token token) {
+        if (current.locals.size() == MAX_LOCALS) {
+            jlox.error(token, "Too many local variables in function.");
+            return;
+        }
+        current.locals.add(new Local(name, current.scopeDepth));
+    }
+
+    private int allocate() {
+        int register = current.top++;
+        if (current.top > current.function.frameSize) {
+            current.function.frameSize = current.top;
+        }
+        return register;
+    }
+
+    private void loadThis(Token keyword, int target) {
+        line = keyword.line;
+        loadNamed(keyword, "this", target);
+    }
+
+    private void loadNamed(Token token, String name, int target) {
+        int local = resolveLocal(current, name);
+        if (local >= 0) {
+            emitMove(target, local);
+            return;
+        }
+
+        int upvalue = resolveUpvalue(current, name);
+        if (upvalue >= 0) {
+            emit(OpCode.GET_UPVALUE, target, upvalue);
+            return;
+        }
+
+        emitGetGlobal(token, target);
+    }
+
+    private static int resolveLocal(FunctionState state, String name) {
+        for (int i = state.locals.size() - 1; i >= 0; i--) {
+            if (state.locals.get(i).name.equals(name)) return i;
+        }
+        return -1;
+    }
+
+    private int resolveUpvalue(FunctionState state, String name) {
+        if (state.enclosing == null) return -1;
+
+        int local = resolveLocal(state.enclosing, name);
+        if (local >= 0) {
+            state.enclosing.locals.get(local).isCaptured = true;
+            state.enclosing.function.capturesLocals = true;
+            return addUpvalue(state, local, true);
+        }
+
+        int upvalue = resolveUpvalue(state.enclosing, name);
+        if (upvalue >= 0) return addUpvalue(state, upvalue, false);
+
+        return -1;
+    }
+
+    private int addUpvalue(FunctionState state, int index, boolean isLocal) {
+        for (int i = 0; i < state.upvalues.size(); i++) {
+            UpvalueRef upvalue = state.upvalues.get(i);
+            if (upvalue.index == index && upvalue.isLocal == isLocal) return i;
+        }
+
+        if (state.upvalues.size() == MAX_UPVALUES) {
+            throw new RuntimeError(null, "Too many closure variables in function.");
+        }
+
+        state.upvalues.add(new UpvalueRef(index, isLocal));
+        return state.upvalues.size() - 1;
+    }
+
+    private void emitGetGlobal(Token name, int target) {
+        emit(OpCode.GET_GLOBAL, target);
+        emitGlobalIndex(name);
+        emitInt(makeConstant(name));
+    }
+
+    private void emitDefineGlobal(Token name, int register) {
+        emit(OpCode.DEFINE_GLOBAL, register, vm.globals.declare(name.symbol));
+    }
+
+    // Reading or assigning a global doesn't declare it: one that isn't declared yet is resolved by the VM at run time
+    private void emitGlobalIndex(Token name) {
+        emitInt(vm.globals.indexOf(name.symbol)); // OpCode.UNRESOLVED if it isn't declared
+    }
+
+    private void emitReturn() {
+        if (current.type == FunctionType.INITIALISER) {
+            emit(OpCode.RETURN, 0);
+            return;
+        }
+        int register = allocate();
+        emit(OpCode.NIL, register);
+        emit(OpCode.RETURN, register);
+        current.top = register;
+    }
+
+    private void emitMove(int target, int source) {
+        if (target != NO_TARGET && target != source) emit(OpCode.MOVE, target, source);
+    }
+
+    private void emitConstant(int target, Object value) {
+        emit(OpCode.CONSTANT, target, makeConstant(value));
+    }
+
+    // Numbers go in the code itself, so the VM never has to unbox a constant
+    private void emitNumber(double value) {
+        long bits = Double.doubleToRawLongBits(value);
+        emitInt((int)(bits >>> 32));
+        emitInt((int)bits);
+    }
+
+    private int makeConstant(Object value) {
+        return current.function.chunk.addConstant(value);
+    }
+
+    // A branch on a comparison compiles to one compare-and-jump, which reads its operands where they are; a
+    // comparison with a number literal takes the number from the code
+    @SuppressWarnings("incomplete-switch")
+    private int emitConditionJump(Expr condition) {
+        while (condition instanceof Expr.Grouping grouping) {
+            condition = grouping.expression;
+        }
+
+        int mark = current.top;
+        if (condition instanceof Expr.Binary binary) {
+            int op = -1;
+            switch (binary.operator.type) {
+                case EQUAL_EQUAL -> op = OpCode.JUMP_IF_NOT_EQUAL;
+                case BANG_EQUAL -> op = OpCode.JUMP_IF_NOT_NOT_EQUAL;
+                case GREATER -> op = OpCode.JUMP_IF_NOT_GREATER;
+                case GREATER_EQUAL -> op = OpCode.JUMP_IF_NOT_GREATER_EQUAL;
+                case LESS -> op = OpCode.JUMP_IF_NOT_LESS;
+                case LESS_EQUAL -> op = OpCode.JUMP_IF_NOT_LESS_EQUAL;
+            }
+            if (op >= 0) {
+                int left = operand(binary.left, isPure(binary.right));
+                Double number = number(binary.right);
+                line = binary.operator.line;
+                if (number != null) {
+                    emit(op + OpCode.JUMP_IF_NOT_EQUAL_NUMBER - OpCode.JUMP_IF_NOT_EQUAL, left);
+                    emitNumber(number);
+                } else {
+                    emit(op, left, operand(binary.right, true));
+                }
+                emitInt(-1);
+                current.top = mark;
+                return current.function.chunk.count - 1;
+            }
+        }
+
+        int jump = emitJump(OpCode.JUMP_IF_FALSE, operand(condition, true));
+        current.top = mark;
+        return jump;
+    }
+
+    private int emitJump(int op, int... operands) {
+        emit(op, operands);
+        emitInt(-1);
+        return current.function.chunk.count - 1;
+    }
+
+    private void patchJump(int offset) {
+        Chunk chunk = current.function.chunk;
+        chunk.code[offset] = chunk.count;
+    }
+
+    private void emitLoop(int loopStart) {
+        emit(OpCode.JUMP, loopStart);
+    }
+
+    private void emit(int op, int... operands) {
+        emitInt(op);
+        for (int operand : operands) {
+            emitInt(operand);
+        }
+    }
+
+    private void emitInt(int value) {
+        current.function.chunk.write(value, line);
+    }
+
+}
@@ -0,0 +1,36 @@
+package jlox;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+// A function's compiled bytecode, with a source line per code slot for runtime errors
+class Chunk {
+    int[] code = new int[64];
+    int[] lines = new int[64];
+    int count = 0;
+    Object[] constants; // filled in by seal() once the compiler is done with the chunk
+    private final List<Object> constantList = new ArrayList<>();
+
+    void write(int value, int line) {
+        if (count == code.length) {
+            code = Arrays.copyOf(code, count * 2);
+            lines = Arrays.copyOf(lines, count * 2);
+        }
+        code[count] = value;
+        lines[count] = line;
+        count++;
+    }
+
+    int addConstant(Object value) {
+        constantList.add(value);
+        return constantList.size() - 1;
+    }
+
+    void seal() {
+        code = Arrays.copyOf(code, count);
+        lines = Arrays.copyOf(lines, count);
+        constants = constantList.toArray();
+    }
+
+}
@@ -0,0 +1,316 @@
+package jlox;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+// Just enough of the JVM class file format for JitCompiler: a constant pool, and methods of raw bytecode.
+// It writes version 49 (Java 5) class files, which the JVM verifies by type inference, so no StackMapTable
+// frames are needed at branch targets.
+final class ClassFile {
+    private static final int VERSION = 49;
+
+    static final int ACC_PUBLIC = 0x0001;
+    static final int ACC_FINAL = 0x0010;
+    static final int ACC_SUPER = 0x0020;
+
+    // JVM instructions used by JitCompiler
+    static final int ACONST_NULL = 0x01;
+    static final int ICONST_0 = 0x03;
+    static final int BIPUSH = 0x10;
+    static final int SIPUSH = 0x11;
+    static final int ALOAD = 0x19;
+    static final int ALOAD_0 = 0x2a;
+    static final int AALOAD = 0x32;
+    static final int ASTORE = 0x3a;
+    static final int AASTORE = 0x53;
+    static final int POP = 0x57;
+    static final int DUP = 0x59;
+    static final int IXOR = 0x82;
+    static final int IFEQ = 0x99;
+    static final int IFNE = 0x9a;
+    static final int IF_ACMPNE = 0xa6;
+    static final int GOTO = 0xa7;
+    static final int ARETURN = 0xb0;
+    static final int RETURN = 0xb1;
+    static final int GETSTATIC = 0xb2;
+    static final int GETFIELD = 0xb4;
+    static final int INVOKEVIRTUAL = 0xb6;
+    static final int INVOKESPECIAL = 0xb7;
+    static final int INVOKESTATIC = 0xb8;
+    static final int ANEWARRAY = 0xbd;
+    static final int CHECKCAST = 0xc0;
+    static final int WIDE = 0xc4;
+
+    private final ByteArrayOutputStream pool = new ByteArrayOutputStream();
+    private final Map<String, Integer> entries = new HashMap<>(); // so each constant is only written once
+    private int poolCount = 1; // entry 0 is unused
+
+    private final int thisClass;
+    private final int superClass;
+    private final List<Code> methods = new ArrayList<>();
+
+    ClassFile(String name, String superName) {
+        this.thisClass = classRef(name);
+        this.superClass = classRef(superName);
+    }
+
+    // Thrown for code the class file can't hold (a jump or constant index too big); the JIT then gives up on it
+    static final class TooLarge extends RuntimeException {
+        TooLarge(String message) {
+            super(message, null, false, false);
+        }
+    }
+
+    private int entry(String key, int tag, byte[] body) {
+        Integer index = entries.get(key);
+        if (index != null) return index;
+
+        if (poolCount >= 0xffff) throw new TooLarge("Too many constants.");
+        pool.write(tag);
+        pool.write(body, 0, body.length);
+        entries.put(key, poolCount);
+        return poolCount++;
+    }
+
+    private static byte[] u2(int... values) {
+        byte[] bytes = new byte[values.length * 2];
+        for (int i = 0; i < values.length; i++) {
+            bytes[i * 2] = (byte)(values[i] >> 8);
+            bytes[i * 2 + 1] = (byte)values[i];
+        }
+        return bytes;
+    }
+
+    int utf8(String value) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try {
+            new DataOutputStream(bytes).writeUTF(value);
+        } catch (IOException e) {
+            throw new TooLarge("Constant string too long.");
+        }
+        return entry("U" + value, 1, bytes.toByteArray());
+    }
+
+    int classRef(String internalName) {
+        return entry("C" + internalName, 7, u2(utf8(internalName)));
+    }
+
+    private int nameAndType(String name, String descriptor) {
+        return entry("N" + name + " " + descriptor, 12, u2(utf8(name), utf8(descriptor)));
+    }
+
+    int fieldRef(String owner, String name, String descriptor) {
+        return entry("F" + owner + "." + name + descriptor, 9, u2(classRef(owner), nameAndType(name, descriptor)));
+    }
+
+    int methodRef(String owner, String name, String descriptor) {
+        return entry("M" + owner + "." + name + descriptor, 10, u2(classRef(owner), nameAndType(name, descriptor)));
+    }
+
+    Code method(int access, String name, String descriptor, int parameterSlots) {
+        Code code = new Code(access, utf8(name), utf8(descriptor), parameterSlots);
+        methods.add(code);
+        return code;
+    }
+
+    byte[] toBytes() {
+        int codeAttribute = utf8("Code");
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            DataOutputStream out = new DataOutputStream(bytes);
+            out.writeInt(0xCAFEBABE);
+            out.writeShort(0);
+            out.writeShort(VERSION);
+            out.writeShort(poolCount);
+            pool.writeTo(out);
+            out.writeShort(ACC_FINAL | ACC_SUPER);
+            out.writeShort(thisClass);
+            out.writeShort(superClass);
+            out.writeShort(0); // interfaces
+            out.writeShort(0); // fields
+            out.writeShort(methods.size());
+            for (Code method : methods) {
+                method.write(out, codeAttribute);
+            }
+            out.writeShort(0); // attributes
+            return bytes.toByteArray();
+        } catch (IOException e) {
+            throw new IllegalStateException(e); // can't happen writing to memory
+        }
+    }
+
+    // A jump target. Jumps to it before it's placed are patched when it is
+    static final class Label {
+        private int position = -1;
+        private int stack = -1; // operand stack depth on arrival
+        private final List<Integer> jumps = new ArrayList<>();
+    }
+
+    // One method's bytecode. The operand stack depth is tracked as it's written so max_stack comes out right:
+    // each emit says how much it pushes or pops, and code after a goto or return picks the depth up from a label
+    final class Code {
+        private final int access;
+        private final int name;
+        private final int descriptor;
+        private byte[] code = new byte[256];
+        private int length = 0;
+        private int stack = 0;
+        private boolean reachable = true;
+        private int maxStack = 0;
+        private int maxLocals;
+
+        private Code(int access, int name, int descriptor, int parameterSlots) {
+            this.access = access;
+            this.name = name;
+            this.descriptor = descriptor;
+            this.maxLocals = parameterSlots;
+        }
+
+        ClassFile classFile() {
+            return ClassFile.this;
+        }
+
+        int newLocal() {
+            if (maxLocals == 0xffff) throw new TooLarge("Too many locals.");
+            return maxLocals++;
+        }
+
+        private void u1(int value) {
+            if (length == code.length) code = Arrays.copyOf(code, length * 2);
+            code[length++] = (byte)value;
+        }
+
+        private void u2(int value) {
+            u1(value >> 8);
+            u1(value);
+        }
+
+        private void adjust(int delta) {
+            stack += delta;
+            maxStack = Math.max(maxStack, stack);
+        }
+
+        void op(int opcode, int delta) {
+            u1(opcode);
+            adjust(delta);
+        }
+
+        // An instruction with a two-byte constant pool operand
+        void op(int opcode, int index, int delta) {
+            u1(opcode);
+            u2(index);
+            adjust(delta);
+        }
+
+        void pushInt(int value) {
+            if (value >= -1 && value <= 5) {
+                op(ICONST_0 + value, 1);
+            } else if (value >= Byte.MIN_VALUE && value <= Byte.MAX_VALUE) {
+                op(BIPUSH, 1);
+                u1(value);
+            } else {
+                op(SIPUSH, 1);
+                u2(value);
+            }
+        }
+
+        void load(int local) {
+            local(ALOAD, local);
+            adjust(1);
+        }
+
+        void store(int local) {
+            local(ASTORE, local);
+            adjust(-1);
+        }
+
+        private void local(int opcode, int index) {
+            if (index > 0xff) {
+                u1(WIDE);
+                u1(opcode);
+                u2(index);
+            } else {
+                u1(opcode);
+                u1(index);
+            }
+        }
+
+        void invoke(int opcode, String owner, String name, String descriptor, int delta) {
+            op(opcode, methodRef(owner, name, descriptor), delta);
+        }
+
+        void jump(int opcode, Label target, int delta) {
+            adjust(delta);
+            arrive(target);
+            int jump = length;
+            u1(opcode);
+            u2(0);
+            if (target.position >= 0) {
+                patch(jump, target.position); // backwards, to a loop's start
+            } else {
+                target.jumps.add(jump);
+            }
+        }
+
+        // After a goto or return nothing falls through, so the depth comes from whoever jumps to what follows
+        void jumpAway(Label target) {
+            jump(GOTO, target, 0);
+            reachable = false;
+        }
+
+        void exit(int opcode) {
+            op(opcode, -1);
+            reachable = false;
+        }
+
+        // False after a goto or return, until a label is placed; callers skip code that can't run
+        boolean isReachable() {
+            return reachable;
+        }
+
+        private void arrive(Label target) {
+            if (target.stack < 0) target.stack = stack;
+        }
+
+        void place(Label label) {
+            if (reachable) {
+                arrive(label);
+            } else {
+                stack = Math.max(label.stack, 0);
+                reachable = true;
+            }
+            label.position = length;
+            for (int jump : label.jumps) patch(jump, label.position);
+        }
+
+        private void patch(int jump, int target) {
+            int offset = target - jump;
+            if (offset < Short.MIN_VALUE || offset > Short.MAX_VALUE) throw new TooLarge("Jump too far.");
+            code[jump + 1] = (byte)(offset >> 8);
+            code[jump + 2] = (byte)offset;
+        }
+
+        private void write(DataOutputStream out, int codeAttribute) throws IOException {
+            if (length > 0xffff) throw new TooLarge("Method too large.");
+            out.writeShort(access);
+            out.writeShort(name);
+            out.writeShort(descriptor);
+            out.writeShort(1); // attributes: just Code
+            out.writeShort(codeAttribute);
+            out.writeInt(12 + length);
+            out.writeShort(maxStack);
+            out.writeShort(maxLocals);
+            out.writeInt(length);
+            out.write(code, 0, length);
+            out.writeShort(0); // exception table
+            out.writeShort(0); // attributes
+        }
+    }
+
+}
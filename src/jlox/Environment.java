@@ -1,60 +1,143 @@
 package jlox;
 
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.Map;
 
 class Environment {
     final Environment enclosing;
-    private final Map<String, Object> values = new HashMap<>();
+    // Only the global environment knows names: each global gets a fixed index the first time it's declared,
+    // and call sites cache that index. Local frames are slot-indexed (slots are handed out by Resolver)
+    private final Map<Symbol, Integer> indices;
+    private Object[] slots;
+    private double[] numbers; // global numbers the VM keeps unboxed, marked NUMBER in their slot
+    private int count = 0;
     private static final Object UNINITIALISED = new Object(); // Sentinel value (Challenge 8.2)
+    private static final Object UNDEFINED = new Object(); // a global slot reserved by a compiled definition that hasn't run yet
+    private static final Object NUMBER = new Object(); // the value is in numbers (only the VM stores globals this way)
+    private static final int INITIAL_SLOTS = 4;
+    private static final int INITIAL_GLOBALS = 64;
 
     Environment() {
         enclosing = null;
+        indices = new HashMap<>();
+        slots = new Object[INITIAL_GLOBALS];
+        numbers = new double[INITIAL_GLOBALS];
     }
 
     Environment(Environment enclosing) {
         this.enclosing = enclosing;
+        this.indices = null;
+        this.slots = new Object[INITIAL_SLOTS];
     }
 
     void define(String name, Object value) {
-        values.put(name, value);
+        slots[declare(Symbol.of(name))] = value;
     }
 
-    void assign(Token name, Object value) {
-        if (values.containsKey(name.lexeme)) {
-            values.put(name.lexeme, value);
-            return;
+    // Locals are defined in the same order the Resolver declared them, so the next free slot is the resolved one
+    int define(Object value) {
+        if (count == slots.length) {
+            slots = Arrays.copyOf(slots, count * 2);
         }
+        slots[count] = value;
+        return count++;
+    }
+
+    // Index of a global, or -1 if it has never been declared. Lookups don't allocate, so a misspelt name in the REPL
+    // doesn't leave a slot behind
+    int indexOf(Symbol name) {
+        Integer index = indices.get(name);
+        return index != null ? index : -1;
+    }
+
+    int resolve(Token name) {
+        int index = indexOf(name.symbol);
+        if (index < 0) throw globalError(UNDEFINED, name);
 
-        if (enclosing != null) {
-            enclosing.assign(name, value);
-            return;
+        return index;
+    }
+
+    // Index for a global definition, stable for the life of the environment so redefining a name (e.g. in the REPL)
+    // keeps cached indices valid
+    int declare(Symbol name) {
+        Integer index = indices.get(name);
+        if (index != null) return index;
+
+        if (count == slots.length) {
+            slots = Arrays.copyOf(slots, count * 2);
+            numbers = Arrays.copyOf(numbers, count * 2);
         }
+        slots[count] = UNDEFINED;
+        indices.put(name, count);
+        return count++;
+    }
 
-        throw new RuntimeError(name, "Undefined variable '" + name.lexeme + "'.");
+    void assign(Token name, Object value) {
+        assignGlobal(resolve(name), name, value);
     }
 
     Object get(Token name) {
-        
-        if (values.containsKey(name.lexeme)) {
-            Object value = values.get(name.lexeme);
-            if (value == UNINITIALISED) {
-                throw new RuntimeError(name, "Variable '" + name.lexeme + "' is not initialized.");
-            }
-            return values.get(name.lexeme);
-        }
+        return getGlobal(resolve(name), name);
+    }
+
+    void defineGlobal(int index, Object value) {
+        slots[index] = value;
+    }
+
+    // The error paths live in globalError() so these stay small enough for the JIT to inline into hot loops
+    void assignGlobal(int index, Token name, Object value) {
+        if (slots[index] == UNDEFINED) throw globalError(UNDEFINED, name);
+
+        slots[index] = value;
+    }
 
-        if (enclosing != null) return enclosing.get(name);
+    Object getGlobal(int index, Token name) {
+        Object value = slots[index];
+        if (value == NUMBER) return numbers[index];
+        if (value == UNDEFINED || value == UNINITIALISED) throw globalError(value, name);
 
-        throw new RuntimeError(name, "Undefined variable '" + name.lexeme + "'.");
+        return value;
     }
-    
-    void assignAt(int distance, Token name, Object value) {
-        ancestor(distance).values.put(name.lexeme, value);
+
+    // The VM's unboxed access to global numbers. A number stored this way reads back boxed through getGlobal()
+    boolean isNumber(int index) {
+        return slots[index] == NUMBER;
     }
-    
-    Object getAt(int distance, String name) {
-        return ancestor(distance).values.get(name);
+
+    double getNumber(int index) {
+        return numbers[index];
+    }
+
+    void defineNumber(int index, double value) {
+        slots[index] = NUMBER;
+        numbers[index] = value;
+    }
+
+    void assignNumber(int index, Token name, double value) {
+        if (slots[index] == UNDEFINED) throw globalError(UNDEFINED, name);
+
+        slots[index] = NUMBER;
+        numbers[index] = value;
+    }
+
+    private static RuntimeError globalError(Object value, Token name) {
+        if (value == UNDEFINED) {
+            return new RuntimeError(name, "Undefined variable '" + name.lexeme + "'.");
+        }
+        return new RuntimeError(name, "Variable '" + name.lexeme + "' is not initialized.");
+    }
+
+    void assignAt(int distance, int slot, Object value) {
+        ancestor(distance).slots[slot] = value;
+    }
+
+    Object getLocal(int slot) {
+        return slots[slot];
+    }
+
+    Object getAt(int distance, int slot) {
+        return ancestor(distance).slots[slot];
     }
 
     Environment ancestor(int distance) {
@@ -70,5 +153,5 @@ class Environment {
     public static Object uninitialisedValue() {
         return UNINITIALISED;
     }
-    
+
 }
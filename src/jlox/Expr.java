@@ -11,6 +11,8 @@ abstract class Expr {
         R visitFunctionExpr(Function expr);
         R visitGetExpr(Get expr);
         R visitGroupingExpr(Grouping expr);
+        R visitInlineExpr(Inline expr);
+        R visitInvariantExpr(Invariant expr);
         R visitLiteralExpr(Literal expr);
         R visitLogicalExpr(Logical expr);
         R visitSetExpr(Set expr);
@@ -47,6 +49,9 @@ abstract class Expr {
 
         final Token name;
         final Expr value;
+        int depth = -1;
+        int slot = -1;
+        int global = -1;
     }
 
     static class Binary extends Expr {
@@ -111,6 +116,7 @@ abstract class Expr {
 
         final Expr object;
         final Token name;
+        PropertyCache cache = new PropertyCache();
     }
 
     static class Grouping extends Expr {
@@ -126,6 +132,37 @@ abstract class Expr {
         final Expr expression;
     }
 
+    static class Inline extends Expr {
+        Inline(Expr.Call call, Token function, Expr body) {
+            this.call = call;
+            this.function = function;
+            this.body = body;
+        }
+
+        @Override
+        <R> R accept(Visitor<R> visitor) {
+            return visitor.visitInlineExpr(this);
+        }
+
+        final Expr.Call call;
+        final Token function;
+        final Expr body;
+    }
+
+    static class Invariant extends Expr {
+        Invariant(Expr expression) {
+            this.expression = expression;
+        }
+
+        @Override
+        <R> R accept(Visitor<R> visitor) {
+            return visitor.visitInvariantExpr(this);
+        }
+
+        final Expr expression;
+        Object value = LoopInvariants.UNSET;
+    }
+
     static class Literal extends Expr {
         Literal(Object value) {
             this.value = value;
@@ -171,6 +208,7 @@ abstract class Expr {
         final Expr object;
         final Token name;
         final Expr value;
+        PropertyCache cache = new PropertyCache();
     }
 
     static class Super extends Expr {
@@ -186,6 +224,7 @@ abstract class Expr {
 
         final Token keyword;
         final Token method;
+        int depth = -1;
     }
 
     static class This extends Expr {
@@ -199,6 +238,8 @@ abstract class Expr {
         }
 
         final Token keyword;
+        int depth = -1;
+        int slot = -1;
     }
 
     static class Ternary extends Expr {
@@ -248,6 +289,10 @@ abstract class Expr {
         }
 
         final Token name;
+        int depth = -1;
+        int slot = -1;
+        int global = -1;
+        Resolver.VariableInfo binding = null;
     }
 
     abstract <R> R accept(Visitor<R> visitor);
@@ -0,0 +1,308 @@
+package jlox;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+// Inlining of small top-level functions (-O), for the Optimizer.
+// A function can be inlined if its body is a single `return <expression>;` of at most MAX_SIZE nodes that doesn't
+// call itself, assign a parameter or make a closure. Its only locals are then its parameters, and everything else
+// it reads is a global, so the expression means the same wherever it's put.
+// A call to it with the right number of arguments, each a literal, a local or "this", becomes an Expr.Inline of the
+// body with the arguments in place of the parameters. Those arguments can be read any number of times, in any order,
+// without changing anything (a local that the body could assign through a closure it calls has to be one that's
+// never assigned at all).
+// The Inline checks that the global still holds the function it was made from and makes the call as written if not,
+// so a name rebound later (in the REPL, or by assigning to it) just loses the inlining.
+class Inliner {
+    private static final int MAX_SIZE = 12;
+
+    private static final class Candidate {
+        final Token name;
+        final int arity;
+        final Expr body;
+        final boolean runsCode; // calls or gets, which could run Lox code that assigns an argument's variable
+
+        Candidate(Token name, int arity, Expr body, boolean runsCode) {
+            this.name = name;
+            this.arity = arity;
+            this.body = body;
+            this.runsCode = runsCode;
+        }
+    }
+
+    // Kept across REPL lines: a function declared on one line can be inlined into the next
+    private final Map<String, Candidate> candidates = new HashMap<>();
+
+    // Called with each program before it's optimized, so calls can be inlined ahead of the declaration
+    void declare(List<Stmt> program) {
+        for (Stmt stmt : program) {
+            if (stmt instanceof Stmt.Function function) {
+                Candidate candidate = candidate(function);
+                if (candidate != null) {
+                    candidates.put(function.name.lexeme, candidate);
+                } else {
+                    candidates.remove(function.name.lexeme);
+                }
+            } else if (stmt instanceof Stmt.Var var) {
+                candidates.remove(var.name.lexeme);
+            } else if (stmt instanceof Stmt.Class klass) {
+                candidates.remove(klass.name.lexeme);
+            }
+        }
+    }
+
+    private static Candidate candidate(Stmt.Function function) {
+        if (function.params == null || function.body.size() != 1) return null;
+        if (!(function.body.get(0) instanceof Stmt.Return stmt) || stmt.value == null) return null;
+
+        Size size = new Size(function.name.lexeme);
+        int nodes = stmt.value.accept(size);
+        if (nodes > MAX_SIZE) return null;
+        return new Candidate(function.name, function.params.size(), stmt.value, size.runsCode);
+    }
+
+    // The Inline for this call, or null if it can't be inlined
+    Expr.Inline inline(Expr.Call call) {
+        if (!(call.callee instanceof Expr.Variable callee) || callee.depth >= 0) return null;
+
+        Candidate candidate = candidates.get(callee.name.lexeme);
+        if (candidate == null || candidate.arity != call.arguments.size()) return null;
+
+        for (Expr argument : call.arguments) {
+            if (argument instanceof Expr.Literal || argument instanceof Expr.This) continue;
+            if (argument instanceof Expr.Variable variable && variable.depth >= 0) {
+                if (!candidate.runsCode || (variable.binding != null && !variable.binding.assigned)) continue;
+            }
+            return null;
+        }
+
+        return new Expr.Inline(call, candidate.name, candidate.body.accept(new Substitution(call.arguments)));
+    }
+
+    // Counts the nodes in a body, or gives MAX_SIZE + 1 for anything that rules it out
+    private static final class Size implements Expr.Visitor<Integer> {
+        private static final int TOO_BIG = MAX_SIZE + 1;
+        private final String function;
+        boolean runsCode = false;
+
+        Size(String function) {
+            this.function = function;
+        }
+
+        private int sum(Expr... exprs) {
+            int total = 1;
+            for (Expr expr : exprs) {
+                total = Math.min(TOO_BIG, total + expr.accept(this));
+            }
+            return total;
+        }
+
+        private int sum(List<Expr> exprs) {
+            return sum(exprs.toArray(new Expr[0]));
+        }
+
+        @Override
+        public Integer visitArrayExpr(Expr.Array expr) {
+            return sum(expr.elements);
+        }
+
+        @Override
+        public Integer visitAssignExpr(Expr.Assign expr) {
+            if (expr.depth >= 0 || expr.name.lexeme.equals(function)) return TOO_BIG;
+            return sum(expr.value);
+        }
+
+        @Override
+        public Integer visitBinaryExpr(Expr.Binary expr) {
+            return sum(expr.left, expr.right);
+        }
+
+        @Override
+        public Integer visitCallExpr(Expr.Call expr) {
+            runsCode = true;
+            List<Expr> parts = new ArrayList<>(expr.arguments);
+            parts.add(expr.callee);
+            return sum(parts);
+        }
+
+        @Override
+        public Integer visitFunctionExpr(Expr.Function expr) {
+            return TOO_BIG;
+        }
+
+        @Override
+        public Integer visitGetExpr(Expr.Get expr) {
+            runsCode = true; // getters
+            return sum(expr.object);
+        }
+
+        @Override
+        public Integer visitGroupingExpr(Expr.Grouping expr) {
+            return expr.expression.accept(this);
+        }
+
+        @Override
+        public Integer visitInlineExpr(Expr.Inline expr) {
+            return TOO_BIG;
+        }
+
+        @Override
+        public Integer visitInvariantExpr(Expr.Invariant expr) {
+            return TOO_BIG;
+        }
+
+        @Override
+        public Integer visitLiteralExpr(Expr.Literal expr) {
+            return 1;
+        }
+
+        @Override
+        public Integer visitLogicalExpr(Expr.Logical expr) {
+            return sum(expr.left, expr.right);
+        }
+
+        @Override
+        public Integer visitSetExpr(Expr.Set expr) {
+            return sum(expr.object, expr.value);
+        }
+
+        @Override
+        public Integer visitSuperExpr(Expr.Super expr) {
+            return TOO_BIG;
+        }
+
+        @Override
+        public Integer visitThisExpr(Expr.This expr) {
+            return TOO_BIG;
+        }
+
+        @Override
+        public Integer visitTernaryExpr(Expr.Ternary expr) {
+            return sum(expr.condition, expr.thenExpr, expr.elseExpr);
+        }
+
+        @Override
+        public Integer visitUnaryExpr(Expr.Unary expr) {
+            return sum(expr.right);
+        }
+
+        @Override
+        public Integer visitVariableExpr(Expr.Variable expr) {
+            if (expr.depth < 0 && expr.name.lexeme.equals(function)) return TOO_BIG; // recursive
+            return 1;
+        }
+    }
+
+    // Copies a candidate's body with the arguments in place of the parameters, which are the only locals in it
+    // (slot i of the function's own frame is parameter i)
+    private static final class Substitution implements Expr.Visitor<Expr> {
+        private final List<Expr> arguments;
+
+        Substitution(List<Expr> arguments) {
+            this.arguments = arguments;
+        }
+
+        private Expr copy(Expr expr) {
+            return expr.accept(this);
+        }
+
+        private List<Expr> copyAll(List<Expr> exprs) {
+            List<Expr> copies = new ArrayList<>(exprs.size());
+            for (Expr expr : exprs) {
+                copies.add(copy(expr));
+            }
+            return copies;
+        }
+
+        @Override
+        public Expr visitArrayExpr(Expr.Array expr) {
+            return new Expr.Array(copyAll(expr.elements));
+        }
+
+        @Override
+        public Expr visitAssignExpr(Expr.Assign expr) {
+            Expr.Assign assign = new Expr.Assign(expr.name, copy(expr.value)); // only globals, see Size
+            assign.global = expr.global;
+            return assign;
+        }
+
+        @Override
+        public Expr visitBinaryExpr(Expr.Binary expr) {
+            return new Expr.Binary(copy(expr.left), expr.operator, copy(expr.right));
+        }
+
+        @Override
+        public Expr visitCallExpr(Expr.Call expr) {
+            return new Expr.Call(copy(expr.callee), expr.paren, copyAll(expr.arguments));
+        }
+
+        @Override
+        public Expr visitFunctionExpr(Expr.Function expr) {
+            throw new IllegalStateException("Closures aren't inlined.");
+        }
+
+        @Override
+        public Expr visitGetExpr(Expr.Get expr) {
+            return new Expr.Get(copy(expr.object), expr.name);
+        }
+
+        @Override
+        public Expr visitGroupingExpr(Expr.Grouping expr) {
+            return new Expr.Grouping(copy(expr.expression));
+        }
+
+        @Override
+        public Expr visitInlineExpr(Expr.Inline expr) {
+            throw new IllegalStateException("Inlined calls aren't inlined again.");
+        }
+
+        @Override
+        public Expr visitInvariantExpr(Expr.Invariant expr) {
+            throw new IllegalStateException("Loop invariants aren't inlined.");
+        }
+
+        @Override
+        public Expr visitLiteralExpr(Expr.Literal expr) {
+            return expr;
+        }
+
+        @Override
+        public Expr visitLogicalExpr(Expr.Logical expr) {
+            return new Expr.Logical(copy(expr.left), expr.operator, copy(expr.right));
+        }
+
+        @Override
+        public Expr visitSetExpr(Expr.Set expr) {
+            return new Expr.Set(copy(expr.object), expr.name, copy(expr.value));
+        }
+
+        @Override
+        public Expr visitSuperExpr(Expr.Super expr) {
+            throw new IllegalStateException("Functions don't use 'super'.");
+        }
+
+        @Override
+        public Expr visitThisExpr(Expr.This expr) {
+            throw new IllegalStateException("Functions don't use 'this'.");
+        }
+
+        @Override
+        public Expr visitTernaryExpr(Expr.Ternary expr) {
+            return new Expr.Ternary(copy(expr.condition), expr.op1, copy(expr.thenExpr), expr.op2, copy(expr.elseExpr));
+        }
+
+        @Override
+        public Expr visitUnaryExpr(Expr.Unary expr) {
+            return new Expr.Unary(expr.operator, copy(expr.right));
+        }
+
+        @Override
+        public Expr visitVariableExpr(Expr.Variable expr) {
+            if (expr.depth >= 0) return arguments.get(expr.slot);
+            return expr;
+        }
+    }
+
+}
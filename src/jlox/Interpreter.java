@@ -10,19 +10,36 @@ class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
     final Environment globals = new Environment();
 
     private Environment environment = globals;
-    private final Map<Expr, Integer> locals = new HashMap<>();
 
     private static class BreakException extends RuntimeException {
     // This exception is used to break out of loops in the interpreter.
-    // It does not carry any additional information.
+    // It does not carry any additional information, so one stackless instance is thrown every time.
+        BreakException() {
+            super(null, null, false, false);
+        }
     }
 
     private static class ContinueException extends RuntimeException {
     // This exception is used to continue to the next iteration of loops in the interpreter.
-    // It does not carry any additional information.
+    // It does not carry any additional information, so one stackless instance is thrown every time.
+        ContinueException() {
+            super(null, null, false, false);
+        }
     }
 
+    private static final BreakException BREAK = new BreakException();
+    private static final ContinueException CONTINUE = new ContinueException();
+
+    // Reused for every return: jloxFunction.run() reads the value as soon as it catches it,
+    // and no Lox code runs while it unwinds, so one per interpreter is enough
+    private final Return returnSignal = new Return(null);
+
     Interpreter() {
+        defineNatives(globals);
+    }
+
+    // Shared with the bytecode VM so both engines start from the same globals
+    static void defineNatives(Environment globals) {
         // Core library
         globals.define("clock", new CoreLibrary.clock());
         globals.define("print", new CoreLibrary.print());
@@ -101,11 +118,11 @@ class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
     public Object visitAssignExpr(Expr.Assign expr) {
         Object value = evaluate(expr.value);
 
-        Integer distance =locals.get(expr);
-        if (distance != null) {
-            environment.assignAt(distance, expr.name, value);
+        if (expr.depth >= 0) {
+            environment.assignAt(expr.depth, expr.slot, value);
         } else {
-            globals.assign(expr.name, value);
+            if (expr.global < 0) expr.global = globals.resolve(expr.name);
+            globals.assignGlobal(expr.global, expr.name, value);
         }
         
         return value;
@@ -197,23 +214,95 @@ class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
 
     @Override
     public Object visitCallExpr(Expr.Call expr) {
+        return call(expr, false);
+    }
+
+    // A tail call (return f(...)) to a Lox function isn't made here: its frame is set up and thrown as a TailCall
+    // for the enclosing jloxFunction.run() to make
+    private Object call(Expr.Call expr, boolean tail) {
+        // obj.method(...) calls the method with obj as "this" directly, rather than binding it just to call it once
+        if (expr.callee instanceof Expr.Get get) {
+            Object object = evaluate(get.object);
+            if (object instanceof jloxInstance instance && !(object instanceof jloxArray)) {
+                jloxFunction method = get.cache.method(instance, get.name);
+                if (method != null && !method.getIsGetter()) {
+                    return callFunction(expr, method, instance, tail);
+                }
+            }
+
+            return callValue(expr, getProperty(get, object));
+        }
+
         Object callee = evaluate(expr.callee);
+        if (tail && callee instanceof jloxFunction function) {
+            return callFunction(expr, function, function.receiver, true);
+        }
+        return callValue(expr, callee);
+    }
 
-        List<Object> arguments = new ArrayList<>();
+    private Object callFunction(Expr.Call expr, jloxFunction function, jloxInstance receiver, boolean tail) {
+        Environment frame = function.frame(receiver);
         for (Expr argument : expr.arguments) {
-            arguments.add(evaluate(argument));
+            frame.define(evaluate(argument));
         }
+        checkArity(expr.paren, function, expr.arguments.size());
+
+        if (tail) throw new TailCall(function, receiver, frame);
+        return function.run(frame, receiver, this);
+    }
 
-        if (!(callee instanceof jloxCallable)) {
-            throw new RuntimeError(expr.paren, "Can only call functions and classes.");
+    // Arguments are passed through the fixed-arity entry points where there are few enough, so no list is built
+    private Object callValue(Expr.Call expr, Object callee) {
+        List<Expr> arguments = expr.arguments;
+        switch (arguments.size()) {
+            case 0 -> {
+                return callable(expr.paren, callee, 0).call0(this);
+            }
+            case 1 -> {
+                Object a = evaluate(arguments.get(0));
+                return callable(expr.paren, callee, 1).call1(this, a);
+            }
+            case 2 -> {
+                Object a = evaluate(arguments.get(0));
+                Object b = evaluate(arguments.get(1));
+                return callable(expr.paren, callee, 2).call2(this, a, b);
+            }
+            case 3 -> {
+                Object a = evaluate(arguments.get(0));
+                Object b = evaluate(arguments.get(1));
+                Object c = evaluate(arguments.get(2));
+                return callable(expr.paren, callee, 3).call3(this, a, b, c);
+            }
+            case 4 -> {
+                Object a = evaluate(arguments.get(0));
+                Object b = evaluate(arguments.get(1));
+                Object c = evaluate(arguments.get(2));
+                Object d = evaluate(arguments.get(3));
+                return callable(expr.paren, callee, 4).call4(this, a, b, c, d);
+            }
+            default -> {
+                Object[] values = new Object[arguments.size()];
+                for (int i = 0; i < values.length; i++) {
+                    values[i] = evaluate(arguments.get(i));
+                }
+                return callable(expr.paren, callee, values.length).callN(this, values);
+            }
         }
+    }
 
-        jloxCallable function = (jloxCallable)callee;
-        if (arguments.size() != function.arity()) {
-            throw new RuntimeError(expr.paren, "Expected " + function.arity() + " arguments but got " + arguments.size() + ".");
+    // Checked after the arguments are evaluated, as before
+    private jloxCallable callable(Token paren, Object callee, int count) {
+        if (!(callee instanceof jloxCallable function)) {
+            throw new RuntimeError(paren, "Can only call functions and classes.");
         }
+        checkArity(paren, function, count);
+        return function;
+    }
 
-        return function.call(this, arguments);
+    private void checkArity(Token paren, jloxCallable function, int count) {
+        if (count != function.arity()) {
+            throw new RuntimeError(paren, "Expected " + function.arity() + " arguments but got " + count + ".");
+        }
     }
 
     // Challenge 10.2
@@ -226,27 +315,20 @@ class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
 
     @Override
     public Object visitGetExpr(Expr.Get expr) {
-        Object object = evaluate(expr.object);
+        return getProperty(expr, evaluate(expr.object));
+    }
 
+    Object getProperty(Expr.Get expr, Object object) { // package-private for compiled code (JitFunction)
         if (object instanceof jloxArray array) {
             return array.get(expr.name);
         }
 
         if (object instanceof jloxInstance instance) {
-            jloxFunction method = instance.getKlass().findMethod(expr.name.lexeme);
-            if (method != null) {
-                if (method.getIsGetter()) {
-                    return method.bind(instance).call(this, null);
-                } else {
-                    return method.bind(instance);
-                }
-            }
-
-            return instance.get(expr.name);
+            return expr.cache.get(instance, expr.name, this); // methods first, then fields
         }
 
         if (object instanceof jloxClass klass) {
-            jloxFunction staticMethod = klass.findMethod(expr.name.lexeme);
+            jloxFunction staticMethod = klass.findMethod(expr.name.symbol);
             if (staticMethod != null) {
                 if (staticMethod.getIsGetter()) {
                     return staticMethod.call(this, List.of());
@@ -265,6 +347,30 @@ class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
         return evaluate(expr.expression);
     }
 
+    // -O: see Inliner
+    @Override
+    public Object visitInlineExpr(Expr.Inline expr) {
+        if (evaluate(expr.call.callee) instanceof jloxFunction function && function.declaration.getName() == expr.function) {
+            return evaluate(expr.body);
+        }
+        return evaluate(expr.call); // the name's been rebound since
+    }
+
+    // -O: see LoopInvariants
+    @Override
+    public Object visitInvariantExpr(Expr.Invariant expr) {
+        if (expr.value != LoopInvariants.UNSET) return expr.value;
+
+        if (expr.expression instanceof Expr.Get get) {
+            Object object = evaluate(get.object);
+            Object length = getProperty(get, object);
+            if (object instanceof jloxArray) expr.value = length; // anything else's length can change
+            return length;
+        }
+
+        return expr.value = evaluate(expr.expression);
+    }
+
     @Override
     public Object visitLiteralExpr(Expr.Literal expr) {
         return expr.value;
@@ -289,7 +395,7 @@ class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
 
         if (object instanceof jloxInstance instance) {
             Object value = evaluate(expr.value);
-            instance.set(expr.name, value);
+            expr.cache.set(instance, expr.name, value);
             return value;
         }
 
@@ -299,12 +405,13 @@ class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
 
     @Override
     public Object visitSuperExpr(Expr.Super expr) {
-        int distance = locals.get(expr);
-        jloxClass superclass = (jloxClass)environment.getAt(distance, "super");
+        int distance = expr.depth;
+        jloxClass superclass = (jloxClass)environment.getAt(distance, 0);
 
-        jloxInstance object = (jloxInstance)environment.getAt(distance - 1, "this");
+        // "this" is always the only slot in the scope just inside "super"
+        jloxInstance object = (jloxInstance)environment.getAt(distance - 1, 0);
 
-        jloxFunction method = superclass.findMethod(expr.method.lexeme);
+        jloxFunction method = superclass.findMethod(expr.method.symbol);
 
         if (method == null) {
             throw new RuntimeError(expr.method, "Undefined property '" + expr.method.lexeme + "'.");
@@ -326,7 +433,7 @@ class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
 
     @Override
     public Object visitThisExpr(Expr.This expr) {
-        return lookUpVariable(expr.keyword, expr);
+        return lookUpVariable(expr.keyword, expr.depth, expr.slot);
     }
 
     @SuppressWarnings("incomplete-switch")
@@ -350,18 +457,30 @@ class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
 
     @Override
     public Object visitVariableExpr(Expr.Variable expr) {
-        return lookUpVariable(expr.name, expr);
+        if (expr.depth >= 0) {
+            return environment.getAt(expr.depth, expr.slot);
+        }
+
+        if (expr.global < 0) expr.global = globals.resolve(expr.name);
+        return globals.getGlobal(expr.global, expr.name);
     }
     
     @Override
     public Void visitBlockStmt(Stmt.Block stmt) {
+        if (!stmt.hasScope) {
+            for (Stmt statement : stmt.statements) {
+                execute(statement);
+            }
+            return null;
+        }
+
         executeBlock(stmt.statements, new Environment(environment));
         return null;
     }
 
     @Override // Challenge 9.3
     public Void visitBreakStmt(Stmt.Break stmt) {
-        throw new BreakException();
+        throw BREAK;
     }
 
     @Override
@@ -374,19 +493,17 @@ class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
             }
         }
 
-        environment.define(stmt.name.lexeme, null);
-
         if (stmt.superclass != null) {
             environment = new Environment(environment);
-            environment.define("super", superclass);
+            environment.define(superclass);
         }
 
         // challenge 12.1
-        Map<String, jloxFunction> staticMethods = new HashMap<>();
+        Map<Symbol, jloxFunction> staticMethods = new HashMap<>();
         for (Stmt.Function staticMethod : stmt.staticMethods) {
             FunctionDeclaration someMethod = new FunctionDeclaration(staticMethod);
             jloxFunction function = new jloxFunction(someMethod, environment, staticMethod.name.lexeme.equals("init"), someMethod.getParams() == null);
-            staticMethods.put(staticMethod.name.lexeme, function);
+            staticMethods.put(staticMethod.name.symbol, function);
         }
 
         // challenge 12.1
@@ -395,11 +512,11 @@ class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
         // static methods on the metaclass are usually empty
         // metaclass's class can be null or point to a base Class class
 
-        Map<String, jloxFunction> methods = new HashMap<>();
+        Map<Symbol, jloxFunction> methods = new HashMap<>();
         for (Stmt.Function method : stmt.methods) {
             FunctionDeclaration someMethod = new FunctionDeclaration(method);
             jloxFunction function = new jloxFunction(someMethod, environment, method.name.lexeme.equals("init"), someMethod.getParams() == null);
-            methods.put(method.name.lexeme, function);
+            methods.put(method.name.symbol, function);
         }
 
         jloxClass klass = new jloxClass(stmt.name.lexeme, (jloxClass)superclass, methods, metaclass);
@@ -408,13 +525,14 @@ class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
             environment = environment.enclosing;
         }
 
-        environment.assign(stmt.name, klass);
+        // nothing can observe the class before this point, so it is defined once it's complete
+        define(stmt.name, klass);
         return null;
     }
 
     @Override // Challenge 9.3
     public Void visitContinueStmt(Stmt.Continue stmt) {
-        throw new ContinueException();
+        throw CONTINUE;
     }
 
     @Override
@@ -425,8 +543,25 @@ class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
 
     @Override
     public Void visitForDesugaredStmt(Stmt.ForDesugared stmt) {
+        if (stmt.invariants == null) {
+            runFor(stmt);
+            return null;
+        }
+
+        Object[] outer = LoopInvariants.enter(stmt.invariants);
+        try {
+            runFor(stmt);
+        } finally {
+            LoopInvariants.exit(stmt.invariants, outer);
+        }
+        return null;
+    }
+
+    private void runFor(Stmt.ForDesugared stmt) {
+        if (stmt.backEdges == 0) stmt.backEdges = JitCompiler.initialCount(stmt.keyword);
         try {
-            while (isTruthy(evaluate(stmt.condition))) {
+            while (stmt.compiled == null) {
+                if (!isTruthy(evaluate(stmt.condition))) return;
                 try {
                     execute(stmt.body);
                     execute(stmt.increment);
@@ -434,12 +569,15 @@ class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
                     execute(stmt.increment);
                 }
 
+                if (stmt.backEdges <= JitCompiler.threshold && stmt.backEdges++ == JitCompiler.threshold) {
+                    stmt.compiled = JitCompiler.compileLoop(stmt, stmt.keyword, this);
+                }
             }
             
         } catch (BreakException e) {
+            return;
         }
-
-        return null;
+        runCompiled(stmt.compiled);
     }
 
     @Override
@@ -447,7 +585,7 @@ class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
         // Challenge 10.2, syntax changed from original
         FunctionDeclaration someFunctionStmt = new FunctionDeclaration(stmt);
         jloxFunction function = new jloxFunction(someFunctionStmt, environment, false, false);
-        environment.define(stmt.name.lexeme, function);
+        define(stmt.name, function);
         return null;
     }
 
@@ -470,10 +608,22 @@ class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
 
     @Override
     public Void visitReturnStmt(Stmt.Return stmt) {
-        Object value = null;
-        if (stmt.value != null) value = evaluate(stmt.value);
+        Object value = stmt.value == null ? null : evaluateReturn(stmt.value);
 
-        throw new Return(value);
+        returnSignal.value = value;
+        throw returnSignal;
+    }
+
+    // A call in tail position, as in the VM also through parentheses and either branch of a ternary, is a tail call
+    private Object evaluateReturn(Expr value) {
+        if (value instanceof Expr.Call call) {
+            return call(call, true); // only returns if the callee isn't a Lox function
+        } else if (value instanceof Expr.Grouping grouping) {
+            return evaluateReturn(grouping.expression);
+        } else if (value instanceof Expr.Ternary ternary) {
+            return evaluateReturn(isTruthy(evaluate(ternary.condition)) ? ternary.thenExpr : ternary.elseExpr);
+        }
+        return evaluate(value);
     }
     
     @Override
@@ -485,25 +635,57 @@ class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
             value = Environment.uninitialisedValue();
         }
 
-        environment.define(stmt.name.lexeme, value);
+        define(stmt.name, value);
         return null;
     }
     
     @Override
     public Void visitWhileStmt(Stmt.While stmt) {
+        if (stmt.invariants == null) {
+            runWhile(stmt);
+            return null;
+        }
+
+        Object[] outer = LoopInvariants.enter(stmt.invariants);
         try {
-            while (isTruthy(evaluate(stmt.condition))) {
+            runWhile(stmt);
+        } finally {
+            LoopInvariants.exit(stmt.invariants, outer);
+        }
+        return null;
+    }
+
+    private void runWhile(Stmt.While stmt) {
+        if (stmt.backEdges == 0) stmt.backEdges = JitCompiler.initialCount(stmt.keyword);
+        try {
+            while (stmt.compiled == null) {
+                if (!isTruthy(evaluate(stmt.condition))) return;
                 try {
                     execute(stmt.body);
                 } catch (ContinueException ex) {
                 // continue
                 }
+
+                if (stmt.backEdges <= JitCompiler.threshold && stmt.backEdges++ == JitCompiler.threshold) {
+                    stmt.compiled = JitCompiler.compileLoop(stmt, stmt.keyword, this);
+                }
             } 
         } catch (BreakException ex) {
             // break out of loop
+            return;
         }
+        runCompiled(stmt.compiled);
+    }
 
-        return null;
+    // Loops count their back-edges, and one that comes round often enough is compiled (see JitCompiler.compileLoop).
+    // The compiled loop starts from the condition, so it can take over between iterations: the loop that made it
+    // hot carries on in it (on-stack replacement), and so does every later run of the loop
+    private void runCompiled(JitFunction loop) {
+        Object value = loop.resume(environment);
+        if (value != JitFunction.NO_RETURN) {
+            returnSignal.value = value; // a return from inside the loop
+            throw returnSignal;
+        }
     }
 
     private void checkNumberOperand(Token operator, Object operand) {
@@ -537,14 +719,18 @@ class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
         return expr.accept(this);
     }
 
-    void resolve(Expr expr, int depth) {
-        locals.put(expr, depth);
+    private void define(Token name, Object value) {
+        if (environment == globals) {
+            globals.defineGlobal(globals.declare(name.symbol), value);
+        } else {
+            environment.define(value);
+        }
     }
 
-    private Object lookUpVariable(Token name, Expr expr) {
-        Integer distance = locals.get(expr);
-        if (distance != null) {
-            return environment.getAt(distance, name.lexeme);
+    // depth is -1 when the Resolver didn't find the name in any local scope
+    private Object lookUpVariable(Token name, int depth, int slot) {
+        if (depth >= 0) {
+            return environment.getAt(depth, slot);
         } else {
             return globals.get(name);
         }
@@ -0,0 +1,685 @@
+package jlox;
+
+import java.lang.invoke.MethodHandles;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+// Compiles a hot function (see jloxFunction.compiled()) or loop (see Interpreter.runCompiled()) to a JVM class
+// extending JitFunction, which HotSpot then compiles to machine code like any other. Only top-level functions are
+// compiled: everything they read is then either one of their own locals, which become JVM locals (nothing can
+// capture them, as closures aren't compiled), or a global. Anything the compiler doesn't handle (closures, classes,
+// "this", "super") is left to the tree-walker, which is also what runs everything until it's hot.
+// The generated code only moves values around and branches; the operators, calls and property accesses go
+// through the static helpers in JitFunction, so they behave, and fail, exactly as they do in the tree-walker.
+final class JitCompiler implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
+    // Calls to a function, or times round a loop, in the tree-walker before it's compiled (--jit=N);
+    // negative turns the JIT off
+    static int threshold = 1000;
+
+    private static final String CODE = "jlox/JitCode";
+    private static final String BASE = "jlox/JitFunction";
+    private static final String OBJECT = "Ljava/lang/Object;";
+    private static final String TOKEN = "Ljlox/Token;";
+    private static final String ENVIRONMENT = "Ljlox/Environment;";
+    private static final String INTERPRETER = "Ljlox/Interpreter;";
+
+    // Thrown for anything the compiler doesn't handle
+    private static final class Unsupported extends RuntimeException {
+        Unsupported() {
+            super(null, null, false, false);
+        }
+    }
+
+    private static final Unsupported UNSUPPORTED = new Unsupported();
+
+    private record Loop(ClassFile.Label breakTarget, ClassFile.Label continueTarget) {}
+
+    private final jloxFunction function; // what's being compiled: a function,
+    private final Stmt loop; // or a loop, for the tree-walker to switch to part way through
+    private final Environment globals;
+    private final ClassFile classFile = new ClassFile(CODE, BASE);
+    private final List<Object> constants = new ArrayList<>();
+    private final Map<Object, Integer> constantIndices = new IdentityHashMap<>();
+    private final List<List<Integer>> scopes = new ArrayList<>(); // the JVM local for each slot of each scope
+    private final Deque<Loop> loops = new ArrayDeque<>();
+    private ClassFile.Code code;
+    private final ClassFile.Label start = new ClassFile.Label(); // after the parameters are set up
+    private int[] parameters;
+    private int environment = -1; // for a loop, the JVM local holding the Environment it runs in
+
+    private JitCompiler(jloxFunction function, Stmt loop, Environment globals) {
+        this.function = function;
+        this.loop = loop;
+        this.globals = globals;
+    }
+
+    // The compiled function, or null if it can't be compiled
+    static JitFunction compile(jloxFunction function, Interpreter interpreter) {
+        Token name = function.declaration.getName();
+        if (name == null || function.getClass() != jloxFunction.class) return null;
+        if (function.receiver != null || function.isInitialiser || function.isGetter) return null;
+
+        // A top-level function is one held in the global of its name (which a method never is)
+        Environment globals = interpreter.globals;
+        int index = globals.indexOf(name.symbol);
+        if (function.closure != globals || index < 0 || globals.getAt(0, index) != function) return null;
+
+        JitFunction compiled = new JitCompiler(function, null, globals).load(interpreter);
+        if (compiled != null) Profile.compiled(name);
+        return compiled;
+    }
+
+    // The compiled form of a hot loop (a While or ForDesugared), or null if it can't be compiled. It runs from the
+    // condition on, with the variables declared inside it in JVM locals; the ones from outside it are still
+    // in the Environment the tree-walker was running it in, so it can be in any function, or none
+    static JitFunction compileLoop(Stmt loop, Token keyword, Interpreter interpreter) {
+        JitFunction compiled = new JitCompiler(null, loop, interpreter.globals).load(interpreter);
+        if (compiled != null) Profile.compiled(keyword);
+        return compiled;
+    }
+
+    // Where a function's call count or a loop's back-edge count starts: at the threshold, so the first use compiles
+    // it, for one the profile says was hot last time
+    static int initialCount(Token token) {
+        return threshold >= 0 && Profile.isHot(token) ? threshold : 0;
+    }
+
+    private JitFunction load(Interpreter interpreter) {
+        try {
+            byte[] bytes = compile();
+            MethodHandles.Lookup lookup = MethodHandles.lookup().defineHiddenClass(bytes, true);
+            JitFunction compiled = (JitFunction)lookup.lookupClass().getDeclaredConstructor().newInstance();
+            compiled.constants = constants.toArray();
+            compiled.globals = globals;
+            compiled.interpreter = interpreter;
+            compiled.function = function;
+            return compiled;
+        } catch (Unsupported | ClassFile.TooLarge | LinkageError | ReflectiveOperationException e) {
+            return null;
+        }
+    }
+
+    private byte[] compile() {
+        ClassFile.Code constructor = classFile.method(ClassFile.ACC_PUBLIC, "<init>", "()V", 1);
+        constructor.load(0);
+        constructor.invoke(ClassFile.INVOKESPECIAL, BASE, "<init>", "()V", -1);
+        constructor.op(ClassFile.RETURN, 0);
+
+        if (loop != null) {
+            code = classFile.method(0, "resume", "(" + ENVIRONMENT + ")" + OBJECT, 2);
+            environment = 1;
+            parameters = new int[0];
+            compile(loop);
+            if (code.isReachable()) {
+                code.op(ClassFile.GETSTATIC, classFile.fieldRef(BASE, "NO_RETURN", OBJECT), 1);
+                code.exit(ClassFile.ARETURN);
+            }
+            return classFile.toBytes();
+        }
+
+        int arity = function.arity();
+        List<Integer> frame = new ArrayList<>();
+        parameters = new int[arity];
+        if (arity <= 4) {
+            code = classFile.method(0, "call" + arity, "(" + OBJECT.repeat(arity) + ")" + OBJECT, 1 + arity);
+            for (int i = 0; i < arity; i++) {
+                parameters[i] = 1 + i;
+            }
+        } else {
+            code = classFile.method(0, "callN", "([" + OBJECT + ")" + OBJECT, 2);
+            for (int i = 0; i < arity; i++) {
+                code.load(1);
+                code.pushInt(i);
+                code.op(ClassFile.AALOAD, -1);
+                parameters[i] = code.newLocal();
+                code.store(parameters[i]);
+            }
+        }
+        for (int parameter : parameters) {
+            frame.add(parameter);
+        }
+
+        code.place(start);
+        scopes.add(frame);
+        statements(function.declaration.getBody());
+        if (code.isReachable()) {
+            code.op(ClassFile.ACONST_NULL, 1);
+            code.exit(ClassFile.ARETURN);
+        }
+        return classFile.toBytes();
+    }
+
+    // Helpers
+
+    private void compile(Expr expr) {
+        expr.accept(this);
+    }
+
+    private void compile(Stmt stmt) {
+        stmt.accept(this);
+    }
+
+    // Stops at a statement nothing can reach (after a return, break or continue); the rest of the block is dead too
+    private void statements(List<Stmt> statements) {
+        for (Stmt statement : statements) {
+            if (!code.isReachable()) return;
+            compile(statement);
+        }
+    }
+
+    private void constant(Object value) {
+        Integer index = constantIndices.get(value);
+        if (index == null) {
+            index = constants.size();
+            constants.add(value);
+            constantIndices.put(value, index);
+        }
+        code.load(0);
+        code.op(ClassFile.GETFIELD, classFile.fieldRef(BASE, "constants", "[" + OBJECT), 0);
+        code.pushInt(index);
+        code.op(ClassFile.AALOAD, -1);
+    }
+
+    // A constant of a known class, for helpers whose parameters are typed
+    private void constant(Object value, String internalName) {
+        constant(value);
+        code.op(ClassFile.CHECKCAST, classFile.classRef(internalName), 0);
+    }
+
+    private void token(Token token) {
+        constant(token, "jlox/Token");
+    }
+
+    // A global that isn't declared yet has no index to bake in, so leave the function to the interpreter
+    private int globalIndex(Token name) {
+        int index = globals.indexOf(name.symbol);
+        if (index < 0) throw UNSUPPORTED;
+        return index;
+    }
+
+    private void field(String name, String descriptor) {
+        code.load(0);
+        code.op(ClassFile.GETFIELD, classFile.fieldRef(BASE, name, descriptor), 0);
+    }
+
+    private void helper(String name, String descriptor, int delta) {
+        code.invoke(ClassFile.INVOKESTATIC, BASE, name, descriptor, delta);
+    }
+
+    // A compiled loop's scopes run out before the Resolver's do: further out is the Environment
+    private boolean inEnvironment(int depth) {
+        return depth >= scopes.size();
+    }
+
+    private int local(int depth, int slot) {
+        return scopes.get(scopes.size() - 1 - depth).get(slot);
+    }
+
+    private void array(List<Expr> elements) {
+        code.pushInt(elements.size());
+        code.op(ClassFile.ANEWARRAY, classFile.classRef("java/lang/Object"), 0);
+        for (int i = 0; i < elements.size(); i++) {
+            code.op(ClassFile.DUP, 1);
+            code.pushInt(i);
+            compile(elements.get(i));
+            code.op(ClassFile.AASTORE, -3);
+        }
+    }
+
+    // Jumps to target if the condition is falsey, comparing without boxing the result where it can
+    private void jumpIfFalse(Expr condition, ClassFile.Label target) {
+        while (condition instanceof Expr.Grouping grouping) {
+            condition = grouping.expression;
+        }
+
+        if (condition instanceof Expr.Binary binary) {
+            String comparison = comparison(binary.operator.type);
+            if (comparison != null) {
+                compile(binary.left);
+                compile(binary.right);
+                token(binary.operator);
+                helper(comparison, "(" + OBJECT + OBJECT + TOKEN + ")Z", -2);
+                code.jump(ClassFile.IFEQ, target, -1);
+                return;
+            }
+            if (binary.operator.type == TokenType.EQUAL_EQUAL || binary.operator.type == TokenType.BANG_EQUAL) {
+                compile(binary.left);
+                compile(binary.right);
+                helper("isEqual", "(" + OBJECT + OBJECT + ")Z", -1);
+                code.jump(binary.operator.type == TokenType.EQUAL_EQUAL ? ClassFile.IFEQ : ClassFile.IFNE, target, -1);
+                return;
+            }
+        }
+
+        compile(condition);
+        helper("isTruthy", "(" + OBJECT + ")Z", 0);
+        code.jump(ClassFile.IFEQ, target, -1);
+    }
+
+    private static String comparison(TokenType type) {
+        return switch (type) {
+            case GREATER -> "greater";
+            case GREATER_EQUAL -> "greaterEqual";
+            case LESS -> "less";
+            case LESS_EQUAL -> "lessEqual";
+            default -> null;
+        };
+    }
+
+    // Pushes the callee of a call: obj.name(...) looks the method up on obj before the arguments are evaluated
+    private void callee(Expr callee) {
+        if (callee instanceof Expr.Get get) {
+            compile(get.object);
+            constant(get, "jlox/Expr$Get");
+            field("interpreter", INTERPRETER);
+            helper("method", "(" + OBJECT + "Ljlox/Expr$Get;" + INTERPRETER + ")" + OBJECT, -2);
+        } else {
+            compile(callee);
+        }
+    }
+
+    // Expressions each push one value
+
+    @Override
+    public Void visitArrayExpr(Expr.Array expr) {
+        array(expr.elements);
+        helper("array", "([" + OBJECT + ")" + OBJECT, 0);
+        return null;
+    }
+
+    @Override
+    public Void visitAssignExpr(Expr.Assign expr) {
+        compile(expr.value);
+        if (expr.depth >= 0 && inEnvironment(expr.depth)) {
+            code.load(environment);
+            code.pushInt(expr.depth - scopes.size());
+            code.pushInt(expr.slot);
+            helper("assignAt", "(" + OBJECT + ENVIRONMENT + "II)" + OBJECT, -3);
+        } else if (expr.depth >= 0) {
+            code.op(ClassFile.DUP, 1);
+            code.store(local(expr.depth, expr.slot));
+        } else {
+            field("globals", ENVIRONMENT);
+            code.pushInt(globalIndex(expr.name));
+            token(expr.name);
+            helper("assignGlobal", "(" + OBJECT + ENVIRONMENT + "I" + TOKEN + ")" + OBJECT, -3);
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitBinaryExpr(Expr.Binary expr) {
+        compile(expr.left);
+        if (expr.operator.type == TokenType.COMMA) {
+            code.op(ClassFile.POP, -1);
+            compile(expr.right);
+            return null;
+        }
+        compile(expr.right);
+
+        String comparison = comparison(expr.operator.type);
+        switch (expr.operator.type) {
+            case PLUS, MINUS, STAR, SLASH, PERCENT -> {
+                String name = switch (expr.operator.type) {
+                    case PLUS -> "add";
+                    case MINUS -> "subtract";
+                    case STAR -> "multiply";
+                    case SLASH -> "divide";
+                    default -> "modulo";
+                };
+                token(expr.operator);
+                helper(name, "(" + OBJECT + OBJECT + TOKEN + ")" + OBJECT, -2);
+            }
+            case EQUAL_EQUAL, BANG_EQUAL -> {
+                helper("isEqual", "(" + OBJECT + OBJECT + ")Z", -1);
+                if (expr.operator.type == TokenType.BANG_EQUAL) not();
+                box();
+            }
+            default -> {
+                if (comparison == null) throw new IllegalStateException("Unexpected binary operator " + expr.operator.type);
+                token(expr.operator);
+                helper(comparison, "(" + OBJECT + OBJECT + TOKEN + ")Z", -2);
+                box();
+            }
+        }
+        return null;
+    }
+
+    // Flips the int boolean on top of the stack
+    private void not() {
+        code.pushInt(1);
+        code.op(ClassFile.IXOR, -1);
+    }
+
+    private void box() {
+        helper("box", "(Z)" + OBJECT, 0);
+    }
+
+    @Override
+    public Void visitCallExpr(Expr.Call expr) {
+        int count = expr.arguments.size();
+        code.load(0);
+        callee(expr.callee);
+        if (count <= 4) {
+            for (Expr argument : expr.arguments) {
+                compile(argument);
+            }
+            token(expr.paren);
+            code.invoke(ClassFile.INVOKEVIRTUAL, BASE, "invoke" + count, "(" + OBJECT.repeat(count + 1) + TOKEN + ")" + OBJECT, -(count + 2));
+        } else {
+            array(expr.arguments);
+            token(expr.paren);
+            code.invoke(ClassFile.INVOKEVIRTUAL, BASE, "invokeN", "(" + OBJECT + "[" + OBJECT + TOKEN + ")" + OBJECT, -3);
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitFunctionExpr(Expr.Function expr) {
+        throw UNSUPPORTED;
+    }
+
+    @Override
+    public Void visitGetExpr(Expr.Get expr) {
+        compile(expr.object);
+        constant(expr, "jlox/Expr$Get");
+        field("interpreter", INTERPRETER);
+        helper("getProperty", "(" + OBJECT + "Ljlox/Expr$Get;" + INTERPRETER + ")" + OBJECT, -2);
+        return null;
+    }
+
+    @Override
+    public Void visitGroupingExpr(Expr.Grouping expr) {
+        compile(expr.expression);
+        return null;
+    }
+
+    // The call as written: a call to a top-level function is as cheap as the inlined body here
+    @Override
+    public Void visitInlineExpr(Expr.Inline expr) {
+        compile(expr.call);
+        return null;
+    }
+
+    // Re-evaluated each time: a JVM local can't outlive the loop's run as the tree-walker's cached value does
+    @Override
+    public Void visitInvariantExpr(Expr.Invariant expr) {
+        compile(expr.expression);
+        return null;
+    }
+
+    @Override
+    public Void visitLiteralExpr(Expr.Literal expr) {
+        if (expr.value == null) {
+            code.op(ClassFile.ACONST_NULL, 1);
+        } else if (expr.value instanceof Boolean value) {
+            code.op(ClassFile.GETSTATIC, classFile.fieldRef("java/lang/Boolean", value ? "TRUE" : "FALSE", "Ljava/lang/Boolean;"), 1);
+        } else {
+            constant(expr.value);
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitLogicalExpr(Expr.Logical expr) {
+        ClassFile.Label end = new ClassFile.Label();
+        compile(expr.left);
+        code.op(ClassFile.DUP, 1);
+        helper("isTruthy", "(" + OBJECT + ")Z", 0);
+        code.jump(expr.operator.type == TokenType.OR ? ClassFile.IFNE : ClassFile.IFEQ, end, -1);
+        code.op(ClassFile.POP, -1);
+        compile(expr.right);
+        code.place(end);
+        return null;
+    }
+
+    @Override
+    public Void visitSetExpr(Expr.Set expr) {
+        compile(expr.object);
+        constant(expr, "jlox/Expr$Set");
+        helper("settable", "(" + OBJECT + "Ljlox/Expr$Set;)Ljlox/jloxInstance;", -1);
+        compile(expr.value);
+        constant(expr, "jlox/Expr$Set");
+        helper("setProperty", "(Ljlox/jloxInstance;" + OBJECT + "Ljlox/Expr$Set;)" + OBJECT, -2);
+        return null;
+    }
+
+    @Override
+    public Void visitSuperExpr(Expr.Super expr) {
+        throw UNSUPPORTED;
+    }
+
+    @Override
+    public Void visitTernaryExpr(Expr.Ternary expr) {
+        ClassFile.Label elseBranch = new ClassFile.Label();
+        ClassFile.Label end = new ClassFile.Label();
+        jumpIfFalse(expr.condition, elseBranch);
+        compile(expr.thenExpr);
+        code.jumpAway(end);
+        code.place(elseBranch);
+        compile(expr.elseExpr);
+        code.place(end);
+        return null;
+    }
+
+    @Override
+    public Void visitThisExpr(Expr.This expr) {
+        throw UNSUPPORTED;
+    }
+
+    @Override
+    public Void visitUnaryExpr(Expr.Unary expr) {
+        compile(expr.right);
+        if (expr.operator.type == TokenType.BANG) {
+            helper("isTruthy", "(" + OBJECT + ")Z", 0);
+            not();
+            box();
+        } else {
+            token(expr.operator);
+            helper("negate", "(" + OBJECT + TOKEN + ")" + OBJECT, -1);
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitVariableExpr(Expr.Variable expr) {
+        if (expr.depth >= 0 && inEnvironment(expr.depth)) {
+            code.load(environment);
+            code.pushInt(expr.depth - scopes.size());
+            code.pushInt(expr.slot);
+            code.invoke(ClassFile.INVOKEVIRTUAL, "jlox/Environment", "getAt", "(II)" + OBJECT, -2);
+        } else if (expr.depth >= 0) {
+            code.load(local(expr.depth, expr.slot));
+        } else {
+            field("globals", ENVIRONMENT);
+            code.pushInt(globalIndex(expr.name));
+            token(expr.name);
+            code.invoke(ClassFile.INVOKEVIRTUAL, "jlox/Environment", "getGlobal", "(I" + TOKEN + ")" + OBJECT, -2);
+        }
+        return null;
+    }
+
+    // Statements leave the stack as they found it (empty)
+
+    @Override
+    public Void visitBlockStmt(Stmt.Block stmt) {
+        if (!stmt.hasScope) {
+            statements(stmt.statements);
+            return null;
+        }
+
+        scopes.add(new ArrayList<>());
+        statements(stmt.statements);
+        scopes.remove(scopes.size() - 1);
+        return null;
+    }
+
+    @Override
+    public Void visitBreakStmt(Stmt.Break stmt) {
+        if (loops.isEmpty()) throw UNSUPPORTED;
+        code.jumpAway(loops.peek().breakTarget());
+        return null;
+    }
+
+    @Override
+    public Void visitClassStmt(Stmt.Class stmt) {
+        throw UNSUPPORTED;
+    }
+
+    @Override
+    public Void visitContinueStmt(Stmt.Continue stmt) {
+        if (loops.isEmpty()) throw UNSUPPORTED;
+        code.jumpAway(loops.peek().continueTarget());
+        return null;
+    }
+
+    @Override
+    public Void visitExpressionStmt(Stmt.Expression stmt) {
+        compile(stmt.expression);
+        code.op(ClassFile.POP, -1);
+        return null;
+    }
+
+    @Override
+    public Void visitForDesugaredStmt(Stmt.ForDesugared stmt) {
+        ClassFile.Label top = new ClassFile.Label();
+        ClassFile.Label increment = new ClassFile.Label();
+        ClassFile.Label end = new ClassFile.Label();
+        code.place(top);
+        jumpIfFalse(stmt.condition, end);
+        loops.push(new Loop(end, increment));
+        compile(stmt.body);
+        loops.pop();
+        code.place(increment);
+        compile(stmt.increment);
+        code.jumpAway(top);
+        code.place(end);
+        return null;
+    }
+
+    @Override
+    public Void visitFunctionStmt(Stmt.Function stmt) {
+        throw UNSUPPORTED;
+    }
+
+    @Override
+    public Void visitIfStmt(Stmt.If stmt) {
+        ClassFile.Label elseBranch = new ClassFile.Label();
+        jumpIfFalse(stmt.condition, elseBranch);
+        compile(stmt.thenBranch);
+        if (stmt.elseBranch == null) {
+            code.place(elseBranch);
+            return null;
+        }
+
+        ClassFile.Label end = new ClassFile.Label();
+        if (code.isReachable()) code.jumpAway(end);
+        code.place(elseBranch);
+        compile(stmt.elseBranch);
+        code.place(end);
+        return null;
+    }
+
+    @Override
+    public Void visitReturnStmt(Stmt.Return stmt) {
+        if (stmt.value == null) {
+            code.op(ClassFile.ACONST_NULL, 1);
+            code.exit(ClassFile.ARETURN);
+        } else {
+            returnValue(stmt.value);
+        }
+        return null;
+    }
+
+    // A call in tail position, also through parentheses and either branch of a ternary, is a tail call
+    private void returnValue(Expr value) {
+        if (value instanceof Expr.Call call) {
+            tailCall(call);
+        } else if (value instanceof Expr.Grouping grouping) {
+            returnValue(grouping.expression);
+        } else if (value instanceof Expr.Ternary ternary) {
+            ClassFile.Label elseBranch = new ClassFile.Label();
+            jumpIfFalse(ternary.condition, elseBranch);
+            returnValue(ternary.thenExpr);
+            code.place(elseBranch);
+            returnValue(ternary.elseExpr);
+        } else {
+            compile(value);
+            code.exit(ClassFile.ARETURN);
+        }
+    }
+
+    // `return f(...)`: to itself, the arguments become the parameters and it jumps back to the start; anything
+    // else goes through JitFunction.tailCall(), which hands a Lox function back to the caller's trampoline
+    private void tailCall(Expr.Call call) {
+        callee(call.callee);
+        int callee = code.newLocal();
+        code.store(callee);
+        int[] arguments = new int[call.arguments.size()];
+        for (int i = 0; i < arguments.length; i++) {
+            compile(call.arguments.get(i));
+            arguments[i] = code.newLocal();
+            code.store(arguments[i]);
+        }
+
+        if (function != null && arguments.length == parameters.length) {
+            ClassFile.Label other = new ClassFile.Label();
+            code.load(callee);
+            field("function", "Ljlox/jloxFunction;");
+            code.jump(ClassFile.IF_ACMPNE, other, -2);
+            for (int i = 0; i < arguments.length; i++) {
+                code.load(arguments[i]);
+                code.store(parameters[i]);
+            }
+            code.jumpAway(start);
+            code.place(other);
+        }
+
+        code.load(callee);
+        code.pushInt(arguments.length);
+        code.op(ClassFile.ANEWARRAY, classFile.classRef("java/lang/Object"), 0);
+        for (int i = 0; i < arguments.length; i++) {
+            code.op(ClassFile.DUP, 1);
+            code.pushInt(i);
+            code.load(arguments[i]);
+            code.op(ClassFile.AASTORE, -3);
+        }
+        token(call.paren);
+        field("interpreter", INTERPRETER);
+        helper("tailCall", "(" + OBJECT + "[" + OBJECT + TOKEN + INTERPRETER + ")" + OBJECT, -3);
+        code.exit(ClassFile.ARETURN);
+    }
+
+    @Override
+    public Void visitVarStmt(Stmt.Var stmt) {
+        if (scopes.isEmpty()) throw UNSUPPORTED; // a loop's body that isn't a block
+        if (stmt.initialiser != null) {
+            compile(stmt.initialiser);
+        } else {
+            code.invoke(ClassFile.INVOKESTATIC, "jlox/Environment", "uninitialisedValue", "()" + OBJECT, 1);
+        }
+        int local = code.newLocal();
+        code.store(local);
+        scopes.get(scopes.size() - 1).add(local);
+        return null;
+    }
+
+    @Override
+    public Void visitWhileStmt(Stmt.While stmt) {
+        ClassFile.Label top = new ClassFile.Label();
+        ClassFile.Label end = new ClassFile.Label();
+        code.place(top);
+        jumpIfFalse(stmt.condition, end);
+        loops.push(new Loop(end, top));
+        compile(stmt.body);
+        loops.pop();
+        if (code.isReachable()) code.jumpAway(top);
+        code.place(end);
+        return null;
+    }
+
+}
@@ -0,0 +1,289 @@
+package jlox;
+
+// Base class of the classes JitCompiler generates. A generated class overrides the entry point for its function's
+// arity, and its code calls the static helpers here for anything more than moving values around, so those
+// helpers have to do exactly what the tree-walker does, errors included.
+abstract class JitFunction {
+    // Filled in by JitCompiler once the class is loaded; generated code reads them
+    Object[] constants; // numbers, strings, tokens and AST nodes the code refers to
+    Environment globals;
+    Interpreter interpreter;
+    jloxFunction function; // the function this is the compiled form of, for calls to itself; null for a loop
+
+    static final Object NO_RETURN = new Object(); // what resume() gives when the loop ends without returning
+
+    Object call0() {
+        throw new IllegalStateException();
+    }
+
+    Object call1(Object a) {
+        throw new IllegalStateException();
+    }
+
+    Object call2(Object a, Object b) {
+        throw new IllegalStateException();
+    }
+
+    Object call3(Object a, Object b, Object c) {
+        throw new IllegalStateException();
+    }
+
+    Object call4(Object a, Object b, Object c, Object d) {
+        throw new IllegalStateException();
+    }
+
+    Object callN(Object[] arguments) {
+        throw new IllegalStateException();
+    }
+
+    // A compiled loop, run in the environment the loop is in
+    Object resume(Environment environment) {
+        throw new IllegalStateException();
+    }
+
+    // For a call the tree-walker has already made a frame for (a tail call, or a call through a List)
+    final Object enter(Environment frame) {
+        return switch (function.arity()) {
+            case 0 -> call0();
+            case 1 -> call1(frame.getAt(0, 0));
+            case 2 -> call2(frame.getAt(0, 0), frame.getAt(0, 1));
+            case 3 -> call3(frame.getAt(0, 0), frame.getAt(0, 1), frame.getAt(0, 2));
+            case 4 -> call4(frame.getAt(0, 0), frame.getAt(0, 1), frame.getAt(0, 2), frame.getAt(0, 3));
+            default -> {
+                Object[] arguments = new Object[function.arity()];
+                for (int i = 0; i < arguments.length; i++) {
+                    arguments[i] = frame.getAt(0, i);
+                }
+                yield callN(arguments);
+            }
+        };
+    }
+
+    static boolean isTruthy(Object object) {
+        if (object == null) return false;
+        if (object instanceof Boolean) return (boolean)object;
+        return true;
+    }
+
+    private static void checkNumberOperands(Token operator, Object left, Object right) {
+        if (left instanceof Double && right instanceof Double) return;
+        throw new RuntimeError(operator, "Operands must be numbers.");
+    }
+
+    static Object add(Object left, Object right, Token operator) {
+        if (left instanceof Double && right instanceof Double) {
+            return (double)left + (double)right;
+        }
+        if (left instanceof String || right instanceof String) {
+            return CoreLibrary.stringify(left) + CoreLibrary.stringify(right);
+        }
+        throw new RuntimeError(operator, "Addition requires two number operator, string concanentation requires at least one string object.");
+    }
+
+    static Object subtract(Object left, Object right, Token operator) {
+        checkNumberOperands(operator, left, right);
+        return (double)left - (double)right;
+    }
+
+    static Object multiply(Object left, Object right, Token operator) {
+        checkNumberOperands(operator, left, right);
+        return (double)left * (double)right;
+    }
+
+    static Object divide(Object left, Object right, Token operator) {
+        checkNumberOperands(operator, left, right);
+        if ((double)right == 0) {
+            throw new RuntimeError(operator, "Division by zero is undefined.");
+        }
+        return (double)left / (double)right;
+    }
+
+    static Object modulo(Object left, Object right, Token operator) {
+        if ((double)right == 0) {
+            throw new RuntimeError(operator, "Modulo by zero is undefined.");
+        }
+        return (double)left % (double)right;
+    }
+
+    // Comparisons come as a boolean for conditions to branch on, and boxed for values
+    static boolean greater(Object left, Object right, Token operator) {
+        if (left instanceof String && right instanceof String) {
+            return ((String)left).compareTo((String)right) > 0;
+        }
+        checkNumberOperands(operator, left, right);
+        return (double)left > (double)right;
+    }
+
+    static boolean greaterEqual(Object left, Object right, Token operator) {
+        if (left instanceof String && right instanceof String) {
+            return ((String)left).compareTo((String)right) >= 0;
+        }
+        checkNumberOperands(operator, left, right);
+        return (double)left >= (double)right;
+    }
+
+    static boolean less(Object left, Object right, Token operator) {
+        if (left instanceof String && right instanceof String) {
+            return ((String)left).compareTo((String)right) < 0;
+        }
+        checkNumberOperands(operator, left, right);
+        return (double)left < (double)right;
+    }
+
+    static boolean lessEqual(Object left, Object right, Token operator) {
+        if (left instanceof String && right instanceof String) {
+            return ((String)left).compareTo((String)right) <= 0;
+        }
+        checkNumberOperands(operator, left, right);
+        return (double)left <= (double)right;
+    }
+
+    static boolean isEqual(Object a, Object b) {
+        if (a == null && b == null) return true;
+        if (a == null) return false;
+
+        return a.equals(b);
+    }
+
+    static Object box(boolean value) {
+        return value;
+    }
+
+    static Object negate(Object right, Token operator) {
+        if (!(right instanceof Double)) {
+            throw new RuntimeError(operator, "Operand must be a number.");
+        }
+        return -(double)right;
+    }
+
+    static Object array(Object[] elements) {
+        return new jloxArray(elements);
+    }
+
+    static Object getProperty(Object object, Expr.Get expr, Interpreter interpreter) {
+        return interpreter.getProperty(expr, object);
+    }
+
+    static Object assignAt(Object value, Environment environment, int distance, int slot) {
+        environment.assignAt(distance, slot, value);
+        return value;
+    }
+
+    static Object assignGlobal(Object value, Environment globals, int index, Token name) {
+        globals.assignGlobal(index, name, value);
+        return value;
+    }
+
+    // Before the value is evaluated, as the tree-walker does
+    static jloxInstance settable(Object object, Expr.Set expr) {
+        if (object instanceof jloxInstance instance) return instance;
+        throw new RuntimeError(expr.name, "Only instances have fields.");
+    }
+
+    static Object setProperty(jloxInstance instance, Object value, Expr.Set expr) {
+        expr.cache.set(instance, expr.name, value);
+        return value;
+    }
+
+    private static jloxCallable callable(Token paren, Object callee, int count) {
+        if (!(callee instanceof jloxCallable function)) {
+            throw new RuntimeError(paren, "Can only call functions and classes.");
+        }
+        if (count != function.arity()) {
+            throw new RuntimeError(paren, "Expected " + function.arity() + " arguments but got " + count + ".");
+        }
+        return function;
+    }
+
+    // The callee of obj.name(...): a method is bound to obj here, where the tree-walker passes obj in as it calls it
+    static Object method(Object object, Expr.Get get, Interpreter interpreter) {
+        if (object instanceof jloxInstance instance && !(object instanceof jloxArray)) {
+            jloxFunction method = get.cache.method(instance, get.name);
+            if (method != null && !method.getIsGetter()) return method.bind(instance);
+        }
+        return interpreter.getProperty(get, object);
+    }
+
+    // Calls, where a call to the function itself goes straight to its compiled code. That skips jloxFunction's
+    // trampoline, so a tail call the inner call makes is run here rather than escaping into this frame's caller
+    final Object invoke0(Object callee, Token paren) {
+        if (callee == function && function != null && function.arity() == 0) {
+            try {
+                return call0();
+            } catch (TailCall call) {
+                return call.function.run(call.frame, call.receiver, interpreter);
+            }
+        }
+        return callable(paren, callee, 0).call0(interpreter);
+    }
+
+    final Object invoke1(Object callee, Object a, Token paren) {
+        if (callee == function && function != null && function.arity() == 1) {
+            try {
+                return call1(a);
+            } catch (TailCall call) {
+                return call.function.run(call.frame, call.receiver, interpreter);
+            }
+        }
+        return callable(paren, callee, 1).call1(interpreter, a);
+    }
+
+    final Object invoke2(Object callee, Object a, Object b, Token paren) {
+        if (callee == function && function != null && function.arity() == 2) {
+            try {
+                return call2(a, b);
+            } catch (TailCall call) {
+                return call.function.run(call.frame, call.receiver, interpreter);
+            }
+        }
+        return callable(paren, callee, 2).call2(interpreter, a, b);
+    }
+
+    final Object invoke3(Object callee, Object a, Object b, Object c, Token paren) {
+        if (callee == function && function != null && function.arity() == 3) {
+            try {
+                return call3(a, b, c);
+            } catch (TailCall call) {
+                return call.function.run(call.frame, call.receiver, interpreter);
+            }
+        }
+        return callable(paren, callee, 3).call3(interpreter, a, b, c);
+    }
+
+    final Object invoke4(Object callee, Object a, Object b, Object c, Object d, Token paren) {
+        if (callee == function && function != null && function.arity() == 4) {
+            try {
+                return call4(a, b, c, d);
+            } catch (TailCall call) {
+                return call.function.run(call.frame, call.receiver, interpreter);
+            }
+        }
+        return callable(paren, callee, 4).call4(interpreter, a, b, c, d);
+    }
+
+    final Object invokeN(Object callee, Object[] arguments, Token paren) {
+        if (callee == function && function != null && function.arity() == arguments.length) {
+            try {
+                return callN(arguments);
+            } catch (TailCall call) {
+                return call.function.run(call.frame, call.receiver, interpreter);
+            }
+        }
+        return callable(paren, callee, arguments.length).callN(interpreter, arguments);
+    }
+
+    // `return f(...)`: a Lox function is handed back to the jloxFunction.run() trampoline that called this code,
+    // as the tree-walker does, so tail calls still don't grow the stack
+    static Object tailCall(Object callee, Object[] arguments, Token paren, Interpreter interpreter) {
+        if (callee instanceof jloxFunction function) {
+            Environment frame = function.frame(function.receiver);
+            for (Object argument : arguments) {
+                frame.define(argument);
+            }
+            callable(paren, function, arguments.length);
+            throw new TailCall(function, function.receiver, frame);
+        }
+        return callable(paren, callee, arguments.length).callN(interpreter, arguments);
+    }
+
+}
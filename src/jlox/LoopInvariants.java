@@ -0,0 +1,547 @@
+package jlox;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+// Loop-invariant code motion (-O). The Optimizer hands over each while/for loop once its parts are optimized.
+// A pure expression is invariant if everything it reads holds still while the loop runs:
+//  - literals and "this"
+//  - variables declared outside the loop that are never assigned anywhere (the Resolver marks assigned locals,
+//    and the Optimizer collects assigned globals)
+//  - variables declared outside the loop that the loop doesn't assign, if the loop can't run any Lox code
+//    (calls, property gets) that might assign them instead
+//  - x.length for invariant x, kept only if x turns out to be an array, since arrays can't change length
+// The largest invariant parts of the condition, body and increment are wrapped in Expr.Invariant. An engine
+// evaluates one on its first use in each run of the loop and reuses the value after that: evaluating on first
+// use rather than before the loop keeps any runtime error (1 / n with n = 0) where it would have happened.
+class LoopInvariants implements Expr.Visitor<Expr>, Stmt.Visitor<Stmt> {
+    // Expr.Invariant.value before its first use in the current run of the loop
+    static final Object UNSET = new Object();
+
+    private final Set<String> assignedGlobals; // null if there may be code the Optimizer hasn't seen (the REPL)
+    private final Set<String> assignedInLoop;
+    private final boolean runsCode;
+    private final List<Expr.Invariant> invariants = new ArrayList<>();
+    private int scopeDepth = 0; // scopes entered since the loop; a variable at least this many out is outside it
+
+    private LoopInvariants(Set<String> assignedGlobals, Effects effects) {
+        this.assignedGlobals = assignedGlobals;
+        this.assignedInLoop = effects.assigned;
+        this.runsCode = effects.runsCode;
+    }
+
+    static Stmt hoist(Stmt.While loop, Set<String> assignedGlobals) {
+        Effects effects = new Effects();
+        effects.scan(loop.condition);
+        effects.scan(loop.body);
+
+        LoopInvariants hoisting = new LoopInvariants(assignedGlobals, effects);
+        Stmt.While hoisted = new Stmt.While(loop.keyword, hoisting.rewrite(loop.condition), hoisting.rewrite(loop.body));
+        hoisted.invariants = hoisting.invariants.isEmpty() ? null : hoisting.invariants;
+        return hoisted;
+    }
+
+    static Stmt hoist(Stmt.ForDesugared loop, Set<String> assignedGlobals) {
+        Effects effects = new Effects();
+        effects.scan(loop.condition);
+        effects.scan(loop.increment);
+        effects.scan(loop.body);
+
+        LoopInvariants hoisting = new LoopInvariants(assignedGlobals, effects);
+        Stmt.ForDesugared hoisted = new Stmt.ForDesugared(loop.keyword, hoisting.rewrite(loop.condition),
+                hoisting.rewrite(loop.increment), hoisting.rewrite(loop.body));
+        hoisted.invariants = hoisting.invariants.isEmpty() ? null : hoisting.invariants;
+        return hoisted;
+    }
+
+    // Called by the tree-walker on entry to a loop with invariants. Returns the values of any run of the same
+    // loop further up the stack (a recursive call can re-enter it), for exit() to put back
+    static Object[] enter(List<Expr.Invariant> invariants) {
+        Object[] outer = new Object[invariants.size()];
+        for (int i = 0; i < outer.length; i++) {
+            Expr.Invariant invariant = invariants.get(i);
+            outer[i] = invariant.value;
+            invariant.value = UNSET;
+        }
+        return outer;
+    }
+
+    static void exit(List<Expr.Invariant> invariants, Object[] outer) {
+        for (int i = 0; i < outer.length; i++) {
+            invariants.get(i).value = outer[i];
+        }
+    }
+
+    private Expr rewrite(Expr expr) {
+        if (isInvariant(expr) && isWorthHoisting(expr)) {
+            Expr.Invariant invariant = new Expr.Invariant(expr);
+            invariants.add(invariant);
+            return invariant;
+        }
+        return expr.accept(this);
+    }
+
+    private Stmt rewrite(Stmt stmt) {
+        return stmt.accept(this);
+    }
+
+    private List<Expr> rewriteAll(List<Expr> exprs) {
+        List<Expr> rewritten = new ArrayList<>(exprs.size());
+        for (Expr expr : exprs) {
+            rewritten.add(rewrite(expr));
+        }
+        return rewritten;
+    }
+
+    private boolean isInvariant(Expr expr) {
+        if (expr instanceof Expr.Literal || expr instanceof Expr.This) return true;
+        if (expr instanceof Expr.Variable variable) return isInvariant(variable);
+        if (expr instanceof Expr.Grouping grouping) return isInvariant(grouping.expression);
+        if (expr instanceof Expr.Unary unary) return isInvariant(unary.right);
+        if (expr instanceof Expr.Logical logical) return isInvariant(logical.left) && isInvariant(logical.right);
+        if (expr instanceof Expr.Ternary ternary) {
+            return isInvariant(ternary.condition) && isInvariant(ternary.thenExpr) && isInvariant(ternary.elseExpr);
+        }
+        if (expr instanceof Expr.Binary binary) {
+            if (!isInvariant(binary.left) || !isInvariant(binary.right)) return false;
+
+            // "a" + array stringifies the array, which changes with its contents
+            if (binary.operator.type == TokenType.PLUS) {
+                return !(mayBeArray(binary.left) && mayBeString(binary.right))
+                        && !(mayBeString(binary.left) && mayBeArray(binary.right));
+            }
+            return true;
+        }
+
+        // on its own only: the value is only kept for arrays, so nothing built on it can be kept
+        if (expr instanceof Expr.Get get) {
+            return get.name.lexeme.equals("length") && isLeaf(get.object) && isInvariant(get.object);
+        }
+        return false;
+    }
+
+    private boolean isInvariant(Expr.Variable variable) {
+        if (variable.depth >= 0 && variable.depth < scopeDepth) return false; // declared inside the loop
+
+        boolean neverAssigned = variable.depth >= 0
+                ? variable.binding != null && !variable.binding.assigned
+                : assignedGlobals != null && !assignedGlobals.contains(variable.name.lexeme);
+        return neverAssigned || (!runsCode && !assignedInLoop.contains(variable.name.lexeme));
+    }
+
+    // Variables, literals and this are already just a load
+    private static boolean isWorthHoisting(Expr expr) {
+        if (expr instanceof Expr.Grouping grouping) return isWorthHoisting(grouping.expression);
+        return !isLeaf(expr);
+    }
+
+    private static boolean isLeaf(Expr expr) {
+        return expr instanceof Expr.Literal || expr instanceof Expr.Variable || expr instanceof Expr.This;
+    }
+
+    // Only the operand kinds isInvariant() lets through need answering
+    private static boolean mayBeArray(Expr expr) {
+        if (expr instanceof Expr.Variable) return true;
+        if (expr instanceof Expr.Grouping grouping) return mayBeArray(grouping.expression);
+        if (expr instanceof Expr.Logical logical) return mayBeArray(logical.left) || mayBeArray(logical.right);
+        if (expr instanceof Expr.Ternary ternary) return mayBeArray(ternary.thenExpr) || mayBeArray(ternary.elseExpr);
+        if (expr instanceof Expr.Binary binary && binary.operator.type == TokenType.COMMA) return mayBeArray(binary.right);
+        return false;
+    }
+
+    private static boolean mayBeString(Expr expr) {
+        if (expr instanceof Expr.Literal literal) return literal.value instanceof String;
+        if (expr instanceof Expr.Variable) return true;
+        if (expr instanceof Expr.Grouping grouping) return mayBeString(grouping.expression);
+        if (expr instanceof Expr.Logical logical) return mayBeString(logical.left) || mayBeString(logical.right);
+        if (expr instanceof Expr.Ternary ternary) return mayBeString(ternary.thenExpr) || mayBeString(ternary.elseExpr);
+        if (expr instanceof Expr.Binary binary) {
+            return switch (binary.operator.type) {
+                case PLUS -> true;
+                case COMMA -> mayBeString(binary.right);
+                default -> false;
+            };
+        }
+        return false;
+    }
+
+    @Override
+    public Expr visitArrayExpr(Expr.Array expr) {
+        return new Expr.Array(rewriteAll(expr.elements));
+    }
+
+    @Override
+    public Expr visitAssignExpr(Expr.Assign expr) {
+        Expr value = rewrite(expr.value);
+        if (value == expr.value) return expr;
+
+        Expr.Assign assign = new Expr.Assign(expr.name, value);
+        assign.depth = expr.depth;
+        assign.slot = expr.slot;
+        assign.global = expr.global;
+        return assign;
+    }
+
+    @Override
+    public Expr visitBinaryExpr(Expr.Binary expr) {
+        return new Expr.Binary(rewrite(expr.left), expr.operator, rewrite(expr.right));
+    }
+
+    @Override
+    public Expr visitCallExpr(Expr.Call expr) {
+        return new Expr.Call(rewrite(expr.callee), expr.paren, rewriteAll(expr.arguments));
+    }
+
+    // A function's body runs in its own frame, not the loop's
+    @Override
+    public Expr visitFunctionExpr(Expr.Function expr) {
+        return expr;
+    }
+
+    @Override
+    public Expr visitGetExpr(Expr.Get expr) {
+        Expr object = rewrite(expr.object);
+        if (object == expr.object) return expr;
+        return new Expr.Get(object, expr.name);
+    }
+
+    @Override
+    public Expr visitGroupingExpr(Expr.Grouping expr) {
+        return new Expr.Grouping(rewrite(expr.expression));
+    }
+
+    // Calls, as far as the loop is concerned
+    @Override
+    public Expr visitInlineExpr(Expr.Inline expr) {
+        return expr;
+    }
+
+    // Hoisted for an inner loop, and evaluated once per run of that loop
+    @Override
+    public Expr visitInvariantExpr(Expr.Invariant expr) {
+        return expr;
+    }
+
+    @Override
+    public Expr visitLiteralExpr(Expr.Literal expr) {
+        return expr;
+    }
+
+    @Override
+    public Expr visitLogicalExpr(Expr.Logical expr) {
+        return new Expr.Logical(rewrite(expr.left), expr.operator, rewrite(expr.right));
+    }
+
+    @Override
+    public Expr visitSetExpr(Expr.Set expr) {
+        return new Expr.Set(rewrite(expr.object), expr.name, rewrite(expr.value));
+    }
+
+    @Override
+    public Expr visitSuperExpr(Expr.Super expr) {
+        return expr;
+    }
+
+    @Override
+    public Expr visitThisExpr(Expr.This expr) {
+        return expr;
+    }
+
+    @Override
+    public Expr visitTernaryExpr(Expr.Ternary expr) {
+        return new Expr.Ternary(rewrite(expr.condition), expr.op1, rewrite(expr.thenExpr), expr.op2, rewrite(expr.elseExpr));
+    }
+
+    @Override
+    public Expr visitUnaryExpr(Expr.Unary expr) {
+        return new Expr.Unary(expr.operator, rewrite(expr.right));
+    }
+
+    @Override
+    public Expr visitVariableExpr(Expr.Variable expr) {
+        return expr;
+    }
+
+    @Override
+    public Stmt visitBlockStmt(Stmt.Block stmt) {
+        if (stmt.hasScope) scopeDepth++;
+        try {
+            List<Stmt> statements = new ArrayList<>(stmt.statements.size());
+            for (Stmt statement : stmt.statements) {
+                statements.add(rewrite(statement));
+            }
+            Stmt.Block block = new Stmt.Block(statements);
+            block.hasScope = stmt.hasScope;
+            return block;
+        } finally {
+            if (stmt.hasScope) scopeDepth--;
+        }
+    }
+
+    @Override // Challenge 9.3
+    public Stmt visitBreakStmt(Stmt.Break stmt) {
+        return stmt;
+    }
+
+    @Override
+    public Stmt visitClassStmt(Stmt.Class stmt) {
+        return stmt;
+    }
+
+    @Override // Challenge 9.3
+    public Stmt visitContinueStmt(Stmt.Continue stmt) {
+        return stmt;
+    }
+
+    @Override
+    public Stmt visitExpressionStmt(Stmt.Expression stmt) {
+        return new Stmt.Expression(rewrite(stmt.expression));
+    }
+
+    @Override
+    public Stmt visitForDesugaredStmt(Stmt.ForDesugared stmt) {
+        Stmt.ForDesugared loop = new Stmt.ForDesugared(stmt.keyword, rewrite(stmt.condition), rewrite(stmt.increment), rewrite(stmt.body));
+        loop.invariants = stmt.invariants;
+        return loop;
+    }
+
+    @Override
+    public Stmt visitFunctionStmt(Stmt.Function stmt) {
+        return stmt;
+    }
+
+    @Override
+    public Stmt visitIfStmt(Stmt.If stmt) {
+        Stmt elseBranch = stmt.elseBranch == null ? null : rewrite(stmt.elseBranch);
+        return new Stmt.If(rewrite(stmt.condition), rewrite(stmt.thenBranch), elseBranch);
+    }
+
+    @Override
+    public Stmt visitReturnStmt(Stmt.Return stmt) {
+        if (stmt.value == null) return stmt;
+        return new Stmt.Return(stmt.keyword, rewrite(stmt.value));
+    }
+
+    @Override
+    public Stmt visitVarStmt(Stmt.Var stmt) {
+        if (stmt.initialiser == null) return stmt;
+        return new Stmt.Var(stmt.name, rewrite(stmt.initialiser));
+    }
+
+    @Override
+    public Stmt visitWhileStmt(Stmt.While stmt) {
+        Stmt.While loop = new Stmt.While(stmt.keyword, rewrite(stmt.condition), rewrite(stmt.body));
+        loop.invariants = stmt.invariants;
+        return loop;
+    }
+
+    // What a piece of code might do when it runs: which names it assigns (at any depth, globals included) and
+    // whether it can call into Lox code. Function bodies count too, in case the loop calls them
+    static final class Effects implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
+        final Set<String> assigned = new HashSet<>();
+        final Set<String> assignedGlobals = new HashSet<>();
+        boolean runsCode = false;
+
+        void scan(List<Stmt> statements) {
+            for (Stmt statement : statements) {
+                scan(statement);
+            }
+        }
+
+        void scan(Stmt stmt) {
+            stmt.accept(this);
+        }
+
+        void scan(Expr expr) {
+            expr.accept(this);
+        }
+
+        private void scanAll(List<Expr> exprs) {
+            for (Expr expr : exprs) {
+                scan(expr);
+            }
+        }
+
+        @Override
+        public Void visitArrayExpr(Expr.Array expr) {
+            scanAll(expr.elements);
+            return null;
+        }
+
+        @Override
+        public Void visitAssignExpr(Expr.Assign expr) {
+            assigned.add(expr.name.lexeme);
+            if (expr.depth < 0) assignedGlobals.add(expr.name.lexeme);
+            scan(expr.value);
+            return null;
+        }
+
+        @Override
+        public Void visitBinaryExpr(Expr.Binary expr) {
+            scan(expr.left);
+            scan(expr.right);
+            return null;
+        }
+
+        @Override
+        public Void visitCallExpr(Expr.Call expr) {
+            runsCode = true;
+            scan(expr.callee);
+            scanAll(expr.arguments);
+            return null;
+        }
+
+        @Override
+        public Void visitFunctionExpr(Expr.Function expr) {
+            scan(expr.body);
+            return null;
+        }
+
+        @Override
+        public Void visitGetExpr(Expr.Get expr) {
+            runsCode = true; // getters
+            scan(expr.object);
+            return null;
+        }
+
+        @Override
+        public Void visitGroupingExpr(Expr.Grouping expr) {
+            scan(expr.expression);
+            return null;
+        }
+
+        @Override
+        public Void visitInlineExpr(Expr.Inline expr) {
+            scan(expr.call);
+            scan(expr.body);
+            return null;
+        }
+
+        @Override
+        public Void visitInvariantExpr(Expr.Invariant expr) {
+            scan(expr.expression);
+            return null;
+        }
+
+        @Override
+        public Void visitLiteralExpr(Expr.Literal expr) {
+            return null;
+        }
+
+        @Override
+        public Void visitLogicalExpr(Expr.Logical expr) {
+            scan(expr.left);
+            scan(expr.right);
+            return null;
+        }
+
+        @Override
+        public Void visitSetExpr(Expr.Set expr) {
+            scan(expr.object);
+            scan(expr.value);
+            return null;
+        }
+
+        @Override
+        public Void visitSuperExpr(Expr.Super expr) {
+            return null;
+        }
+
+        @Override
+        public Void visitThisExpr(Expr.This expr) {
+            return null;
+        }
+
+        @Override
+        public Void visitTernaryExpr(Expr.Ternary expr) {
+            scan(expr.condition);
+            scan(expr.thenExpr);
+            scan(expr.elseExpr);
+            return null;
+        }
+
+        @Override
+        public Void visitUnaryExpr(Expr.Unary expr) {
+            scan(expr.right);
+            return null;
+        }
+
+        @Override
+        public Void visitVariableExpr(Expr.Variable expr) {
+            return null;
+        }
+
+        @Override
+        public Void visitBlockStmt(Stmt.Block stmt) {
+            scan(stmt.statements);
+            return null;
+        }
+
+        @Override
+        public Void visitBreakStmt(Stmt.Break stmt) {
+            return null;
+        }
+
+        @Override
+        public Void visitClassStmt(Stmt.Class stmt) {
+            for (Stmt.Function method : stmt.staticMethods) scan(method);
+            for (Stmt.Function method : stmt.methods) scan(method);
+            return null;
+        }
+
+        @Override
+        public Void visitContinueStmt(Stmt.Continue stmt) {
+            return null;
+        }
+
+        @Override
+        public Void visitExpressionStmt(Stmt.Expression stmt) {
+            scan(stmt.expression);
+            return null;
+        }
+
+        @Override
+        public Void visitForDesugaredStmt(Stmt.ForDesugared stmt) {
+            scan(stmt.condition);
+            scan(stmt.increment);
+            scan(stmt.body);
+            return null;
+        }
+
+        @Override
+        public Void visitFunctionStmt(Stmt.Function stmt) {
+            scan(stmt.body);
+            return null;
+        }
+
+        @Override
+        public Void visitIfStmt(Stmt.If stmt) {
+            scan(stmt.condition);
+            scan(stmt.thenBranch);
+            if (stmt.elseBranch != null) scan(stmt.elseBranch);
+            return null;
+        }
+
+        @Override
+        public Void visitReturnStmt(Stmt.Return stmt) {
+            if (stmt.value != null) scan(stmt.value);
+            return null;
+        }
+
+        @Override
+        public Void visitVarStmt(Stmt.Var stmt) {
+            if (stmt.initialiser != null) scan(stmt.initialiser);
+            return null;
+        }
+
+        @Override
+        public Void visitWhileStmt(Stmt.While stmt) {
+            scan(stmt.condition);
+            scan(stmt.body);
+            return null;
+        }
+    }
+
+}
@@ -0,0 +1,1241 @@
+package jlox;
+
+import java.util.HashMap;
+import java.util.Map;
+
+// Executable tree built by NodeCompiler from the resolved AST.
+// Each node holds its children and its resolved slot directly and does its own work in execute(),
+// so there's no visitor double-dispatch or operator switch at runtime, and the JIT can inline a whole expression.
+// Expressions return their value; for statements see BREAK, CONTINUE and ReturnValue below.
+abstract class Node {
+    abstract Object execute(Environment frame);
+
+    // Unboxed entry point for numeric contexts: arithmetic nodes override it so nested arithmetic stays in
+    // doubles and only the outermost result gets boxed. A value that isn't a number comes back as UnexpectedResult
+    double executeDouble(Environment frame) {
+        Object value = execute(frame);
+        if (value instanceof Double number) return number;
+        throw new UnexpectedResult(value);
+    }
+
+    // Entry point for the value of a return statement.
+    // Calls override it to hand back a PendingCall instead of calling, so tail calls don't grow the Java stack
+    Object executeReturn(Environment frame) {
+        return execute(frame);
+    }
+
+    // Thrown by executeDouble with the (already evaluated) value that wasn't a number. Rare, so not shared
+    static final class UnexpectedResult extends RuntimeException {
+        final Object value;
+
+        UnexpectedResult(Object value) {
+            super(null, null, false, false);
+            this.value = value;
+        }
+    }
+
+    // Break, continue and return don't throw in this engine. A statement returns null when it completes normally,
+    // or one of these, which blocks and loops hand back up until a loop or the function call consumes it.
+    // A return hands back its ReturnValue node, holding the value until the call takes it
+    static final Object BREAK = new Object();
+    static final Object CONTINUE = new Object();
+
+    // return f(...) where f is a Lox function: the call's frame is ready, and NodeFunction.run() makes it in place
+    static final class PendingCall {
+        final NodeFunction function;
+        final jloxInstance receiver;
+        final Environment frame;
+
+        PendingCall(NodeFunction function, jloxInstance receiver, Environment frame) {
+            this.function = function;
+            this.receiver = receiver;
+            this.frame = frame;
+        }
+    }
+
+    static boolean isTruthy(Object object) {
+        if (object == null) return false;
+        if (object instanceof Boolean) return (boolean)object;
+        return true;
+    }
+
+    static boolean isEqual(Object a, Object b) {
+        if (a == null && b == null) return true;
+        if (a == null) return false;
+
+        return a.equals(b);
+    }
+
+    static void checkNumberOperands(Token operator, Object left, Object right) {
+        if (left instanceof Double && right instanceof Double) return;
+        throw new RuntimeError(operator, "Operands must be numbers.");
+    }
+
+    // Expressions
+
+    static final class Literal extends Node {
+        private final Object value;
+
+        Literal(Object value) {
+            this.value = value;
+        }
+
+        @Override
+        Object execute(Environment frame) {
+            return value;
+        }
+    }
+
+    static final class Array extends Node {
+        private final Node[] elements;
+
+        Array(Node[] elements) {
+            this.elements = elements;
+        }
+
+        @Override
+        Object execute(Environment frame) {
+            Object[] array = new Object[elements.length];
+            for (int i = 0; i < elements.length; i++) {
+                array[i] = elements[i].execute(frame);
+            }
+            return new jloxArray(array);
+        }
+    }
+
+    // A local of the function or block being run, read straight from its frame
+    static final class GetFrameLocal extends Node {
+        private final int slot;
+
+        GetFrameLocal(int slot) {
+            this.slot = slot;
+        }
+
+        @Override
+        Object execute(Environment frame) {
+            return frame.getLocal(slot);
+        }
+    }
+
+    static final class GetLocal extends Node {
+        private final int depth;
+        private final int slot;
+
+        GetLocal(int depth, int slot) {
+            this.depth = depth;
+            this.slot = slot;
+        }
+
+        @Override
+        Object execute(Environment frame) {
+            return frame.getAt(depth, slot);
+        }
+    }
+
+    static final class SetLocal extends Node {
+        private final int depth;
+        private final int slot;
+        private final Node value;
+
+        SetLocal(int depth, int slot, Node value) {
+            this.depth = depth;
+            this.slot = slot;
+            this.value = value;
+        }
+
+        @Override
+        Object execute(Environment frame) {
+            Object result = value.execute(frame);
+            frame.assignAt(depth, slot, result);
+            return result;
+        }
+    }
+
+    static final class GetGlobal extends Node {
+        private final Environment globals;
+        private int index; // -1 until the global is first found, so a lookup never declares it
+        private final Token name;
+
+        GetGlobal(Environment globals, int index, Token name) {
+            this.globals = globals;
+            this.index = index;
+            this.name = name;
+        }
+
+        @Override
+        Object execute(Environment frame) {
+            if (index < 0) index = globals.resolve(name);
+            return globals.getGlobal(index, name);
+        }
+    }
+
+    static final class SetGlobal extends Node {
+        private final Environment globals;
+        private int index; // -1 until the global is first found, so a lookup never declares it
+        private final Token name;
+        private final Node value;
+
+        SetGlobal(Environment globals, int index, Token name, Node value) {
+            this.globals = globals;
+            this.index = index;
+            this.name = name;
+            this.value = value;
+        }
+
+        @Override
+        Object execute(Environment frame) {
+            Object result = value.execute(frame);
+            if (index < 0) index = globals.resolve(name);
+            globals.assignGlobal(index, name, result);
+            return result;
+        }
+    }
+
+    // Operands and type feedback shared by the arithmetic and comparison nodes.
+    // A node starts UNINITIALISED, specialises to the operand types of its first evaluation, and drops to
+    // GENERIC for good if it later sees different ones, so a numeric loop never pays for the string checks
+    abstract static class Binary extends Node {
+        static final byte UNINITIALISED = 0;
+        static final byte NUMBERS = 1; // both Double
+        static final byte STRINGS = 2; // both String
+        static final byte MIXED = 3;   // concatenation with only one String (PLUS only)
+        static final byte GENERIC = 4;
+
+        final Node left;
+        final Node right;
+        final Token operator;
+        byte state = UNINITIALISED;
+
+        Binary(Node left, Node right, Token operator) {
+            this.left = left;
+            this.right = right;
+            this.operator = operator;
+        }
+
+        // For the number-only operators once an operand has turned out not to be a number (same message as checkNumberOperands)
+        final RuntimeError operandsError() {
+            return new RuntimeError(operator, "Operands must be numbers.");
+        }
+
+        // Called when the operands don't match the current specialisation
+        final void respecialise(Object a, Object b) {
+            if (state != UNINITIALISED) {
+                state = GENERIC;
+            } else if (a instanceof Double && b instanceof Double) {
+                state = NUMBERS;
+            } else if (a instanceof String && b instanceof String) {
+                state = STRINGS;
+            } else if (a instanceof String || b instanceof String) {
+                state = MIXED;
+            } else {
+                state = GENERIC;
+            }
+        }
+    }
+
+    static final class Add extends Binary {
+        Add(Node left, Node right, Token operator) {
+            super(left, right, operator);
+        }
+
+        @Override
+        Object execute(Environment frame) {
+            if (state == NUMBERS) {
+                try {
+                    return executeDouble(frame);
+                } catch (UnexpectedResult result) {
+                    return result.value;
+                }
+            }
+
+            Object a = left.execute(frame);
+            Object b = right.execute(frame);
+            switch (state) {
+                case STRINGS -> {
+                    if (a instanceof String x && b instanceof String y) return x.concat(y);
+                }
+                case MIXED -> {
+                    if ((a instanceof String) != (b instanceof String)) return CoreLibrary.stringify(a) + CoreLibrary.stringify(b);
+                }
+                case GENERIC -> {
+                    return generic(a, b);
+                }
+                default -> {
+                }
+            }
+            respecialise(a, b);
+            return generic(a, b);
+        }
+
+        @Override
+        double executeDouble(Environment frame) {
+            if (state != NUMBERS) return super.executeDouble(frame);
+
+            double a;
+            try {
+                a = left.executeDouble(frame);
+            } catch (UnexpectedResult result) {
+                throw new UnexpectedResult(despecialise(result.value, right.execute(frame)));
+            }
+            double b;
+            try {
+                b = right.executeDouble(frame);
+            } catch (UnexpectedResult result) {
+                throw new UnexpectedResult(despecialise(a, result.value));
+            }
+            return a + b;
+        }
+
+        private Object despecialise(Object a, Object b) {
+            respecialise(a, b);
+            return generic(a, b);
+        }
+
+        private Object generic(Object a, Object b) {
+            if (a instanceof Double x && b instanceof Double y) {
+                return x + y;
+            }
+            if (a instanceof String || b instanceof String) {
+                return CoreLibrary.stringify(a) + CoreLibrary.stringify(b);
+            }
+            throw new RuntimeError(operator, "Addition requires two number operator, string concanentation requires at least one string object.");
+        }
+    }
+
+    // The rest of the arithmetic only has a number path, so there's nothing to specialise
+    static final class Subtract extends Binary {
+        Subtract(Node left, Node right, Token operator) {
+            super(left, right, operator);
+        }
+
+        @Override
+        Object execute(Environment frame) {
+            return executeDouble(frame);
+        }
+
+        @Override
+        double executeDouble(Environment frame) {
+            double a;
+            try {
+                a = left.executeDouble(frame);
+            } catch (UnexpectedResult result) {
+                right.execute(frame); // still evaluated, as in the tree-walker
+                throw operandsError();
+            }
+            double b;
+            try {
+                b = right.executeDouble(frame);
+            } catch (UnexpectedResult result) {
+                throw operandsError();
+            }
+            return a - b;
+        }
+    }
+
+    static final class Multiply extends Binary {
+        Multiply(Node left, Node right, Token operator) {
+            super(left, right, operator);
+        }
+
+        @Override
+        Object execute(Environment frame) {
+            return executeDouble(frame);
+        }
+
+        @Override
+        double executeDouble(Environment frame) {
+            double a;
+            try {
+                a = left.executeDouble(frame);
+            } catch (UnexpectedResult result) {
+                right.execute(frame); // still evaluated, as in the tree-walker
+                throw operandsError();
+            }
+            double b;
+            try {
+                b = right.executeDouble(frame);
+            } catch (UnexpectedResult result) {
+                throw operandsError();
+            }
+            return a * b;
+        }
+    }
+
+    static final class Divide extends Binary {
+        Divide(Node left, Node right, Token operator) {
+            super(left, right, operator);
+        }
+
+        @Override
+        Object execute(Environment frame) {
+            return executeDouble(frame);
+        }
+
+        @Override
+        double executeDouble(Environment frame) {
+            double a;
+            try {
+                a = left.executeDouble(frame);
+            } catch (UnexpectedResult result) {
+                right.execute(frame); // still evaluated, as in the tree-walker
+                throw operandsError();
+            }
+            double b;
+            try {
+                b = right.executeDouble(frame);
+            } catch (UnexpectedResult result) {
+                throw operandsError();
+            }
+            if (b == 0) {
+                throw new RuntimeError(operator, "Division by zero is undefined.");
+            }
+            return a / b;
+        }
+    }
+
+    static final class Modulo extends Binary {
+        Modulo(Node left, Node right, Token operator) {
+            super(left, right, operator);
+        }
+
+        @Override
+        Object execute(Environment frame) {
+            return executeDouble(frame);
+        }
+
+        @Override
+        double executeDouble(Environment frame) {
+            double a;
+            try {
+                a = left.executeDouble(frame);
+            } catch (UnexpectedResult result) {
+                right.execute(frame); // still evaluated, as in the tree-walker
+                throw operandsError();
+            }
+            double b;
+            try {
+                b = right.executeDouble(frame);
+            } catch (UnexpectedResult result) {
+                throw operandsError();
+            }
+            if (b == 0) {
+                throw new RuntimeError(operator, "Modulo by zero is undefined.");
+            }
+            return a % b;
+        }
+    }
+
+    // GREATER, GREATER_EQUAL, LESS and LESS_EQUAL: strings compare lexicographically (Challenge 7.1)
+    abstract static class Comparison extends Binary {
+        Comparison(Node left, Node right, Token operator) {
+            super(left, right, operator);
+        }
+
+        abstract boolean compare(double a, double b);
+        abstract boolean compare(int comparison);
+
+        @Override
+        Object execute(Environment frame) {
+            if (state == NUMBERS) {
+                double a;
+                try {
+                    a = left.executeDouble(frame);
+                } catch (UnexpectedResult result) {
+                    return despecialise(result.value, right.execute(frame));
+                }
+                try {
+                    return compare(a, right.executeDouble(frame));
+                } catch (UnexpectedResult result) {
+                    return despecialise(a, result.value);
+                }
+            }
+
+            Object a = left.execute(frame);
+            Object b = right.execute(frame);
+            switch (state) {
+                case STRINGS -> {
+                    if (a instanceof String x && b instanceof String y) return compare(x.compareTo(y));
+                }
+                case GENERIC -> {
+                    return generic(a, b);
+                }
+                default -> {
+                }
+            }
+            return despecialise(a, b);
+        }
+
+        private Object despecialise(Object a, Object b) {
+            respecialise(a, b);
+            return generic(a, b);
+        }
+
+        private Object generic(Object a, Object b) {
+            if (a instanceof String x && b instanceof String y) {
+                return compare(x.compareTo(y));
+            }
+
+            checkNumberOperands(operator, a, b);
+            return compare((double)a, (double)b);
+        }
+    }
+
+    static final class Greater extends Comparison {
+        Greater(Node left, Node right, Token operator) {
+            super(left, right, operator);
+        }
+
+        @Override
+        boolean compare(double a, double b) {
+            return a > b;
+        }
+
+        @Override
+        boolean compare(int comparison) {
+            return comparison > 0;
+        }
+    }
+
+    static final class GreaterEqual extends Comparison {
+        GreaterEqual(Node left, Node right, Token operator) {
+            super(left, right, operator);
+        }
+
+        @Override
+        boolean compare(double a, double b) {
+            return a >= b;
+        }
+
+        @Override
+        boolean compare(int comparison) {
+            return comparison >= 0;
+        }
+    }
+
+    static final class Less extends Comparison {
+        Less(Node left, Node right, Token operator) {
+            super(left, right, operator);
+        }
+
+        @Override
+        boolean compare(double a, double b) {
+            return a < b;
+        }
+
+        @Override
+        boolean compare(int comparison) {
+            return comparison < 0;
+        }
+    }
+
+    static final class LessEqual extends Comparison {
+        LessEqual(Node left, Node right, Token operator) {
+            super(left, right, operator);
+        }
+
+        @Override
+        boolean compare(double a, double b) {
+            return a <= b;
+        }
+
+        @Override
+        boolean compare(int comparison) {
+            return comparison <= 0;
+        }
+    }
+
+    static final class Equal extends Node {
+        private final Node left;
+        private final Node right;
+        private final boolean negate;
+
+        Equal(Node left, Node right, boolean negate) {
+            this.left = left;
+            this.right = right;
+            this.negate = negate;
+        }
+
+        @Override
+        Object execute(Environment frame) {
+            Object a = left.execute(frame);
+            Object b = right.execute(frame);
+            return isEqual(a, b) != negate;
+        }
+    }
+
+    static final class Comma extends Node {
+        private final Node left;
+        private final Node right;
+
+        Comma(Node left, Node right) {
+            this.left = left;
+            this.right = right;
+        }
+
+        @Override
+        Object execute(Environment frame) {
+            left.execute(frame);
+            return right.execute(frame);
+        }
+    }
+
+    static final class Not extends Node {
+        private final Node right;
+
+        Not(Node right) {
+            this.right = right;
+        }
+
+        @Override
+        Object execute(Environment frame) {
+            return !isTruthy(right.execute(frame));
+        }
+    }
+
+    static final class Negate extends Node {
+        private final Node right;
+        private final Token operator;
+
+        Negate(Node right, Token operator) {
+            this.right = right;
+            this.operator = operator;
+        }
+
+        @Override
+        Object execute(Environment frame) {
+            return executeDouble(frame);
+        }
+
+        @Override
+        double executeDouble(Environment frame) {
+            try {
+                return -right.executeDouble(frame);
+            } catch (UnexpectedResult result) {
+                throw new RuntimeError(operator, "Operand must be a number.");
+            }
+        }
+    }
+
+    static final class And extends Node {
+        private final Node left;
+        private final Node right;
+
+        And(Node left, Node right) {
+            this.left = left;
+            this.right = right;
+        }
+
+        @Override
+        Object execute(Environment frame) {
+            Object value = left.execute(frame);
+            if (!isTruthy(value)) return value;
+            return right.execute(frame);
+        }
+    }
+
+    static final class Or extends Node {
+        private final Node left;
+        private final Node right;
+
+        Or(Node left, Node right) {
+            this.left = left;
+            this.right = right;
+        }
+
+        @Override
+        Object execute(Environment frame) {
+            Object value = left.execute(frame);
+            if (isTruthy(value)) return value;
+            return right.execute(frame);
+        }
+    }
+
+    static final class Ternary extends Node {
+        private final Node condition;
+        private final Node thenNode;
+        private final Node elseNode;
+
+        Ternary(Node condition, Node thenNode, Node elseNode) {
+            this.condition = condition;
+            this.thenNode = thenNode;
+            this.elseNode = elseNode;
+        }
+
+        @Override
+        Object execute(Environment frame) {
+            return isTruthy(condition.execute(frame)) ? thenNode.execute(frame) : elseNode.execute(frame);
+        }
+
+        // Either branch is in tail position if the ternary is
+        @Override
+        Object executeReturn(Environment frame) {
+            return isTruthy(condition.execute(frame)) ? thenNode.executeReturn(frame) : elseNode.executeReturn(frame);
+        }
+    }
+
+    static final class Call extends Node {
+        private final Node callee;
+        private final Node[] arguments;
+        private final Token paren;
+
+        Call(Node callee, Node[] arguments, Token paren) {
+            this.callee = callee;
+            this.arguments = arguments;
+            this.paren = paren;
+        }
+
+        // A Lox function is run straight in a frame holding the arguments, as Interpreter.callFunction() does
+        @Override
+        Object execute(Environment frame) {
+            Object function = callee.execute(frame);
+            if (function instanceof NodeFunction target) {
+                return target.run(frame(target, target.receiver, arguments, paren, frame), target.receiver, null);
+            }
+            return call(function, arguments, paren, frame);
+        }
+
+        @Override
+        Object executeReturn(Environment frame) {
+            Object function = callee.execute(frame);
+            if (function instanceof NodeFunction target) {
+                return prepare(target, target.receiver, arguments, paren, frame);
+            }
+            return call(function, arguments, paren, frame);
+        }
+
+        static PendingCall prepare(NodeFunction function, jloxInstance receiver, Node[] arguments, Token paren, Environment frame) {
+            return new PendingCall(function, receiver, frame(function, receiver, arguments, paren, frame));
+        }
+
+        static Environment frame(NodeFunction function, jloxInstance receiver, Node[] arguments, Token paren, Environment frame) {
+            Environment callFrame = function.frame(receiver);
+            for (Node argument : arguments) {
+                callFrame.define(argument.execute(frame));
+            }
+            checkArity(paren, function, arguments.length);
+            return callFrame;
+        }
+
+        // Arguments go through the fixed-arity entry points where there are few enough, so no list is built
+        static Object call(Object function, Node[] arguments, Token paren, Environment frame) {
+            switch (arguments.length) {
+                case 0 -> {
+                    return callable(function, paren, 0).call0(null);
+                }
+                case 1 -> {
+                    Object a = arguments[0].execute(frame);
+                    return callable(function, paren, 1).call1(null, a);
+                }
+                case 2 -> {
+                    Object a = arguments[0].execute(frame);
+                    Object b = arguments[1].execute(frame);
+                    return callable(function, paren, 2).call2(null, a, b);
+                }
+                case 3 -> {
+                    Object a = arguments[0].execute(frame);
+                    Object b = arguments[1].execute(frame);
+                    Object c = arguments[2].execute(frame);
+                    return callable(function, paren, 3).call3(null, a, b, c);
+                }
+                case 4 -> {
+                    Object a = arguments[0].execute(frame);
+                    Object b = arguments[1].execute(frame);
+                    Object c = arguments[2].execute(frame);
+                    Object d = arguments[3].execute(frame);
+                    return callable(function, paren, 4).call4(null, a, b, c, d);
+                }
+                default -> {
+                    Object[] values = new Object[arguments.length];
+                    for (int i = 0; i < values.length; i++) {
+                        values[i] = arguments[i].execute(frame);
+                    }
+                    return callable(function, paren, values.length).callN(null, values);
+                }
+            }
+        }
+
+        // natives never look at the interpreter, and node functions don't need one, hence the null above
+        static jloxCallable callable(Object function, Token paren, int count) {
+            if (!(function instanceof jloxCallable callable)) {
+                throw new RuntimeError(paren, "Can only call functions and classes.");
+            }
+            checkArity(paren, callable, count);
+            return callable;
+        }
+
+        static void checkArity(Token paren, jloxCallable callable, int count) {
+            if (count != callable.arity()) {
+                throw new RuntimeError(paren, "Expected " + callable.arity() + " arguments but got " + count + ".");
+            }
+        }
+    }
+
+    // obj.name(...): calls the method with obj as "this" directly instead of binding it first.
+    // Anything else (fields holding functions, getters, arrays) goes through the usual get and call
+    static final class Invoke extends Node {
+        private final Node object;
+        private final Token name;
+        private final Node[] arguments;
+        private final Token paren;
+        private final PropertyCache cache = new PropertyCache();
+
+        Invoke(Node object, Token name, Node[] arguments, Token paren) {
+            this.object = object;
+            this.name = name;
+            this.arguments = arguments;
+            this.paren = paren;
+        }
+
+        @Override
+        Object execute(Environment frame) {
+            Object value = object.execute(frame);
+            if (value instanceof jloxInstance instance && !(value instanceof jloxArray)) {
+                jloxFunction method = cache.method(instance, name);
+                if (method != null && !method.getIsGetter()) {
+                    Environment callFrame = method.frame(instance);
+                    for (Node argument : arguments) {
+                        callFrame.define(argument.execute(frame));
+                    }
+                    Call.checkArity(paren, method, arguments.length);
+                    return method.run(callFrame, instance, null);
+                }
+            }
+
+            return Call.call(Get.getProperty(value, name, cache), arguments, paren, frame);
+        }
+
+        @Override
+        Object executeReturn(Environment frame) {
+            Object value = object.execute(frame);
+            if (value instanceof jloxInstance instance && !(value instanceof jloxArray)) {
+                jloxFunction method = cache.method(instance, name);
+                if (method instanceof NodeFunction target && !method.getIsGetter()) {
+                    return Call.prepare(target, instance, arguments, paren, frame);
+                }
+            }
+
+            return Call.call(Get.getProperty(value, name, cache), arguments, paren, frame);
+        }
+    }
+
+    static final class Get extends Node {
+        private final Node object;
+        private final Token name;
+        private final PropertyCache cache = new PropertyCache();
+
+        Get(Node object, Token name) {
+            this.object = object;
+            this.name = name;
+        }
+
+        @Override
+        Object execute(Environment frame) {
+            return getProperty(object.execute(frame), name, cache);
+        }
+
+        static Object getProperty(Object value, Token name, PropertyCache cache) {
+            if (value instanceof jloxArray array) {
+                return array.get(name);
+            }
+
+            if (value instanceof jloxInstance instance) {
+                return cache.get(instance, name, null); // methods first, then fields
+            }
+
+            throw new RuntimeError(name, "Only instances have properties.");
+        }
+    }
+
+    static final class Set extends Node {
+        private final Node object;
+        private final Token name;
+        private final PropertyCache cache = new PropertyCache();
+        private final Node value;
+
+        Set(Node object, Token name, Node value) {
+            this.object = object;
+            this.name = name;
+            this.value = value;
+        }
+
+        @Override
+        Object execute(Environment frame) {
+            Object target = object.execute(frame);
+
+            if (target instanceof jloxInstance instance) {
+                Object result = value.execute(frame);
+                cache.set(instance, name, result);
+                return result;
+            }
+
+            throw new RuntimeError(name, "Only instances have fields.");
+        }
+    }
+
+    static final class Super extends Node {
+        private final int depth;
+        private final Token method;
+
+        Super(int depth, Token method) {
+            this.depth = depth;
+            this.method = method;
+        }
+
+        @Override
+        Object execute(Environment frame) {
+            jloxClass superclass = (jloxClass)frame.getAt(depth, 0);
+
+            // "this" is always the only slot in the scope just inside "super"
+            jloxInstance object = (jloxInstance)frame.getAt(depth - 1, 0);
+
+            jloxFunction function = superclass.findMethod(method.symbol);
+            if (function == null) {
+                throw new RuntimeError(method, "Undefined property '" + method.lexeme + "'.");
+            }
+
+            return function.bind(object);
+        }
+    }
+
+    // A function literal or declaration: evaluating it closes over the current frame
+    static final class Function extends Node {
+        final FunctionDeclaration declaration;
+        final Node[] body;
+        final boolean isGetter; // challenge 12.2
+
+        Function(FunctionDeclaration declaration, Node[] body, boolean isGetter) {
+            this.declaration = declaration;
+            this.body = body;
+            this.isGetter = isGetter;
+        }
+
+        @Override
+        Object execute(Environment frame) {
+            return new NodeFunction(this, frame, false);
+        }
+    }
+
+    // Statements
+
+    static final class Expression extends Node {
+        private final Node expression;
+
+        Expression(Node expression) {
+            this.expression = expression;
+        }
+
+        @Override
+        Object execute(Environment frame) {
+            expression.execute(frame);
+            return null;
+        }
+    }
+
+    // Defines the value of a var or function declaration, at global scope by index, otherwise in the next local slot
+    static final class Define extends Node {
+        private final Environment globals;
+        private final int index; // -1 for locals
+        private final Node value;
+
+        Define(Environment globals, int index, Node value) {
+            this.globals = globals;
+            this.index = index;
+            this.value = value;
+        }
+
+        @Override
+        Object execute(Environment frame) {
+            defineValue(frame, value == null ? Environment.uninitialisedValue() : value.execute(frame));
+            return null;
+        }
+
+        void defineValue(Environment frame, Object result) {
+            if (index >= 0) {
+                globals.defineGlobal(index, result);
+            } else {
+                frame.define(result);
+            }
+        }
+    }
+
+    static final class Block extends Node {
+        private final Node[] statements;
+
+        Block(Node[] statements) {
+            this.statements = statements;
+        }
+
+        @Override
+        Object execute(Environment frame) {
+            return executeAll(statements, new Environment(frame));
+        }
+
+        static Object executeAll(Node[] statements, Environment frame) {
+            for (Node statement : statements) {
+                Object completion = statement.execute(frame);
+                if (completion != null) return completion;
+            }
+            return null;
+        }
+    }
+
+    // A block that declares nothing, which runs in the enclosing frame (see Resolver.visitBlockStmt)
+    static final class Sequence extends Node {
+        private final Node[] statements;
+
+        Sequence(Node[] statements) {
+            this.statements = statements;
+        }
+
+        @Override
+        Object execute(Environment frame) {
+            return Block.executeAll(statements, frame);
+        }
+    }
+
+    static final class If extends Node {
+        private final Node condition;
+        private final Node thenBranch;
+        private final Node elseBranch;
+
+        If(Node condition, Node thenBranch, Node elseBranch) {
+            this.condition = condition;
+            this.thenBranch = thenBranch;
+            this.elseBranch = elseBranch;
+        }
+
+        @Override
+        Object execute(Environment frame) {
+            if (isTruthy(condition.execute(frame))) {
+                return thenBranch.execute(frame);
+            } else if (elseBranch != null) {
+                return elseBranch.execute(frame);
+            }
+            return null;
+        }
+    }
+
+    static final class While extends Node {
+        private final Node condition;
+        private final Node body;
+
+        While(Node condition, Node body) {
+            this.condition = condition;
+            this.body = body;
+        }
+
+        @Override
+        Object execute(Environment frame) {
+            while (isTruthy(condition.execute(frame))) {
+                Object completion = body.execute(frame);
+                if (completion == BREAK) break;
+                if (completion != null && completion != CONTINUE) return completion;
+            }
+            return null;
+        }
+    }
+
+    static final class For extends Node {
+        private final Node condition;
+        private final Node body;
+        private final Node increment;
+
+        For(Node condition, Node body, Node increment) {
+            this.condition = condition;
+            this.body = body;
+            this.increment = increment;
+        }
+
+        @Override
+        Object execute(Environment frame) {
+            while (isTruthy(condition.execute(frame))) {
+                Object completion = body.execute(frame);
+                if (completion == BREAK) break;
+                if (completion != null && completion != CONTINUE) return completion;
+                increment.execute(frame); // continue still runs the increment
+            }
+            return null;
+        }
+    }
+
+    // -O: a call to a small function, replaced by its body while the name still holds that function (see Inliner)
+    static final class Inline extends Node {
+        private final Node callee;
+        private final Token function;
+        private final Node body;
+        private final Node call;
+
+        Inline(Node callee, Token function, Node body, Node call) {
+            this.callee = callee;
+            this.function = function;
+            this.body = body;
+            this.call = call;
+        }
+
+        private boolean isInlined(Environment frame) {
+            return callee.execute(frame) instanceof NodeFunction target && target.declaration.getName() == function;
+        }
+
+        @Override
+        Object execute(Environment frame) {
+            return isInlined(frame) ? body.execute(frame) : call.execute(frame);
+        }
+
+        @Override
+        double executeDouble(Environment frame) {
+            return isInlined(frame) ? body.executeDouble(frame) : call.executeDouble(frame);
+        }
+    }
+
+    // -O: a loop-invariant expression, evaluated on its first use in each run of its loop (see LoopInvariants)
+    static final class Invariant extends Node {
+        private final Node expression;
+        private final Node object; // for x.length, where the length is only kept if x is an array
+        private final Token name;
+        private final PropertyCache cache;
+        Object value = LoopInvariants.UNSET;
+
+        Invariant(Node expression) {
+            this.expression = expression;
+            this.object = null;
+            this.name = null;
+            this.cache = null;
+        }
+
+        Invariant(Node object, Token length) {
+            this.expression = null;
+            this.object = object;
+            this.name = length;
+            this.cache = new PropertyCache();
+        }
+
+        @Override
+        Object execute(Environment frame) {
+            if (value != LoopInvariants.UNSET) return value;
+            if (expression != null) return value = expression.execute(frame);
+
+            Object target = object.execute(frame);
+            Object length = Get.getProperty(target, name, cache);
+            if (target instanceof jloxArray) value = length;
+            return length;
+        }
+    }
+
+    // Runs a loop with its invariants unset, putting back the values of any run of it further up the stack after
+    static final class Hoisting extends Node {
+        private final Invariant[] invariants;
+        private final Node loop;
+
+        Hoisting(Invariant[] invariants, Node loop) {
+            this.invariants = invariants;
+            this.loop = loop;
+        }
+
+        @Override
+        Object execute(Environment frame) {
+            Object[] outer = new Object[invariants.length];
+            for (int i = 0; i < outer.length; i++) {
+                outer[i] = invariants[i].value;
+                invariants[i].value = LoopInvariants.UNSET;
+            }
+            try {
+                return loop.execute(frame);
+            } finally {
+                for (int i = 0; i < outer.length; i++) {
+                    invariants[i].value = outer[i];
+                }
+            }
+        }
+    }
+
+    static final class Break extends Node {
+        @Override
+        Object execute(Environment frame) {
+            return BREAK;
+        }
+    }
+
+    static final class Continue extends Node {
+        @Override
+        Object execute(Environment frame) {
+            return CONTINUE;
+        }
+    }
+
+    // not called Return, which would hide the jlox.Return exception the tree-walker uses.
+    // The node is its own completion: it keeps the value for the call it returns from, which takes it before any
+    // other Lox code can run, so recursion never finds it in use
+    static final class ReturnValue extends Node {
+        private final Node value;
+        private Object result;
+
+        ReturnValue(Node value) {
+            this.value = value;
+        }
+
+        @Override
+        Object execute(Environment frame) {
+            if (value == null) return this;
+
+            Object completion = value.executeReturn(frame);
+            if (completion instanceof PendingCall) return completion;
+            result = completion;
+            return this;
+        }
+
+        Object take() {
+            Object value = result;
+            result = null;
+            return value;
+        }
+    }
+
+    static final class Class extends Node {
+        private final Token name;
+        private final Node superclass;
+        private final Token superclassName;
+        private final Function[] staticMethods;
+        private final Function[] methods;
+        private final Define define;
+
+        Class(Token name, Node superclass, Token superclassName, Function[] staticMethods, Function[] methods, Define define) {
+            this.name = name;
+            this.superclass = superclass;
+            this.superclassName = superclassName;
+            this.staticMethods = staticMethods;
+            this.methods = methods;
+            this.define = define;
+        }
+
+        @Override
+        Object execute(Environment frame) {
+            Object parent = null;
+            Environment environment = frame;
+            if (superclass != null) {
+                parent = superclass.execute(frame);
+                if (!(parent instanceof jloxClass)) {
+                    throw new RuntimeError(superclassName, "Superclass must be a class.");
+                }
+                environment = new Environment(frame);
+                environment.define(parent);
+            }
+
+            // challenge 12.1: static methods are instance methods on the metaclass
+            jloxClass metaclass = new jloxClass(name.lexeme + "Meta", null, methodTable(staticMethods, environment), null);
+            jloxClass klass = new jloxClass(name.lexeme, (jloxClass)parent, methodTable(methods, environment), metaclass);
+
+            define.defineValue(frame, klass);
+            return null;
+        }
+
+        private static Map<Symbol, jloxFunction> methodTable(Function[] functions, Environment closure) {
+            Map<Symbol, jloxFunction> table = new HashMap<>();
+            for (Function function : functions) {
+                Symbol methodName = function.declaration.getName().symbol;
+                table.put(methodName, new NodeFunction(function, closure, methodName == Symbol.INIT));
+            }
+            return table;
+        }
+    }
+
+}
@@ -0,0 +1,277 @@
+package jlox;
+
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+// Turns the resolved Stmt/Expr tree into Nodes. This is done once, before running: operators pick their
+// node class here, variables keep the depth and slot the Resolver gave them, and globals get their index up front.
+class NodeCompiler implements Expr.Visitor<Node>, Stmt.Visitor<Node> {
+    private final Environment globals;
+    private int scopeDepth = 0; // 0 only for top-level statements, which define into globals
+    private final Map<Expr.Invariant, Node.Invariant> invariants = new IdentityHashMap<>(); // for their loops to reset
+
+    NodeCompiler(Environment globals) {
+        this.globals = globals;
+    }
+
+    Node[] compile(List<Stmt> statements) {
+        Node[] nodes = new Node[statements.size()];
+        for (int i = 0; i < nodes.length; i++) {
+            nodes[i] = compile(statements.get(i));
+        }
+        return nodes;
+    }
+
+    Node compile(Expr expr) {
+        return expr.accept(this);
+    }
+
+    private Node compile(Stmt stmt) {
+        return stmt.accept(this);
+    }
+
+    private Node[] compileAll(List<Expr> exprs) {
+        Node[] nodes = new Node[exprs.size()];
+        for (int i = 0; i < nodes.length; i++) {
+            nodes[i] = compile(exprs.get(i));
+        }
+        return nodes;
+    }
+
+    private Node[] compileScope(List<Stmt> statements) {
+        scopeDepth++;
+        try {
+            return compile(statements);
+        } finally {
+            scopeDepth--;
+        }
+    }
+
+    private Node.Function function(FunctionDeclaration declaration, boolean isGetter) {
+        return new Node.Function(declaration, compileScope(declaration.getBody()), isGetter);
+    }
+
+    // A loop with hoisted invariants (-O) resets them on each run of it
+    private Node hoisting(List<Expr.Invariant> hoisted, Node loop) {
+        if (hoisted == null) return loop;
+
+        Node.Invariant[] nodes = new Node.Invariant[hoisted.size()];
+        for (int i = 0; i < nodes.length; i++) {
+            nodes[i] = invariants.get(hoisted.get(i));
+        }
+        return new Node.Hoisting(nodes, loop);
+    }
+
+    private Node.Define define(Token name, Node value) {
+        int index = scopeDepth == 0 ? globals.declare(name.symbol) : -1;
+        return new Node.Define(globals, index, value);
+    }
+
+    private static Node getLocal(int depth, int slot) {
+        return depth == 0 ? new Node.GetFrameLocal(slot) : new Node.GetLocal(depth, slot);
+    }
+
+    @Override
+    public Node visitArrayExpr(Expr.Array expr) {
+        return new Node.Array(compileAll(expr.elements));
+    }
+
+    @Override
+    public Node visitAssignExpr(Expr.Assign expr) {
+        Node value = compile(expr.value);
+        if (expr.depth >= 0) {
+            return new Node.SetLocal(expr.depth, expr.slot, value);
+        }
+        return new Node.SetGlobal(globals, globals.indexOf(expr.name.symbol), expr.name, value);
+    }
+
+    @Override
+    public Node visitBinaryExpr(Expr.Binary expr) {
+        Node left = compile(expr.left);
+        Node right = compile(expr.right);
+        Token operator = expr.operator;
+
+        Node node = switch (operator.type) {
+            case PLUS -> new Node.Add(left, right, operator);
+            case MINUS -> new Node.Subtract(left, right, operator);
+            case STAR -> new Node.Multiply(left, right, operator);
+            case SLASH -> new Node.Divide(left, right, operator);
+            case PERCENT -> new Node.Modulo(left, right, operator);
+            case GREATER -> new Node.Greater(left, right, operator);
+            case GREATER_EQUAL -> new Node.GreaterEqual(left, right, operator);
+            case LESS -> new Node.Less(left, right, operator);
+            case LESS_EQUAL -> new Node.LessEqual(left, right, operator);
+            case EQUAL_EQUAL -> new Node.Equal(left, right, false);
+            case BANG_EQUAL -> new Node.Equal(left, right, true);
+            case COMMA -> new Node.Comma(left, right);
+            default -> throw new IllegalStateException("Unexpected binary operator " + operator.type);
+        };
+        if (node instanceof Node.Binary binary) Profile.specialise(binary);
+        return node;
+    }
+
+    @Override
+    public Node visitCallExpr(Expr.Call expr) {
+        if (expr.callee instanceof Expr.Get get) {
+            return new Node.Invoke(compile(get.object), get.name, compileAll(expr.arguments), expr.paren);
+        }
+        return new Node.Call(compile(expr.callee), compileAll(expr.arguments), expr.paren);
+    }
+
+    // Challenge 10.2
+    @Override
+    public Node visitFunctionExpr(Expr.Function expr) {
+        return function(new FunctionDeclaration(expr), expr.params == null);
+    }
+
+    @Override
+    public Node visitGetExpr(Expr.Get expr) {
+        return new Node.Get(compile(expr.object), expr.name);
+    }
+
+    @Override
+    public Node visitGroupingExpr(Expr.Grouping expr) {
+        return compile(expr.expression);
+    }
+
+    @Override
+    public Node visitInlineExpr(Expr.Inline expr) {
+        return new Node.Inline(compile(expr.call.callee), expr.function, compile(expr.body), compile(expr.call));
+    }
+
+    @Override
+    public Node visitInvariantExpr(Expr.Invariant expr) {
+        Node.Invariant invariant = expr.expression instanceof Expr.Get get
+                ? new Node.Invariant(compile(get.object), get.name)
+                : new Node.Invariant(compile(expr.expression));
+        invariants.put(expr, invariant);
+        return invariant;
+    }
+
+    @Override
+    public Node visitLiteralExpr(Expr.Literal expr) {
+        return new Node.Literal(expr.value);
+    }
+
+    @Override
+    public Node visitLogicalExpr(Expr.Logical expr) {
+        Node left = compile(expr.left);
+        Node right = compile(expr.right);
+        if (expr.operator.type == TokenType.OR) {
+            return new Node.Or(left, right);
+        }
+        return new Node.And(left, right);
+    }
+
+    @Override
+    public Node visitSetExpr(Expr.Set expr) {
+        return new Node.Set(compile(expr.object), expr.name, compile(expr.value));
+    }
+
+    @Override
+    public Node visitSuperExpr(Expr.Super expr) {
+        return new Node.Super(expr.depth, expr.method);
+    }
+
+    @Override
+    public Node visitTernaryExpr(Expr.Ternary expr) {
+        return new Node.Ternary(compile(expr.condition), compile(expr.thenExpr), compile(expr.elseExpr));
+    }
+
+    @Override
+    public Node visitThisExpr(Expr.This expr) {
+        return getLocal(expr.depth, expr.slot);
+    }
+
+    @Override
+    public Node visitUnaryExpr(Expr.Unary expr) {
+        Node right = compile(expr.right);
+        if (expr.operator.type == TokenType.BANG) {
+            return new Node.Not(right);
+        }
+        return new Node.Negate(right, expr.operator);
+    }
+
+    @Override
+    public Node visitVariableExpr(Expr.Variable expr) {
+        if (expr.depth >= 0) {
+            return getLocal(expr.depth, expr.slot);
+        }
+        return new Node.GetGlobal(globals, globals.indexOf(expr.name.symbol), expr.name);
+    }
+
+    @Override
+    public Node visitBlockStmt(Stmt.Block stmt) {
+        if (!stmt.hasScope) return new Node.Sequence(compile(stmt.statements));
+        return new Node.Block(compileScope(stmt.statements));
+    }
+
+    @Override // Challenge 9.3
+    public Node visitBreakStmt(Stmt.Break stmt) {
+        return new Node.Break();
+    }
+
+    @Override
+    public Node visitClassStmt(Stmt.Class stmt) {
+        Node superclass = stmt.superclass == null ? null : compile(stmt.superclass);
+        Token superclassName = stmt.superclass == null ? null : stmt.superclass.name;
+
+        // challenge 12.1
+        Node.Function[] staticMethods = new Node.Function[stmt.staticMethods.size()];
+        for (int i = 0; i < staticMethods.length; i++) {
+            FunctionDeclaration declaration = new FunctionDeclaration(stmt.staticMethods.get(i));
+            staticMethods[i] = function(declaration, declaration.getParams() == null);
+        }
+
+        Node.Function[] methods = new Node.Function[stmt.methods.size()];
+        for (int i = 0; i < methods.length; i++) {
+            FunctionDeclaration declaration = new FunctionDeclaration(stmt.methods.get(i));
+            methods[i] = function(declaration, declaration.getParams() == null);
+        }
+
+        return new Node.Class(stmt.name, superclass, superclassName, staticMethods, methods, define(stmt.name, null));
+    }
+
+    @Override // Challenge 9.3
+    public Node visitContinueStmt(Stmt.Continue stmt) {
+        return new Node.Continue();
+    }
+
+    @Override
+    public Node visitExpressionStmt(Stmt.Expression stmt) {
+        return new Node.Expression(compile(stmt.expression));
+    }
+
+    @Override
+    public Node visitForDesugaredStmt(Stmt.ForDesugared stmt) {
+        return hoisting(stmt.invariants, new Node.For(compile(stmt.condition), compile(stmt.body), compile(stmt.increment)));
+    }
+
+    @Override
+    public Node visitFunctionStmt(Stmt.Function stmt) {
+        return define(stmt.name, function(new FunctionDeclaration(stmt), false));
+    }
+
+    @Override
+    public Node visitIfStmt(Stmt.If stmt) {
+        Node elseBranch = stmt.elseBranch == null ? null : compile(stmt.elseBranch);
+        return new Node.If(compile(stmt.condition), compile(stmt.thenBranch), elseBranch);
+    }
+
+    @Override
+    public Node visitReturnStmt(Stmt.Return stmt) {
+        return new Node.ReturnValue(stmt.value == null ? null : compile(stmt.value));
+    }
+
+    @Override
+    public Node visitVarStmt(Stmt.Var stmt) {
+        return define(stmt.name, stmt.initialiser == null ? null : compile(stmt.initialiser));
+    }
+
+    @Override
+    public Node visitWhileStmt(Stmt.While stmt) {
+        return hoisting(stmt.invariants, new Node.While(compile(stmt.condition), compile(stmt.body)));
+    }
+
+}
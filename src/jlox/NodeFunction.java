@@ -0,0 +1,41 @@
+package jlox;
+
+// A function whose body has been compiled to Nodes, used by NodeInterpreter.
+// It's still a jloxFunction so classes, binding and getters work the same as in the tree-walker.
+class NodeFunction extends jloxFunction {
+    private final Node.Function function;
+
+    NodeFunction(Node.Function function, Environment closure, boolean isInitialiser) {
+        this(function, closure, isInitialiser, null);
+    }
+
+    private NodeFunction(Node.Function function, Environment closure, boolean isInitialiser, jloxInstance receiver) {
+        super(function.declaration, closure, isInitialiser, function.isGetter, receiver);
+        this.function = function;
+    }
+
+    @Override
+    jloxFunction bind(jloxInstance instance) {
+        return new NodeFunction(function, closure, isInitialiser, instance);
+    }
+
+    // Trampoline: a tail call comes back as a PendingCall, which is made here rather than one Java frame deeper
+    @Override
+    Object run(Environment environment, jloxInstance receiver, Interpreter interpreter) {
+        NodeFunction current = this;
+        for (;;) {
+            Object completion = Node.Block.executeAll(current.function.body, environment);
+            if (completion instanceof Node.PendingCall call) {
+                current = call.function;
+                receiver = call.receiver;
+                environment = call.frame;
+                continue;
+            }
+
+            if (current.isInitialiser) return receiver;
+            if (completion instanceof Node.ReturnValue returned) return returned.take();
+            return null;
+        }
+    }
+
+}
@@ -0,0 +1,33 @@
+package jlox;
+
+import java.util.List;
+
+// Runs programs through NodeCompiler's executable trees instead of visiting the AST (--engine=nodes)
+class NodeInterpreter {
+    final Environment globals = new Environment();
+
+    NodeInterpreter() {
+        Interpreter.defineNatives(globals);
+    }
+
+    void interpret(List<Stmt> statements) {
+        Node[] nodes = new NodeCompiler(globals).compile(statements);
+        try {
+            Node.Block.executeAll(nodes, globals);
+        } catch (RuntimeError error) {
+            jlox.runtimeError(error);
+        }
+    }
+
+    // Challenge 8.1
+    String interpretExpression(Expr expr) {
+        Node node = new NodeCompiler(globals).compile(expr);
+        try {
+            return CoreLibrary.stringify(node.execute(globals));
+        } catch (RuntimeError error) {
+            jlox.runtimeError(error);
+            return null;
+        }
+    }
+
+}
@@ -0,0 +1,77 @@
+package jlox;
+
+// Instruction set for the register-based bytecode engine (see BytecodeCompiler and VM).
+// Operands follow the opcode in the chunk, one int each. A, B and C are registers of the current frame; jump
+// targets are the absolute index of the instruction to jump to; a number operand is the number's bits as two
+// ints, high first.
+final class OpCode {
+    static final int MOVE           = 0;  // A = B
+    static final int CONSTANT       = 1;  // A = constant
+    static final int NUMBER         = 2;  // A = number
+    static final int NIL            = 3;  // A = nil
+    static final int TRUE           = 4;  // A = true
+    static final int FALSE          = 5;  // A = false
+    static final int GET_GLOBAL     = 6;  // A = global: A, global index (UNRESOLVED until first found), name constant
+    static final int DEFINE_GLOBAL  = 7;  // A, global index
+    static final int SET_GLOBAL     = 8;  // global = A: A, global index, name constant
+    static final int GET_UPVALUE    = 9;  // A = upvalue: A, upvalue
+    static final int SET_UPVALUE    = 10; // upvalue = A: A, upvalue
+    static final int CLOSE_UPVALUES = 11; // closes the open upvalues of A and every register above it
+    static final int GET_PROPERTY   = 12; // A = B.name: A, B, name constant
+    static final int SET_PROPERTY   = 13; // A.name = B: A, B, name constant
+    static final int GET_SUPER      = 14; // A = method of superclass C bound to B: A, B, C, name constant
+    static final int EQUAL          = 15; // A = B == C
+    static final int NOT_EQUAL      = 16; // A = B != C
+    static final int GREATER        = 17; // A = B > C
+    static final int GREATER_EQUAL  = 18; // A = B >= C
+    static final int LESS           = 19; // A = B < C
+    static final int LESS_EQUAL     = 20; // A = B <= C
+    static final int ADD            = 21; // A = B + C
+    static final int SUBTRACT       = 22; // A = B - C
+    static final int MULTIPLY       = 23; // A = B * C
+    static final int DIVIDE         = 24; // A = B / C
+    static final int MODULO         = 25; // A = B % C
+    static final int NOT            = 26; // A = !B
+    static final int NEGATE         = 27; // A = -B
+    static final int JUMP           = 28; // target
+    static final int JUMP_IF_FALSE  = 29; // A, target
+    static final int JUMP_IF_TRUE   = 30; // A, target
+    static final int CALL           = 31; // A = A(A + 1, ...): A, argument count
+    static final int INVOKE         = 32; // A = A.name(A + 1, ...): A, name constant, argument count
+    static final int SUPER_INVOKE   = 33; // A = method of superclass B on A(A + 1, ...): A, name constant, argument count, B
+    static final int CLOSURE        = 34; // A, function constant, then (isLocal, index) per upvalue
+    static final int RETURN         = 35; // returns A
+    static final int CLASS          = 36; // A, name constant
+    static final int INHERIT        = 37; // class A inherits from B
+    static final int METHOD         = 38; // class A gets closure B: A, B, name constant
+    static final int STATIC_METHOD  = 39; // class A gets static closure B: A, B, name constant
+    static final int ARRAY          = 40; // A = [B, B + 1, ...]: A, B, element count
+
+    // Arithmetic by a number in the code, in the same order as ADD to MODULO: A, B, number
+    static final int ADD_NUMBER      = 41;
+    static final int SUBTRACT_NUMBER = 42;
+    static final int MULTIPLY_NUMBER = 43;
+    static final int DIVIDE_NUMBER   = 44;
+    static final int MODULO_NUMBER   = 45;
+
+    // A comparison that decides a branch, jumping when it's false: A, B, target
+    static final int JUMP_IF_NOT_EQUAL         = 46;
+    static final int JUMP_IF_NOT_NOT_EQUAL     = 47;
+    static final int JUMP_IF_NOT_GREATER       = 48;
+    static final int JUMP_IF_NOT_GREATER_EQUAL = 49;
+    static final int JUMP_IF_NOT_LESS          = 50;
+    static final int JUMP_IF_NOT_LESS_EQUAL    = 51;
+
+    // The same with a number in the code, in the same order: A, number, target
+    static final int JUMP_IF_NOT_EQUAL_NUMBER         = 52;
+    static final int JUMP_IF_NOT_NOT_EQUAL_NUMBER     = 53;
+    static final int JUMP_IF_NOT_GREATER_NUMBER       = 54;
+    static final int JUMP_IF_NOT_GREATER_EQUAL_NUMBER = 55;
+    static final int JUMP_IF_NOT_LESS_NUMBER          = 56;
+    static final int JUMP_IF_NOT_LESS_EQUAL_NUMBER    = 57;
+
+    // Global index operand for a name that wasn't declared when the chunk was compiled
+    static final int UNRESOLVED = -1;
+
+    private OpCode() {}
+}
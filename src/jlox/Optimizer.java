@@ -0,0 +1,361 @@
+package jlox;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+// Rewrites the resolved Stmt/Expr tree before it runs (-O): operators whose operands are all literals are folded,
+// if/while/ternary/and/or with a literal condition keep only the branch that can run, and statements that can't
+// do anything are dropped. Anything that would fail at runtime (1 / 0, -"a", "a" < 1) is left as it is, so the
+// error still happens when and where it would have.
+// Nodes the Resolver annotated are kept, or copied along with their depth and slot.
+// Loops then have their invariant expressions hoisted (see LoopInvariants), and calls to small top-level
+// functions are inlined (see Inliner).
+class Optimizer implements Expr.Visitor<Expr>, Stmt.Visitor<Stmt> {
+    // Globals assigned anywhere in the program. Only known when running a whole file: in the REPL, a later
+    // line can assign any global from a function an earlier line's loop calls, so this stays null
+    private final Set<String> assignedGlobals;
+    private final Inliner inliner = new Inliner();
+    private boolean inlining = true; // off inside an inlined body, so mutually recursive functions don't expand forever
+
+    Optimizer(boolean wholeProgram) {
+        this.assignedGlobals = wholeProgram ? new HashSet<>() : null;
+    }
+
+    List<Stmt> optimize(List<Stmt> program) {
+        if (assignedGlobals != null) {
+            LoopInvariants.Effects effects = new LoopInvariants.Effects();
+            effects.scan(program);
+            assignedGlobals.addAll(effects.assignedGlobals);
+        }
+        inliner.declare(program);
+        return optimizeBlock(program);
+    }
+
+    private List<Stmt> optimizeBlock(List<Stmt> statements) {
+        List<Stmt> optimized = new ArrayList<>(statements.size());
+        for (Stmt statement : statements) {
+            Stmt result = optimize(statement);
+            if (result == null) continue;
+            optimized.add(result);
+
+            // nothing after these in the same block can run
+            if (result instanceof Stmt.Return || result instanceof Stmt.Break || result instanceof Stmt.Continue) break;
+        }
+        return optimized;
+    }
+
+    // null if the statement was dropped
+    private Stmt optimize(Stmt stmt) {
+        return stmt.accept(this);
+    }
+
+    private Expr optimize(Expr expr) {
+        return expr.accept(this);
+    }
+
+    private List<Expr> optimizeAll(List<Expr> exprs) {
+        List<Expr> optimized = new ArrayList<>(exprs.size());
+        for (Expr expr : exprs) {
+            optimized.add(optimize(expr));
+        }
+        return optimized;
+    }
+
+    // For places that need a statement (loop bodies, if branches): a dropped one becomes an empty block, which
+    // declares nothing and so gets no scope, as the Resolver would have decided for it
+    private Stmt required(Stmt stmt) {
+        Stmt optimized = optimize(stmt);
+        if (optimized != null) return optimized;
+
+        Stmt.Block empty = new Stmt.Block(Collections.emptyList());
+        empty.hasScope = false;
+        return empty;
+    }
+
+    private Stmt.Function function(Stmt.Function stmt) {
+        return new Stmt.Function(stmt.name, stmt.params, optimizeBlock(stmt.body));
+    }
+
+    private List<Stmt.Function> functions(List<Stmt.Function> stmts) {
+        List<Stmt.Function> optimized = new ArrayList<>(stmts.size());
+        for (Stmt.Function stmt : stmts) {
+            optimized.add(function(stmt));
+        }
+        return optimized;
+    }
+
+    // The value of a literal expression, or this marker if it isn't one (null is a literal: nil)
+    private static final Object NOT_CONSTANT = new Object();
+
+    private static Object constant(Expr expr) {
+        return expr instanceof Expr.Literal literal ? literal.value : NOT_CONSTANT;
+    }
+
+    // Only called with two constants. Returns NOT_CONSTANT for anything that has to be left to fail at runtime
+    private static Object fold(TokenType operator, Object left, Object right) {
+        boolean numbers = left instanceof Double && right instanceof Double;
+        boolean strings = left instanceof String && right instanceof String;
+
+        return switch (operator) {
+            case PLUS -> {
+                if (numbers) yield (double)left + (double)right;
+                if (left instanceof String || right instanceof String) {
+                    yield CoreLibrary.stringify(left) + CoreLibrary.stringify(right);
+                }
+                yield NOT_CONSTANT;
+            }
+            case MINUS -> numbers ? (Object)((double)left - (double)right) : NOT_CONSTANT;
+            case STAR -> numbers ? (Object)((double)left * (double)right) : NOT_CONSTANT;
+            case SLASH -> numbers && (double)right != 0 ? (Object)((double)left / (double)right) : NOT_CONSTANT;
+            case PERCENT -> numbers && (double)right != 0 ? (Object)((double)left % (double)right) : NOT_CONSTANT;
+            case GREATER -> numbers ? (Object)((double)left > (double)right)
+                    : strings ? (Object)(((String)left).compareTo((String)right) > 0) : NOT_CONSTANT;
+            case GREATER_EQUAL -> numbers ? (Object)((double)left >= (double)right)
+                    : strings ? (Object)(((String)left).compareTo((String)right) >= 0) : NOT_CONSTANT;
+            case LESS -> numbers ? (Object)((double)left < (double)right)
+                    : strings ? (Object)(((String)left).compareTo((String)right) < 0) : NOT_CONSTANT;
+            case LESS_EQUAL -> numbers ? (Object)((double)left <= (double)right)
+                    : strings ? (Object)(((String)left).compareTo((String)right) <= 0) : NOT_CONSTANT;
+            case EQUAL_EQUAL -> Node.isEqual(left, right);
+            case BANG_EQUAL -> !Node.isEqual(left, right);
+            default -> NOT_CONSTANT;
+        };
+    }
+
+    @Override
+    public Expr visitArrayExpr(Expr.Array expr) {
+        return new Expr.Array(optimizeAll(expr.elements));
+    }
+
+    @Override
+    public Expr visitAssignExpr(Expr.Assign expr) {
+        Expr value = optimize(expr.value);
+        if (value == expr.value) return expr;
+
+        Expr.Assign assign = new Expr.Assign(expr.name, value);
+        assign.depth = expr.depth;
+        assign.slot = expr.slot;
+        assign.global = expr.global;
+        return assign;
+    }
+
+    @Override
+    public Expr visitBinaryExpr(Expr.Binary expr) {
+        Expr left = optimize(expr.left);
+        Expr right = optimize(expr.right);
+
+        // a literal on the left of a comma has nothing to do
+        if (expr.operator.type == TokenType.COMMA && left instanceof Expr.Literal) return right;
+
+        Object a = constant(left);
+        Object b = constant(right);
+        if (a != NOT_CONSTANT && b != NOT_CONSTANT) {
+            Object value = fold(expr.operator.type, a, b);
+            if (value != NOT_CONSTANT) return new Expr.Literal(value);
+        }
+
+        if (left == expr.left && right == expr.right) return expr;
+        return new Expr.Binary(left, expr.operator, right);
+    }
+
+    @Override
+    public Expr visitCallExpr(Expr.Call expr) {
+        Expr.Call call = new Expr.Call(optimize(expr.callee), expr.paren, optimizeAll(expr.arguments));
+        Expr.Inline inline = inlining ? inliner.inline(call) : null;
+        return inline == null ? call : optimize(inline);
+    }
+
+    // Challenge 10.2
+    @Override
+    public Expr visitFunctionExpr(Expr.Function expr) {
+        return new Expr.Function(expr.params, optimizeBlock(expr.body));
+    }
+
+    @Override
+    public Expr visitGetExpr(Expr.Get expr) {
+        Expr object = optimize(expr.object);
+        if (object == expr.object) return expr;
+        return new Expr.Get(object, expr.name);
+    }
+
+    @Override
+    public Expr visitGroupingExpr(Expr.Grouping expr) {
+        Expr expression = optimize(expr.expression);
+        if (expression instanceof Expr.Literal) return expression;
+        if (expression == expr.expression) return expr;
+        return new Expr.Grouping(expression);
+    }
+
+    // The body has the call's arguments in it, so it can fold further (square(3) is 9)
+    @Override
+    public Expr visitInlineExpr(Expr.Inline expr) {
+        inlining = false;
+        try {
+            return new Expr.Inline(expr.call, expr.function, optimize(expr.body));
+        } finally {
+            inlining = true;
+        }
+    }
+
+    @Override
+    public Expr visitInvariantExpr(Expr.Invariant expr) {
+        return expr;
+    }
+
+    @Override
+    public Expr visitLiteralExpr(Expr.Literal expr) {
+        return expr;
+    }
+
+    @Override
+    public Expr visitLogicalExpr(Expr.Logical expr) {
+        Expr left = optimize(expr.left);
+        Expr right = optimize(expr.right);
+
+        Object value = constant(left);
+        if (value != NOT_CONSTANT) {
+            // the same short-circuit the interpreter does: the left value if it decides, else the right expression
+            boolean decides = expr.operator.type == TokenType.OR ? Node.isTruthy(value) : !Node.isTruthy(value);
+            return decides ? left : right;
+        }
+
+        if (left == expr.left && right == expr.right) return expr;
+        return new Expr.Logical(left, expr.operator, right);
+    }
+
+    @Override
+    public Expr visitSetExpr(Expr.Set expr) {
+        Expr object = optimize(expr.object);
+        Expr value = optimize(expr.value);
+        if (object == expr.object && value == expr.value) return expr;
+        return new Expr.Set(object, expr.name, value);
+    }
+
+    @Override
+    public Expr visitSuperExpr(Expr.Super expr) {
+        return expr;
+    }
+
+    @Override
+    public Expr visitThisExpr(Expr.This expr) {
+        return expr;
+    }
+
+    @Override
+    public Expr visitTernaryExpr(Expr.Ternary expr) {
+        Expr condition = optimize(expr.condition);
+        Object value = constant(condition);
+        if (value != NOT_CONSTANT) {
+            return optimize(Node.isTruthy(value) ? expr.thenExpr : expr.elseExpr);
+        }
+
+        return new Expr.Ternary(condition, expr.op1, optimize(expr.thenExpr), expr.op2, optimize(expr.elseExpr));
+    }
+
+    @Override
+    public Expr visitUnaryExpr(Expr.Unary expr) {
+        Expr right = optimize(expr.right);
+
+        Object value = constant(right);
+        if (expr.operator.type == TokenType.BANG && value != NOT_CONSTANT) {
+            return new Expr.Literal(!Node.isTruthy(value));
+        }
+        if (expr.operator.type == TokenType.MINUS && value instanceof Double number) {
+            return new Expr.Literal(-number);
+        }
+
+        if (right == expr.right) return expr;
+        return new Expr.Unary(expr.operator, right);
+    }
+
+    @Override
+    public Expr visitVariableExpr(Expr.Variable expr) {
+        return expr;
+    }
+
+    @Override
+    public Stmt visitBlockStmt(Stmt.Block stmt) {
+        List<Stmt> statements = optimizeBlock(stmt.statements);
+        if (statements.isEmpty()) return null;
+
+        Stmt.Block block = new Stmt.Block(statements);
+        block.hasScope = stmt.hasScope;
+        return block;
+    }
+
+    @Override // Challenge 9.3
+    public Stmt visitBreakStmt(Stmt.Break stmt) {
+        return stmt;
+    }
+
+    @Override
+    public Stmt visitClassStmt(Stmt.Class stmt) {
+        return new Stmt.Class(stmt.name, stmt.superclass, functions(stmt.staticMethods), functions(stmt.methods));
+    }
+
+    @Override // Challenge 9.3
+    public Stmt visitContinueStmt(Stmt.Continue stmt) {
+        return stmt;
+    }
+
+    @Override
+    public Stmt visitExpressionStmt(Stmt.Expression stmt) {
+        Expr expression = optimize(stmt.expression);
+        if (expression instanceof Expr.Literal) return null;
+        if (expression == stmt.expression) return stmt;
+        return new Stmt.Expression(expression);
+    }
+
+    @Override
+    public Stmt visitForDesugaredStmt(Stmt.ForDesugared stmt) {
+        Expr condition = optimize(stmt.condition);
+        Object value = constant(condition);
+        if (value != NOT_CONSTANT && !Node.isTruthy(value)) return null;
+
+        return LoopInvariants.hoist(new Stmt.ForDesugared(stmt.keyword, condition, required(stmt.increment), required(stmt.body)), assignedGlobals);
+    }
+
+    @Override
+    public Stmt visitFunctionStmt(Stmt.Function stmt) {
+        return function(stmt);
+    }
+
+    @Override
+    public Stmt visitIfStmt(Stmt.If stmt) {
+        Expr condition = optimize(stmt.condition);
+        Object value = constant(condition);
+        if (value != NOT_CONSTANT) {
+            if (Node.isTruthy(value)) return optimize(stmt.thenBranch);
+            return stmt.elseBranch == null ? null : optimize(stmt.elseBranch);
+        }
+
+        Stmt elseBranch = stmt.elseBranch == null ? null : optimize(stmt.elseBranch);
+        return new Stmt.If(condition, required(stmt.thenBranch), elseBranch);
+    }
+
+    @Override
+    public Stmt visitReturnStmt(Stmt.Return stmt) {
+        if (stmt.value == null) return stmt;
+        return new Stmt.Return(stmt.keyword, optimize(stmt.value));
+    }
+
+    // Declarations are never dropped: the Resolver has already counted them into their frame's slots
+    @Override
+    public Stmt visitVarStmt(Stmt.Var stmt) {
+        if (stmt.initialiser == null) return stmt;
+        return new Stmt.Var(stmt.name, optimize(stmt.initialiser));
+    }
+
+    @Override
+    public Stmt visitWhileStmt(Stmt.While stmt) {
+        Expr condition = optimize(stmt.condition);
+        Object value = constant(condition);
+        if (value != NOT_CONSTANT && !Node.isTruthy(value)) return null;
+
+        return LoopInvariants.hoist(new Stmt.While(stmt.keyword, condition, required(stmt.body)), assignedGlobals);
+    }
+
+}
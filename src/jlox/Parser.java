@@ -9,12 +9,12 @@ import static jlox.TokenType.*;
 public class Parser {
     private static class ParseError extends RuntimeException {}
 
-     final List<Token> tokens;
-    private int current = 0;
+    private final TokenStream tokens; // holds the token just consumed and the one after it
     private int loopDepth = 0; // Track loop depth for break/continue
 
-    Parser(List<Token> tokens){
+    Parser(TokenStream tokens){
         this.tokens = tokens;
+        tokens.next();
     }
 
     List<Stmt> parse() {
@@ -53,11 +53,11 @@ public class Parser {
 
         Expr.Variable superclass = null;
         if (match(LESS)) {
-            consume(IDENTIFIER, "Expect superclass name");
+            expect(IDENTIFIER, "Expect superclass name");
             superclass = new Expr.Variable(previous());
         }
 
-        consume(LEFT_BRACE, "Expect '{' before class body.");
+        expect(LEFT_BRACE, "Expect '{' before class body.");
 
         List<Stmt.Function> methods = new ArrayList<>();
         List<Stmt.Function> staticMethods = new ArrayList<>();
@@ -70,7 +70,7 @@ public class Parser {
             
         }
 
-        consume(RIGHT_BRACE, "Expect '}' after class body.");
+        expect(RIGHT_BRACE, "Expect '}' after class body.");
 
         return new Stmt.Class(name, superclass, staticMethods, methods);
     }
@@ -91,13 +91,13 @@ public class Parser {
                 } while (match(COMMA));
             }
             
-            consume(RIGHT_PAREN, "Expect ')' after parameters.");
-            consume(LEFT_BRACE, "Expect '{' before " + kind + " body.");
+            expect(RIGHT_PAREN, "Expect ')' after parameters.");
+            expect(LEFT_BRACE, "Expect '{' before " + kind + " body.");
             List<Stmt> body = block();
 
             return new Stmt.Function(name, parameters, body);
         } else { // challenge 12.2
-            consume(LEFT_BRACE, "Expect '{' before " + kind + " body.");
+            expect(LEFT_BRACE, "Expect '{' before " + kind + " body.");
             List<Stmt> body = block();
 
             return new Stmt.Function(name, null, body);
@@ -113,7 +113,7 @@ public class Parser {
             initialiser = expression();
         }
 
-        consume(SEMICOLON, "Expect ';' after variable declaration.");
+        expect(SEMICOLON, "Expect ';' after variable declaration.");
         return new Stmt.Var(name, initialiser);
     }
 
@@ -136,7 +136,7 @@ public class Parser {
             error(previous(), "Cannot use 'break' outside of a loop.");
         }
 
-        consume(SEMICOLON, "Expect ';' after 'break'.");
+        expect(SEMICOLON, "Expect ';' after 'break'.");
         return new Stmt.Break();
     }
 
@@ -146,18 +146,19 @@ public class Parser {
             error(previous(), "Cannot use 'continue' outside of a loop.");
         }
 
-        consume(SEMICOLON, "Expect ';' after 'continue'.");
+        expect(SEMICOLON, "Expect ';' after 'continue'.");
         return new Stmt.Continue();
     }
 
     private Stmt expressionStatement() {
         Expr expr = expression();
-        consume(SEMICOLON, "Expect ';' after expression.");
+        expect(SEMICOLON, "Expect ';' after expression.");
         return new Stmt.Expression(expr);
     }
 
     private Stmt forStatement() {
-        consume(LEFT_PAREN, "Expect '(' after 'for'.");
+        Token keyword = previous();
+        expect(LEFT_PAREN, "Expect '(' after 'for'.");
 
         Stmt initialiser;
         if (match(SEMICOLON)) {
@@ -172,13 +173,13 @@ public class Parser {
         if (!check(SEMICOLON)) {
             condition = expression();
         }
-        consume(SEMICOLON, "Expect ';' after loop condition.");
+        expect(SEMICOLON, "Expect ';' after loop condition.");
 
         Expr increment = null;
         if (!check(RIGHT_PAREN)) {
             increment = expression();
         }
-        consume(RIGHT_PAREN, "Expect ')' after condition.");
+        expect(RIGHT_PAREN, "Expect ')' after condition.");
         
         loopDepth++;
         Stmt body = statement();
@@ -190,7 +191,7 @@ public class Parser {
 
         Stmt incrementStmt = (increment != null) ? new Stmt.Expression(increment) : new Stmt.Block(Collections.emptyList());
 
-        body = new Stmt.ForDesugared(condition, incrementStmt, body);
+        body = new Stmt.ForDesugared(keyword, condition, incrementStmt, body);
 
         if (initialiser != null) {
             body = new Stmt.Block(Arrays.asList(initialiser, body));
@@ -201,9 +202,9 @@ public class Parser {
     }
 
     private Stmt ifStatement() {
-        consume(LEFT_PAREN, "Expect '(' after 'if'.");
+        expect(LEFT_PAREN, "Expect '(' after 'if'.");
         Expr condition = expression();
-        consume(RIGHT_PAREN, "Expect ')' after condition.");
+        expect(RIGHT_PAREN, "Expect ')' after condition.");
 
         Stmt thenBranch = statement();
         Stmt elseBranch = null;
@@ -228,20 +229,21 @@ public class Parser {
             value = expression();
         }
 
-        consume(SEMICOLON, "Expect ';' after return value.");
+        expect(SEMICOLON, "Expect ';' after return value.");
 
         return new Stmt.Return(keyword, value);
     }
     
     private Stmt whileStatement() {
-        consume(LEFT_PAREN, "Expect '(' after 'if'.");
+        Token keyword = previous();
+        expect(LEFT_PAREN, "Expect '(' after 'if'.");
         Expr condition = expression();
-        consume(RIGHT_PAREN, "Expect ')' after condition.");
+        expect(RIGHT_PAREN, "Expect ')' after condition.");
 
         loopDepth++;
         Stmt body = statement();
         loopDepth--;
-        return new Stmt.While(condition, body);
+        return new Stmt.While(keyword, condition, body);
 
     }
 
@@ -252,173 +254,95 @@ public class Parser {
         statements.add(declaration());
         }
 
-        consume(RIGHT_BRACE, "Expect '}' after block.");
+        expect(RIGHT_BRACE, "Expect '}' after block.");
         return statements;
     }
 
-    private Expr expression(){
-        return comma();
-    }
-
-    private Expr comma() {
-        if (match(COMMA)) {
-            Token operator = previous();
-            error(operator, "Missing left-hand operand before " + operator.lexeme);
-            conditional(); // discard right-hand side
-            return null; // or a dummy expression if needed
-        }
-
-        Expr expr = conditional();
-
-        while (match(COMMA)) {
-            Token operator = previous();
-            Expr right = conditional();
-            expr = new Expr.Binary(expr, operator, right);
-        }
-
-        return expr;
-    }
-
-    private Expr conditional() {
-        Expr expr = assignment();
-
-        if (match(QUESTION)) {
-            Token op1 = previous();
-            Expr mid = expression();
+    // Binding powers for parse(), from loosest to tightest, indexed by the operator's TokenType. These are the levels
+    // of the expression grammar at the bottom of this file, so the trees are the ones its rules describe.
+    private static final int NONE = 0, COMMA_LEVEL = 1, CONDITIONAL = 2, ASSIGNMENT = 3, LOGIC_OR = 4, LOGIC_AND = 5,
+            EQUALITY = 6, COMPARISON = 7, TERM = 8, FACTOR = 9, UNARY = 10;
+    private static final int[] LEVELS = new int[TokenType.values().length];
 
-            // Throw error if ':' is missing
-            Token op2 = consume(COLON, "Expect ':' after '?' expression.");
-            Expr right = conditional();
-            expr = new Expr.Ternary(expr, op1, mid, op2, right);
-            
-        }
-
-        return expr;
+    static {
+        LEVELS[COMMA.ordinal()] = COMMA_LEVEL;
+        LEVELS[QUESTION.ordinal()] = CONDITIONAL;
+        LEVELS[EQUAL.ordinal()] = ASSIGNMENT;
+        LEVELS[OR.ordinal()] = LOGIC_OR;
+        LEVELS[AND.ordinal()] = LOGIC_AND;
+        for (TokenType type : List.of(BANG_EQUAL, EQUAL_EQUAL)) LEVELS[type.ordinal()] = EQUALITY;
+        for (TokenType type : List.of(LESS, LESS_EQUAL, GREATER, GREATER_EQUAL)) LEVELS[type.ordinal()] = COMPARISON;
+        for (TokenType type : List.of(MINUS, PLUS)) LEVELS[type.ordinal()] = TERM;
+        for (TokenType type : List.of(STAR, SLASH, PERCENT)) LEVELS[type.ordinal()] = FACTOR;
     }
 
-    private Expr assignment() {
-        Expr expr = or();
-
-        if (match(EQUAL)) {
-            Token equals = previous();
-            Expr value = assignment();
-
-            if (expr instanceof Expr.Variable variable) {
-                Token name = variable.name;
-                return new Expr.Assign(name, value);
-            } else if (expr instanceof Expr.Get get){
-                return new Expr.Set(get.object, get.name, value);
-            }
-
-            error(equals, "Invalid assignment target.");
-        }
-
-        return expr;
-    }
-
-    private Expr or(){
-        Expr expr = and();
-
-        while (match(OR)) {
-            Token operator = previous();
-            Expr right = and();
-            expr = new Expr.Logical(expr, operator, right);
-        }
-
-        return expr;
-
-    }
-
-    private Expr and() {
-        Expr expr = equality();
-
-        while (match(AND)) {
-            Token operator = previous();
-            Expr right = and();
-            expr = new Expr.Logical(expr, operator, right);
-        }
-
-        return expr;
-    }
-
-    private Expr equality() {
-        if (match(BANG_EQUAL, EQUAL_EQUAL)) {
-            Token operator = previous();
-            error(operator, "Missing left-hand operand before " + operator.lexeme);
-            comparison(); // discard right-hand side
-            return null; // or a dummy expression if needed
-        }
-
-        Expr expr = comparison();
-
-        while (match(BANG_EQUAL, EQUAL_EQUAL)) {
-            Token operator = previous();
-            Expr right = comparison();
-            expr = new Expr.Binary(expr, operator, right);
-        }
-
-        return expr;
+    private Expr expression(){
+        return parse(COMMA_LEVEL);
     }
 
-    private Expr comparison() {
-        if (match(LESS, LESS_EQUAL, GREATER, GREATER_EQUAL)) {
-            Token operator = previous();
-            error(operator, "Missing left-hand operand before " + operator.lexeme);
-            term(); // discard right-hand side
-            return null; // or a dummy expression if needed
-        }
-
-        Expr expr = term();
-
-        while (match(LESS, LESS_EQUAL, GREATER, GREATER_EQUAL)) {
-            Token operator = previous();
-            Expr right = term();
-            expr = new Expr.Binary(expr, operator, right);
-        }
-
-        return expr;
+    private Expr conditional() {
+        return parse(CONDITIONAL);
     }
 
-    private Expr term() {
-        if (match(MINUS, PLUS)) {
-            Token operator = previous();
-            error(operator, "Missing left-hand operand before " + operator.lexeme);
-            factor(); // discard right-hand side
-            return null; // or a dummy expression if needed
-        }
-
-        Expr expr = factor();
+    // Precedence climbing: parses an expression whose operators all bind at least as tightly as level, in one loop
+    // rather than a call per grammar rule
+    private Expr parse(int level) {
+        Expr expr;
+        int ceiling = UNARY; // only operators looser than this can still apply to expr
 
-        while (match(MINUS, PLUS)) {
-            Token operator = previous();
-            Expr right = factor();
-            expr = new Expr.Binary(expr, operator, right);
-        }
-
-        return expr;
-    }
-
-    private Expr factor() {
-        if (match(STAR, SLASH, PERCENT)) {
+        int leading = LEVELS[tokens.type().ordinal()];
+        if (leading >= level && (leading == COMMA_LEVEL || leading >= EQUALITY)) {
+            // an operator with nothing on its left: report it and skip its right-hand side, as its rule would
+            advance();
             Token operator = previous();
             error(operator, "Missing left-hand operand before " + operator.lexeme);
-            unary(); // discard right-hand side
-            return null; // or a dummy expression if needed
+            parse(leading + 1); // discard right-hand side
+            expr = null; // or a dummy expression if needed
+            ceiling = leading; // the rule gave up, so its level takes no more operators
+        } else {
+            expr = unary();
         }
 
-        Expr expr = unary();
+        while (true) {
+            int next = LEVELS[tokens.type().ordinal()];
+            if (next < level || next >= ceiling) return expr; // NONE is below every level
 
-        while (match(STAR, SLASH, PERCENT)) {
+            advance();
             Token operator = previous();
-            Expr right = unary();
-            expr = new Expr.Binary(expr, operator, right);
+            // Tighter operators were its right operand's to take; if that stopped short at an error they're left alone
+            ceiling = next + 1;
+            switch (next) {
+                case COMMA_LEVEL -> expr = new Expr.Binary(expr, operator, parse(CONDITIONAL));
+                case CONDITIONAL -> {
+                    Expr mid = expression();
+
+                    // Throw error if ':' is missing
+                    Token op2 = consume(COLON, "Expect ':' after '?' expression.");
+                    Expr right = parse(CONDITIONAL);
+                    expr = new Expr.Ternary(expr, operator, mid, op2, right);
+                    ceiling = CONDITIONAL; // at most one '?' per conditional
+                }
+                case ASSIGNMENT -> {
+                    Expr value = parse(ASSIGNMENT);
+
+                    if (expr instanceof Expr.Variable variable) {
+                        expr = new Expr.Assign(variable.name, value);
+                    } else if (expr instanceof Expr.Get get) {
+                        expr = new Expr.Set(get.object, get.name, value);
+                    } else {
+                        error(operator, "Invalid assignment target.");
+                    }
+                    ceiling = ASSIGNMENT;
+                }
+                case LOGIC_OR -> expr = new Expr.Logical(expr, operator, parse(LOGIC_AND));
+                case LOGIC_AND -> expr = new Expr.Logical(expr, operator, parse(LOGIC_AND)); // groups to the right
+                default -> expr = new Expr.Binary(expr, operator, parse(next + 1));
+            }
         }
-
-        return expr;
     }
 
     private Expr unary() {
-        if (match(BANG, MINUS)) {
+        if (match(BANG) || match(MINUS)) {
             Token operator = previous();
             Expr right = unary();
             return new Expr.Unary(operator, right);
@@ -463,7 +387,7 @@ public class Parser {
     }
 
     private Expr functionExpr(String kind) {
-        consume(LEFT_PAREN, "Expect '(' after " + kind + " expresion.");
+        expect(LEFT_PAREN, "Expect '(' after " + kind + " expresion.");
         List<Token> parameters = new ArrayList<>();
         if (!check(RIGHT_PAREN)) {
             do {
@@ -476,9 +400,9 @@ public class Parser {
             } while (match(COMMA));
         }
         
-        consume(RIGHT_PAREN, "Expect ')' after parameters.");
+        expect(RIGHT_PAREN, "Expect ')' after parameters.");
 
-        consume(LEFT_BRACE, "Expect '{' before " + kind + " body.");
+        expect(LEFT_BRACE, "Expect '{' before " + kind + " body.");
         List<Stmt> body = block();
 
         return new Expr.Function(parameters, body);
@@ -491,7 +415,7 @@ public class Parser {
         if (match(THIS)) return new Expr.This(previous());
         if (match(FUN)) return functionExpr("function");
 
-        if (match(NUMBER, STRING)) {
+        if (match(NUMBER) || match(STRING)) {
             return new Expr.Literal(previous().literal);
         }
 
@@ -501,13 +425,13 @@ public class Parser {
 
         if (match(LEFT_PAREN)) {
             Expr expr = expression();
-            consume(RIGHT_PAREN, "Expect ')' after exression.");
+            expect(RIGHT_PAREN, "Expect ')' after exression.");
             return new Expr.Grouping(expr);
         }
 
         if (match(SUPER)) {
             Token keyword = previous();
-            consume(DOT, "Expect '.' after 'super'.");
+            expect(DOT, "Expect '.' after 'super'.");
             Token method = consume(IDENTIFIER, "Expect superclass method name.");
             return new Expr.Super(keyword, method);
         }
@@ -520,7 +444,7 @@ public class Parser {
                 } while (match(COMMA));
             }
 
-            consume(RIGHT_BRACKET, "Expect ']' after elements.");
+            expect(RIGHT_BRACKET, "Expect ']' after elements.");
 
             return new Expr.Array(elements);
         }
@@ -528,43 +452,49 @@ public class Parser {
         throw error(peek(), "Expect expression.");
     }
 
-    private boolean match(TokenType... types) {
-        for (TokenType type : types) {
-            if (check(type)) {
-                advance();
-                return true;
-            }
+    private boolean match(TokenType type) {
+        if (check(type)) {
+            advance();
+            return true;
         }
 
         return false;
     }
 
     private Token consume(TokenType type, String message) {
-        if (check(type)) return advance();
+        expect(type, message);
+        return previous();
+    }
+
+    // consume() for a token that isn't kept, so the stream never has to make it
+    private void expect(TokenType type, String message) {
+        if (check(type)) {
+            advance();
+            return;
+        }
 
         throw error(peek(), message);
     }
 
     private boolean check(TokenType type) {
         if (isAtEnd()) return false;
-        return peek().type == type;
+        return tokens.type() == type;
     }
 
-    private Token advance() {
-        if (!isAtEnd()) current++;
-        return previous();
+    private void advance() {
+        if (!isAtEnd()) tokens.next();
     }
 
     private boolean isAtEnd() {
-        return peek().type == EOF;
+        return tokens.type() == EOF;
     }
 
     private Token peek() {
-        return tokens.get(current);
+        return tokens.current();
     }
 
     private Token previous() {
-        return tokens.get(current - 1);
+        return tokens.previous();
     }
 
     private ParseError error(Token token, String message) {
@@ -579,7 +509,7 @@ public class Parser {
         while (!isAtEnd()) {
             if (previous().type == SEMICOLON) return;
 
-            switch (peek().type) {
+            switch (tokens.type()) {
                 case CLASS, FUN, VAR, FOR, IF, WHILE, PRINT, RETURN -> {
                     return;
                 }
@@ -610,7 +540,7 @@ public class Parser {
      * whileStmt      → "while" "(" expression ")" statement
      * block          → "{" declaration* "}"
      * 
-     * expression     → comma
+     * expression     → comma      // parsed by precedence climbing (see parse), down to unary
      * comma          → conditional ( "," conditional )*      // Challenge 6.1
      * conditional    → assignment ( "?" expression ":" conditional )?      // Challenge 6.1
      * assignment     → ( call "." )? IDENTIFIER "=" assignment | logic_or
@@ -0,0 +1,105 @@
+package jlox;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+// Feedback from one run of a script that the next run can start from (--profile=FILE). It's read before the
+// script runs and written when it ends, keyed by the line and column of the token each entry belongs to:
+//   hot <line>:<column>           a function (its name) or loop (its keyword) the JIT compiled; compiled on first use
+//   types <line>:<column> <state> what an arithmetic or comparison node (its operator) had specialised to
+// Shapes and inline caches hold objects that only exist in the run that made them, so they start empty as before.
+// A profile belongs to one version of one script: it's dropped if the source has changed since it was written.
+final class Profile {
+    static Profile current = null; // null unless --profile was given
+
+    private final Path file;
+    private final String source;
+    private final Set<String> hot = new LinkedHashSet<>(); // from the last run, and added to in this one
+    private final Map<String, Byte> types = new HashMap<>();
+    private final List<Node.Binary> binaries = new ArrayList<>(); // created this run, to save their state
+
+    private Profile(Path file, String source) {
+        this.file = file;
+        this.source = source;
+    }
+
+    static Profile load(Path file, String source) {
+        Profile profile = new Profile(file, source);
+        List<String> lines;
+        try {
+            lines = Files.exists(file) ? Files.readAllLines(file, StandardCharsets.UTF_8) : List.of();
+        } catch (IOException e) {
+            return profile; // start cold, and overwrite it at the end
+        }
+        if (lines.isEmpty() || !lines.get(0).equals("source " + profile.source)) return profile;
+
+        for (String line : lines.subList(1, lines.size())) {
+            String[] fields = line.split(" ");
+            try {
+                if (fields.length == 2 && fields[0].equals("hot")) {
+                    profile.hot.add(fields[1]);
+                } else if (fields.length == 3 && fields[0].equals("types")) {
+                    byte state = Byte.parseByte(fields[2]);
+                    if (state > Node.Binary.UNINITIALISED && state <= Node.Binary.GENERIC) profile.types.put(fields[1], state);
+                }
+            } catch (NumberFormatException e) {
+                // skip a damaged entry
+            }
+        }
+        return profile;
+    }
+
+    void save() {
+        List<String> lines = new ArrayList<>();
+        lines.add("source " + source);
+        for (String key : hot) {
+            lines.add("hot " + key);
+        }
+        // Nodes that share an operator (copies made by the Inliner) are saved as one, which is generic if they disagree
+        Map<String, Byte> states = new LinkedHashMap<>();
+        for (Node.Binary binary : binaries) {
+            if (binary.state == Node.Binary.UNINITIALISED) continue;
+            states.merge(key(binary.operator), binary.state, (a, b) -> a.equals(b) ? a : Node.Binary.GENERIC);
+        }
+        for (Map.Entry<String, Byte> entry : states.entrySet()) {
+            lines.add("types " + entry.getKey() + " " + entry.getValue());
+        }
+        try {
+            Files.write(file, lines, StandardCharsets.UTF_8);
+        } catch (IOException e) {
+            System.err.println("Could not write profile " + file + ": " + e.getMessage());
+        }
+    }
+
+    private static String key(Token token) {
+        return token.line + ":" + token.column;
+    }
+
+    // Whether the function or loop at this token was compiled last time
+    static boolean isHot(Token token) {
+        return current != null && token != null && current.hot.contains(key(token));
+    }
+
+    static void compiled(Token token) {
+        if (current != null && token != null) current.hot.add(key(token));
+    }
+
+    // Starts a node in the state it ended up in last time, and keeps it to save how it ends up this time
+    static void specialise(Node.Binary binary) {
+        if (current == null) return;
+
+        Byte state = current.types.get(key(binary.operator));
+        if (state != null) binary.state = state;
+        current.binaries.add(binary);
+    }
+
+}
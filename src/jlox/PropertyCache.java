@@ -0,0 +1,100 @@
+package jlox;
+
+// Inline cache for one property get or set site (Expr.Get/Expr.Set, or the equivalent node).
+// Remembers up to MAX_ENTRIES shapes seen at the site along with what the property resolved to for that shape:
+// a method, or the field's slot. Sites that see more shapes than that are megamorphic and always look up.
+final class PropertyCache {
+    private static final int MAX_ENTRIES = 4;
+
+    private final Shape[] shapes = new Shape[MAX_ENTRIES];
+    private final int[] slots = new int[MAX_ENTRIES];
+    private final jloxFunction[] methods = new jloxFunction[MAX_ENTRIES]; // gets only; methods shadow fields
+    private final Shape[] transitions = new Shape[MAX_ENTRIES]; // sets only; non-null when the set adds the field
+    private int count = 0;
+
+    Object get(jloxInstance instance, Token name, Interpreter interpreter) {
+        Shape shape = instance.getShape();
+        for (int i = 0; i < count; i++) {
+            if (shapes[i] == shape) {
+                if (methods[i] == null) return instance.getSlot(slots[i]);
+                return method(methods[i], instance, interpreter);
+            }
+        }
+
+        jloxFunction method = findMethod(instance, name);
+        int slot = shape.indexOf(name.symbol);
+        if (method == null && slot < 0) {
+            throw new RuntimeError(name, "Undefined property '" + name.lexeme + "'.");
+        }
+        remember(shape, slot, method);
+
+        if (method == null) return instance.getSlot(slot);
+        return method(method, instance, interpreter);
+    }
+
+    // For calls of the form obj.name(...): the unbound method, or null if the property isn't a method
+    // (a field, or missing, which get() then reports)
+    jloxFunction method(jloxInstance instance, Token name) {
+        Shape shape = instance.getShape();
+        for (int i = 0; i < count; i++) {
+            if (shapes[i] == shape) return methods[i];
+        }
+
+        jloxFunction method = findMethod(instance, name);
+        int slot = shape.indexOf(name.symbol);
+        if (method != null || slot >= 0) remember(shape, slot, method);
+        return method;
+    }
+
+    private static jloxFunction findMethod(jloxInstance instance, Token name) {
+        jloxClass klass = instance.getKlass();
+        return klass == null ? null : klass.findMethod(name.symbol);
+    }
+
+    private void remember(Shape shape, int slot, jloxFunction method) {
+        if (count == MAX_ENTRIES) return;
+
+        shapes[count] = shape;
+        slots[count] = slot;
+        methods[count] = method;
+        count++;
+    }
+
+    void set(jloxInstance instance, Token name, Object value) {
+        Shape shape = instance.getShape();
+        for (int i = 0; i < count; i++) {
+            if (shapes[i] == shape) {
+                if (transitions[i] == null) {
+                    instance.setSlot(slots[i], value);
+                } else {
+                    instance.addField(transitions[i], value);
+                }
+                return;
+            }
+        }
+
+        int slot = shape.indexOf(name.symbol);
+        Shape transition = slot < 0 ? shape.with(name.symbol) : null;
+
+        if (count < MAX_ENTRIES) {
+            shapes[count] = shape;
+            slots[count] = slot;
+            transitions[count] = transition;
+            count++;
+        }
+
+        if (transition == null) {
+            instance.setSlot(slot, value);
+        } else {
+            instance.addField(transition, value);
+        }
+    }
+
+    private static Object method(jloxFunction method, jloxInstance instance, Interpreter interpreter) {
+        if (method.getIsGetter()) {
+            return method.invoke(instance, interpreter, null);
+        }
+        return method.bind(instance);
+    }
+
+}
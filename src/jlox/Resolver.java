@@ -9,29 +9,27 @@ import java.util.Stack;
 import jlox.Stmt.ForDesugared;
 
 class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
-    private final Interpreter interpreter;
     private final Stack<Map<String, VariableInfo>> scopes = new Stack<>();
     private FunctionType currentFunction = FunctionType.NONE;
 
     // challenge 11.3
-    class VariableInfo {
+    static class VariableInfo {
         @SuppressWarnings("unused")
         Token token;
         boolean defined;
         @SuppressWarnings("unused")
         boolean used;
+        final int slot; // index into the runtime frame, in declaration order
+        boolean assigned; // by anything after its declaration; never-assigned locals are constants to LoopInvariants
 
-        VariableInfo (Token token, boolean defined, boolean used){
+        VariableInfo (Token token, boolean defined, boolean used, int slot){
             this.token = token;
             this.defined = defined;
             this.used = used;
+            this.slot = slot;
         }
     }
 
-    Resolver(Interpreter interpreter) {
-        this.interpreter = interpreter;
-    }
-
     private enum FunctionType {
         NONE,
         FUNCTION,
@@ -67,6 +65,12 @@ class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
         currentFunction = type;
 
         beginScope();
+
+        // methods (static ones included, where "this" is the class) get "this" as slot 0 of their own frame,
+        // ahead of the parameters, so a method call can pass it in without binding first
+        if (type != FunctionType.FUNCTION) {
+            scopes.peek().put("this", new VariableInfo(function.name, true, true, 0));
+        }
     
         if (function.params != null) {
             for (Token param : function.params) {
@@ -99,12 +103,30 @@ class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
 
     @Override
     public Void visitBlockStmt(Stmt.Block stmt) {
+        // A block that declares nothing gets no scope, so it can run in the enclosing environment
+        // (depths then count one less for it, in every engine that uses them)
+        stmt.hasScope = declaresAnything(stmt.statements);
+        if (!stmt.hasScope) {
+            resolve(stmt.statements);
+            return null;
+        }
+
         beginScope();
         resolve(stmt.statements);
         endScope();
         return null;
     }
 
+    // Only a block's own statements declare into its scope; nested blocks have their own
+    private static boolean declaresAnything(List<Stmt> statements) {
+        for (Stmt statement : statements) {
+            if (statement instanceof Stmt.Var || statement instanceof Stmt.Function || statement instanceof Stmt.Class) {
+                return true;
+            }
+        }
+        return false;
+    }
+
     @Override
     public Void visitBreakStmt(Stmt.Break stmt) {
         return null;
@@ -129,12 +151,9 @@ class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
 
         if (stmt.superclass != null) {
             beginScope();
-            scopes.peek().put("super", new VariableInfo(stmt.name, true, true));
+            scopes.peek().put("super", new VariableInfo(stmt.name, true, true, 0));
         }
         
-        beginScope();
-        scopes.peek().put("this", new VariableInfo(stmt.name, true, true));
-
         Map<String, FunctionType> staticMethodKinds = new HashMap<>();
         for (Stmt.Function staticMethod : stmt.staticMethods) {
             FunctionType declaration = FunctionType.STATIC;
@@ -165,8 +184,6 @@ class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
             resolveFunction(method, declaration);
         }
 
-        endScope();
-
         if (stmt.superclass != null) endScope();
         
         currentClass = enclosingClass;
@@ -262,7 +279,12 @@ class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
     @Override
     public Void visitAssignExpr(Expr.Assign expr) {
         resolve(expr.value);
-        resolveLocal(expr, expr.name);
+        expr.depth = resolveLocal(expr.name);
+        if (expr.depth >= 0) {
+            VariableInfo binding = bindingOf(expr.name, expr.depth);
+            binding.assigned = true;
+            expr.slot = binding.slot;
+        }
         return null;
     }
 
@@ -302,6 +324,19 @@ class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
         return null;
     }
 
+    // Only made by the Optimizer, from parts that are already resolved
+    @Override
+    public Void visitInlineExpr(Expr.Inline expr) {
+        resolve(expr.call);
+        return null;
+    }
+
+    @Override
+    public Void visitInvariantExpr(Expr.Invariant expr) {
+        resolve(expr.expression);
+        return null;
+    }
+
     @Override
     public Void visitLiteralExpr(Expr.Literal expr) {
         return null;
@@ -329,7 +364,7 @@ class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
             jlox.error(expr.keyword, "Can't use 'super' in a class with no superclass.");
         }   
 
-        resolveLocal(expr, expr.keyword);
+        expr.depth = resolveLocal(expr.keyword);
         return null;
     }
 
@@ -348,7 +383,8 @@ class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
             jlox.error(expr.keyword, "Can't use 'this' outside of a class.");
         }
 
-        resolveLocal(expr, expr.keyword);
+        expr.depth = resolveLocal(expr.keyword);
+        if (expr.depth >= 0) expr.slot = slotOf(expr.keyword, expr.depth);
         return null;
     }
 
@@ -367,7 +403,11 @@ class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
             }
         }
 
-        resolveLocal(expr, expr.name);
+        expr.depth = resolveLocal(expr.name);
+        if (expr.depth >= 0) {
+            expr.binding = bindingOf(expr.name, expr.depth);
+            expr.slot = expr.binding.slot;
+        }
         use(expr.name);
 
         return null;
@@ -401,7 +441,7 @@ class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
             jlox.error(name, "Already a variable with this name in this scope.");
         }
 
-        scope.put(name.lexeme,  new VariableInfo(name, false, false));
+        scope.put(name.lexeme,  new VariableInfo(name, false, false, scope.size()));
     }
 
     private void define(Token name) {
@@ -420,13 +460,23 @@ class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
         }
     }
 
-    private void resolveLocal(Expr expr, Token name) {
+    // Returns how many scopes out the name is declared, or -1 if it's left to the globals
+    private int resolveLocal(Token name) {
         for (int i = scopes.size() - 1; i >= 0; i--) {
             if (scopes.get(i).containsKey(name.lexeme)) {
-                interpreter.resolve(expr, scopes.size() - 1 - i);
-                return;
+                return scopes.size() - 1 - i;
             }
         }
+
+        return -1;
+    }
+
+    private int slotOf(Token name, int depth) {
+        return bindingOf(name, depth).slot;
+    }
+
+    private VariableInfo bindingOf(Token name, int depth) {
+        return scopes.get(scopes.size() - 1 - depth).get(name.lexeme);
     }
 
 }
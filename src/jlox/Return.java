@@ -1,7 +1,8 @@
 package jlox;
 
+// Stackless: it only carries the value out of the body, so there's no trace worth filling in
 class Return extends RuntimeException {
-    final Object value;
+    Object value; // set just before each throw when the Interpreter reuses one instance
 
     Return(Object value) {
         super(null, null, false, false);
@@ -1,17 +1,46 @@
 package jlox;
 
+import java.io.IOException;
+import java.io.Reader;
+import java.io.UncheckedIOException;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import static jlox.TokenType.*;
 
-public class Scanner {
-    private final String source;
-    private final List<Token> tokens = new ArrayList<>();
+// Scans on demand: each next() reads only as far as the end of the token it moves onto. Positions are offsets into
+// the whole source, but only a window of it is in memory (see fill), so scanning a large file from a Reader holds
+// little more than the last two tokens and a buffer's worth of lookahead.
+// Since scanning happens as the Parser goes, scan errors ("Unexpected character", "Unterminated string") are reported
+// in source order among the parse errors, rather than all of them first as when the whole file was scanned up front.
+public class Scanner implements TokenStream {
+    private Reader reader; // null once all of the source is in the buffer
+    private char[] buffer;
+    private int base = 0; // offset of buffer[0] in the source
+    private int limit; // offset just past the last character read so far
+    private int keep = 0; // where the previous token starts: fill keeps everything from here on
+
+    // Where a scanned token is. Its lexeme and literal are only decoded if the Parser asks for the Token
+    private static final class Span {
+        TokenType type;
+        int start;
+        int end;
+        int line;
+        int column;
+        Token token; // made on demand
+    }
+
+    // The Parser only looks at the current and previous tokens, so two Spans are reused, swapping on each next()
+    private Span at = new Span();
+    private Span before = new Span();
+    private boolean found; // scanToken found a token rather than whitespace or a comment
+
     private int start = 0;
     private int current = 0;
     private int line = 1;
+    private int lineStart = 0; // index of the first character on the current line
+    private int column = 1; // of the lexeme being scanned
 
     private static final Map<String, TokenType> keywords;
 
@@ -40,22 +69,109 @@ public class Scanner {
     }
 
     Scanner(String source) {
-        this.source = source;
+        this.reader = null;
+        this.buffer = source.toCharArray();
+        this.limit = buffer.length;
+    }
+
+    Scanner(Reader reader) {
+        this.reader = reader;
+        this.buffer = new char[8192];
+        this.limit = 0;
     }
 
     List<Token> scanTokens() {
-        while (!isAtEnd()) {
+        List<Token> tokens = new ArrayList<>();
+        do {
+            next();
+            tokens.add(current());
+        } while (type() != EOF);
+        return tokens;
+    }
+
+    @Override
+    public void next() {
+        Span last = at;
+        at = before;
+        before = last;
+        at.token = null;
+        keep = before.start;
+
+        found = false;
+        while (!found && !isAtEnd()) {
             // WE are at the beginning of the next lexeme
             start = current;
+            column = start - lineStart + 1;
             scanToken();
         }
 
-        tokens.add(new Token(TokenType.EOF, "", null, line));
-        return tokens;
+        if (!found) {
+            start = current;
+            column = start - lineStart + 1;
+            addToken(EOF);
+        }
+    }
+
+    @Override
+    public TokenType type() {
+        return at.type;
+    }
+
+    @Override
+    public Token current() {
+        return token(at);
+    }
+
+    @Override
+    public Token previous() {
+        return token(before);
+    }
+
+    private Token token(Span span) {
+        if (span.token == null) {
+            Object literal = switch (span.type) {
+                case NUMBER -> Double.parseDouble(text(span.start, span.end));
+                case STRING -> unescape(span.start + 1, span.end - 1); // inside the quotes
+                default -> null;
+            };
+            span.token = new Token(span.type, text(span.start, span.end), literal, span.line, span.column);
+        }
+        return span.token;
     }
 
     private boolean isAtEnd() {
-        return current >= source.length();
+        return current >= limit && !fill();
+    }
+
+    // Reads more of the source, dropping what's before the previous token to make room (and growing the buffer only
+    // when what's kept is most of it). False if there's no more to read.
+    private boolean fill() {
+        if (reader == null) return false;
+
+        try {
+            if (limit - base == buffer.length) {
+                int kept = limit - keep;
+                char[] next = kept * 2 > buffer.length ? new char[buffer.length * 2] : buffer;
+                System.arraycopy(buffer, keep - base, next, 0, kept);
+                buffer = next;
+                base = keep;
+            }
+
+            int read = reader.read(buffer, limit - base, buffer.length - (limit - base));
+            if (read < 0) {
+                reader.close();
+                reader = null;
+                return false;
+            }
+            limit += read;
+            return true;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private String text(int from, int to) {
+        return new String(buffer, from - base, to - from);
     }
 
     private void scanToken() {
@@ -92,7 +208,10 @@ public class Scanner {
             case ' ', '\r', '\t' -> {
                 // ignore whitespace
                 }
-            case '\n' -> line++;
+            case '\n' -> {
+                line++;
+                lineStart = current;
+            }
             case '"' -> string();
 
             default -> {
@@ -137,15 +256,17 @@ public class Scanner {
                 level--;
             } else if (advance() == '\n') {
                 line++;
+                lineStart = current;
             }
         }
     }
 
     private void string() {
-        StringBuilder value = new StringBuilder();
-
         while (peek() != '"' && !isAtEnd()) {
-            if (peek() == '\n') line++;
+            if (peek() == '\n') {
+                line++;
+                lineStart = current + 1;
+            }
 
             if (peek() == '\\') {
                 advance();
@@ -154,26 +275,8 @@ public class Scanner {
                     jlox.error(line, "Unterminated string.");
                     return;
                 }
-
-                char escaped = peek();
-                switch (escaped) {
-                    case 'n' -> value.append('\n');
-                    case 't' -> value.append('\t');
-                    case 'r' -> value.append('\r');
-                    case '\\' -> value.append('\\');
-                    case '"' -> value.append('"');
-                    case '\'' -> value.append('\'');
-                    case '0' -> value.append('\0');
-                    default -> {
-                        value.append('\\');
-                        value.append(escaped);
-                    }
-                }
-                advance();
-            } else {
-                value.append(peek());
-                advance();
             }
+            advance(); // escapes are decoded by unescape, if the token is ever made
         }
 
         if (isAtEnd()) {
@@ -184,9 +287,36 @@ public class Scanner {
         // The closing ".
         advance();
 
-        // Trim the surrounding quotes.
-        // String value = source.substring(start + 1, current - 1); // +1, -1 to ingore the ""
-        addToken(STRING, value.toString());
+        addToken(STRING);
+    }
+
+    private String unescape(int from, int to) {
+        StringBuilder value = new StringBuilder(to - from);
+
+        for (int i = from; i < to; i++) {
+            char c = buffer[i - base];
+            if (c != '\\') {
+                value.append(c);
+                continue;
+            }
+
+            char escaped = buffer[++i - base];
+            switch (escaped) {
+                case 'n' -> value.append('\n');
+                case 't' -> value.append('\t');
+                case 'r' -> value.append('\r');
+                case '\\' -> value.append('\\');
+                case '"' -> value.append('"');
+                case '\'' -> value.append('\'');
+                case '0' -> value.append('\0');
+                default -> {
+                    value.append('\\');
+                    value.append(escaped);
+                }
+            }
+        }
+
+        return value.toString();
     }
 
     private void number() {
@@ -200,16 +330,13 @@ public class Scanner {
             while (isDigit(peek())) advance();
         }
 
-        // addToken(NUMBER, Double.parseDouble(source.substring(start, current)));
-        String text = source.substring(start, current);
-        double value = Double.parseDouble(text);
-        addToken(NUMBER, value);
-        
+        addToken(NUMBER); // parsed if the token is ever made
+
     }
 
     private boolean match(char expected) {
         if (isAtEnd()) return false;
-        if (source.charAt(current) != expected) return false;
+        if (buffer[current - base] != expected) return false;
 
         current++;
         return true;
@@ -217,12 +344,14 @@ public class Scanner {
 
     private char peek() {
         if (isAtEnd()) return '\0';
-        return source.charAt(current);
+        return buffer[current - base];
     }
 
     private char peekNext() {
-        if (current + 1 >= source.length()) return '\0';
-        return source.charAt(current + 1);
+        while (current + 1 >= limit) {
+            if (!fill()) return '\0';
+        }
+        return buffer[current + 1 - base];
     } 
 
     private boolean isDigit(char c) {
@@ -237,7 +366,7 @@ public class Scanner {
 
     private void identifier() {
         while (isAlphaNumeric(peek())) advance();
-        String text = source.substring(start, current);
+        String text = text(start, current);
         TokenType type = keywords.get(text);
         if (type == null) type = IDENTIFIER;
         addToken(type);
@@ -248,17 +377,17 @@ public class Scanner {
     }
 
     private char advance() {
-        return source.charAt(current++);
+        return buffer[current++ - base];
         // returns source.charAt(current), then current += current
     }
 
     private void addToken(TokenType type) {
-        addToken(type, null);
-    }
-
-    private void addToken(TokenType type, Object literal) {
-        String text = source.substring(start, current);
-        tokens.add(new Token(type, text, literal, line));
+        at.type = type;
+        at.start = start;
+        at.end = current;
+        at.line = line;
+        at.column = column;
+        found = true;
     }
 
     public static boolean isKeyword(String lexeme) {
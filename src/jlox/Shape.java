@@ -0,0 +1,43 @@
+package jlox;
+
+import java.util.HashMap;
+import java.util.Map;
+
+// Field layout shared by instances: which slot of jloxInstance's value array holds each field.
+// Instances that add the same fields in the same order end up with the same Shape, so a property access site
+// can check the Shape once and load the slot directly (see PropertyCache).
+// Every class has its own root Shape, so a Shape also pins down the class and therefore its methods.
+final class Shape {
+    private final Map<Symbol, Integer> slots;
+    private final Map<Symbol, Shape> transitions = new HashMap<>(); // adding a field always leads to the same child
+
+    private Shape(Map<Symbol, Integer> slots) {
+        this.slots = slots;
+    }
+
+    static Shape root() {
+        return new Shape(Map.of());
+    }
+
+    int indexOf(Symbol name) {
+        Integer slot = slots.get(name);
+        return slot == null ? -1 : slot;
+    }
+
+    int size() {
+        return slots.size();
+    }
+
+    // The shape after adding a field this shape doesn't have; the new field takes the next slot
+    Shape with(Symbol name) {
+        Shape next = transitions.get(name);
+        if (next == null) {
+            Map<Symbol, Integer> nextSlots = new HashMap<>(slots);
+            nextSlots.put(name, slots.size());
+            next = new Shape(nextSlots);
+            transitions.put(name, next);
+        }
+        return next;
+    }
+
+}
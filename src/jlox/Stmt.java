@@ -28,6 +28,7 @@ abstract class Stmt {
         }
 
         final List<Stmt> statements;
+        boolean hasScope = true;
     }
 
     static class Break extends Stmt {
@@ -85,7 +86,8 @@ abstract class Stmt {
     }
 
     static class ForDesugared extends Stmt {
-        ForDesugared(Expr condition, Stmt increment, Stmt body) {
+        ForDesugared(Token keyword, Expr condition, Stmt increment, Stmt body) {
+            this.keyword = keyword;
             this.condition = condition;
             this.increment = increment;
             this.body = body;
@@ -96,9 +98,13 @@ abstract class Stmt {
             return visitor.visitForDesugaredStmt(this);
         }
 
+        final Token keyword;
         final Expr condition;
         final Stmt increment;
         final Stmt body;
+        List<Expr.Invariant> invariants = null;
+        int backEdges = 0;
+        JitFunction compiled = null;
     }
 
     static class Function extends Stmt {
@@ -166,7 +172,8 @@ abstract class Stmt {
     }
 
     static class While extends Stmt {
-        While(Expr condition, Stmt body) {
+        While(Token keyword, Expr condition, Stmt body) {
+            this.keyword = keyword;
             this.condition = condition;
             this.body = body;
         }
@@ -176,8 +183,12 @@ abstract class Stmt {
             return visitor.visitWhileStmt(this);
         }
 
+        final Token keyword;
         final Expr condition;
         final Stmt body;
+        List<Expr.Invariant> invariants = null;
+        int backEdges = 0;
+        JitFunction compiled = null;
     }
 
     abstract <R> R accept(Visitor<R> visitor);
@@ -0,0 +1,41 @@
+package jlox;
+
+import java.util.HashMap;
+import java.util.Map;
+
+// An interned name. The Scanner makes one per distinct identifier (see Token), so every token for a name shares
+// the same Symbol and the same lexeme String. Symbols are equal only to themselves and carry their hash, so the
+// global indices, shapes and method tables keyed on them never hash or compare the characters again.
+final class Symbol {
+    private static final Map<String, Symbol> table = new HashMap<>();
+
+    static final Symbol INIT = of("init");
+
+    final String name;
+    private final int hash;
+
+    private Symbol(String name) {
+        this.name = name;
+        this.hash = name.hashCode();
+    }
+
+    static Symbol of(String name) {
+        Symbol symbol = table.get(name);
+        if (symbol == null) {
+            symbol = new Symbol(name);
+            table.put(name, symbol);
+        }
+        return symbol;
+    }
+
+    @Override
+    public int hashCode() {
+        return hash;
+    }
+
+    @Override
+    public String toString() {
+        return name;
+    }
+
+}
@@ -0,0 +1,17 @@
+package jlox;
+
+// Thrown by `return f(...)` instead of making the call: the frame for f is already set up, and the
+// jloxFunction.run() catching it runs f's body in place, so tail recursion doesn't grow the Java stack
+class TailCall extends Return {
+    final jloxFunction function;
+    final jloxInstance receiver;
+    final Environment frame;
+
+    TailCall(jloxFunction function, jloxInstance receiver, Environment frame) {
+        super(null);
+        this.function = function;
+        this.receiver = receiver;
+        this.frame = frame;
+    }
+
+}
@@ -5,12 +5,20 @@ public class Token {
     final String lexeme;
     final Object literal;
     final int line;
+    final int column; // of the lexeme's first character, from 1; 0 for tokens made up outside the Scanner
+    final Symbol symbol; // names only (identifiers and "this"), interned; null for everything else
 
     Token(TokenType type, String lexeme, Object literal, int line) {
+        this(type, lexeme, literal, line, 0);
+    }
+
+    Token(TokenType type, String lexeme, Object literal, int line, int column) {
         this.type = type;
-        this.lexeme = lexeme;
+        this.symbol = type == TokenType.IDENTIFIER || type == TokenType.THIS ? Symbol.of(lexeme) : null;
+        this.lexeme = symbol == null ? lexeme : symbol.name; // one String per name, however often it appears
         this.literal = literal;
         this.line = line;
+        this.column = column;
     }
 
     @Override
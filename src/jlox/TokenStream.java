@@ -0,0 +1,13 @@
+package jlox;
+
+// Where the Parser gets its tokens. It only ever looks at the token it's on and the one before it, so the Scanner
+// scans each token when the Parser moves onto it and only makes a Token object if one is asked for.
+interface TokenStream {
+    void next(); // onto the next token; stays on EOF once it gets there
+
+    TokenType type(); // of the current token, without making it
+
+    Token current();
+
+    Token previous();
+}
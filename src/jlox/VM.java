@@ -0,0 +1,965 @@
+package jlox;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+// Register-based virtual machine for chunks produced by BytecodeCompiler (selected with --engine=vm).
+// Each call's frame is a window of registers on one shared stack, starting with the callee and its arguments, so a
+// call just moves the window up to where the caller put them.
+// Numbers stay unboxed while they're in registers: a slot holding UNBOXED has its value in the parallel nums
+// array, so arithmetic, comparisons and local variables don't allocate. A number is only boxed when it leaves the
+// registers (into a closed upvalue, a field, an array or a native), and unboxed when it's loaded back. Globals keep
+// numbers unboxed too (see Environment).
+class VM {
+    private static final int FRAMES_MAX = 1 << 16;
+    private static final int STACK_HEADROOM = 16;
+    private static final Object UNBOXED = new Object();
+
+    final Environment globals = new Environment();
+
+    private Object[] stack = new Object[1024];
+    private double[] nums = new double[1024];
+    private int sp = 0; // the first slot above the current frame, kept up to date only around calls out of run()
+    private CallFrame[] frames = new CallFrame[64];
+    private int frameCount = 0;
+    private Upvalue openUpvalues = null; // sorted by slot, highest first
+
+    static class Function {
+        final String name;
+        final Chunk chunk = new Chunk();
+        int arity = 0;
+        int upvalueCount = 0;
+        int frameSize = 1; // registers, including the callee and the arguments
+        boolean isInitialiser = false;
+        boolean capturesLocals = false; // whether leaving a frame of it can have upvalues to close
+        boolean isGetter = false; // challenge 12.2
+
+        Function(String name) {
+            this.name = name;
+        }
+
+        @Override
+        public String toString() {
+            return "<fn " + (name == null ? "anonymous" : name) + ">";
+        }
+    }
+
+    static class Closure {
+        final Function function;
+        final Upvalue[] upvalues;
+
+        Closure(Function function) {
+            this.function = function;
+            this.upvalues = new Upvalue[function.upvalueCount];
+        }
+
+        @Override
+        public String toString() {
+            return function.toString();
+        }
+    }
+
+    // Points at a stack slot while the variable is live, and owns the value once the slot is popped
+    static class Upvalue {
+        int slot;
+        Object closed;
+        Upvalue next;
+
+        Upvalue(int slot, Upvalue next) {
+            this.slot = slot;
+            this.next = next;
+        }
+    }
+
+    static class Klass {
+        final String name;
+        // superclass methods are copied down by INHERIT, so one lookup covers the whole hierarchy
+        final Map<Symbol, Closure> methods = new HashMap<>();
+        final Map<Symbol, Closure> staticMethods = new HashMap<>(); // challenge 12.1
+        final Map<Symbol, Object> fields = new HashMap<>();
+        Closure initialiser = null;
+
+        Klass(String name) {
+            this.name = name;
+        }
+
+        @Override
+        public String toString() {
+            return name;
+        }
+    }
+
+    static class Instance {
+        final Klass klass;
+        final Map<Symbol, Object> fields = new HashMap<>();
+
+        Instance(Klass klass) {
+            this.klass = klass;
+        }
+
+        @Override
+        public String toString() {
+            return klass.name + " instance";
+        }
+    }
+
+    static class BoundMethod {
+        final Object receiver;
+        final Closure method;
+
+        BoundMethod(Object receiver, Closure method) {
+            this.receiver = receiver;
+            this.method = method;
+        }
+
+        @Override
+        public String toString() {
+            return method.toString();
+        }
+    }
+
+    private static class CallFrame {
+        Closure closure;
+        int[] code;
+        int[] lines;
+        Object[] constants;
+        int ip;
+        int base;
+    }
+
+    VM() {
+        Interpreter.defineNatives(globals);
+    }
+
+    void interpret(Function script) {
+        execute(script);
+    }
+
+    // Challenge 8.1: the REPL's bare expressions compile to a script that returns their value
+    String interpretExpression(Function script) {
+        Object value = execute(script);
+        if (jlox.hadRuntimeError) return null;
+        return CoreLibrary.stringify(value);
+    }
+
+    private Object execute(Function script) {
+        Closure closure = new Closure(script);
+        push(closure);
+        try {
+            call(closure, 0, 0);
+            return run(0);
+        } catch (RuntimeError error) {
+            jlox.runtimeError(error);
+            resetStack();
+            return null;
+        }
+    }
+
+    private void resetStack() {
+        Arrays.fill(stack, null); // sp may be stale if the error came from inside run()
+        sp = 0;
+        frameCount = 0;
+        openUpvalues = null;
+    }
+
+    // Runs until the frame count drops back to stopAt, and returns the value the last frame returned.
+    // The frame's state and the stack arrays are cached in locals, and reloaded after anything that can push a frame
+    // or grow the stack. Anything that isn't a few array accesses is left to helper methods, so the loop stays small
+    // enough for the JVM to compile
+    private Object run(int stopAt) {
+        CallFrame frame = frames[frameCount - 1];
+        int[] code = frame.code;
+        Object[] constants = frame.constants;
+        int[] lines = frame.lines;
+        int ip = frame.ip;
+        int base = frame.base;
+        Object[] stack = this.stack;
+        double[] nums = this.nums;
+
+        for (;;) {
+            int start = ip;
+
+            switch (code[ip++]) {
+                case OpCode.MOVE -> {
+                    int a = base + code[ip];
+                    int b = base + code[ip + 1];
+                    ip += 2;
+                    stack[a] = stack[b];
+                    nums[a] = nums[b];
+                }
+                case OpCode.CONSTANT -> {
+                    stack[base + code[ip]] = constants[code[ip + 1]];
+                    ip += 2;
+                }
+                case OpCode.NUMBER -> {
+                    int a = base + code[ip];
+                    stack[a] = UNBOXED;
+                    nums[a] = number(code, ip + 1);
+                    ip += 3;
+                }
+                case OpCode.NIL -> stack[base + code[ip++]] = null;
+                case OpCode.TRUE -> stack[base + code[ip++]] = Boolean.TRUE;
+                case OpCode.FALSE -> stack[base + code[ip++]] = Boolean.FALSE;
+                case OpCode.GET_GLOBAL -> {
+                    int index = code[ip + 1];
+                    Token name = (Token)constants[code[ip + 2]];
+                    if (index == OpCode.UNRESOLVED) index = resolveGlobal(code, ip + 1, name);
+                    int a = base + code[ip];
+                    ip += 3;
+                    if (globals.isNumber(index)) {
+                        stack[a] = UNBOXED;
+                        nums[a] = globals.getNumber(index);
+                    } else {
+                        load(a, globals.getGlobal(index, name));
+                    }
+                }
+                case OpCode.DEFINE_GLOBAL -> {
+                    int a = base + code[ip];
+                    if (stack[a] == UNBOXED) {
+                        globals.defineNumber(code[ip + 1], nums[a]);
+                    } else {
+                        globals.defineGlobal(code[ip + 1], stack[a]);
+                    }
+                    ip += 2;
+                }
+                case OpCode.SET_GLOBAL -> {
+                    int index = code[ip + 1];
+                    Token name = (Token)constants[code[ip + 2]];
+                    if (index == OpCode.UNRESOLVED) index = resolveGlobal(code, ip + 1, name);
+                    int a = base + code[ip];
+                    ip += 3;
+                    if (stack[a] == UNBOXED) {
+                        globals.assignNumber(index, name, nums[a]);
+                    } else {
+                        globals.assignGlobal(index, name, stack[a]);
+                    }
+                }
+                case OpCode.GET_UPVALUE -> {
+                    int a = base + code[ip];
+                    Upvalue upvalue = frame.closure.upvalues[code[ip + 1]];
+                    ip += 2;
+                    if (upvalue.slot >= 0) {
+                        stack[a] = stack[upvalue.slot];
+                        nums[a] = nums[upvalue.slot];
+                    } else {
+                        load(a, upvalue.closed);
+                    }
+                }
+                case OpCode.SET_UPVALUE -> {
+                    setUpvalue(frame.closure.upvalues[code[ip + 1]], base + code[ip]);
+                    ip += 2;
+                }
+                case OpCode.CLOSE_UPVALUES -> closeUpvalues(base + code[ip++]);
+                case OpCode.GET_PROPERTY -> {
+                    int a = base + code[ip];
+                    Object object = stack[base + code[ip + 1]];
+                    Token name = (Token)constants[code[ip + 2]];
+                    ip += 3;
+                    // a getter may run in between, in a frame above this one, and it can grow the stack
+                    this.sp = base + frame.closure.function.frameSize;
+                    Object value = getProperty(object, name);
+                    stack = this.stack;
+                    nums = this.nums;
+                    load(a, value);
+                }
+                case OpCode.SET_PROPERTY -> {
+                    setProperty(stack[base + code[ip]], (Token)constants[code[ip + 2]], value(base + code[ip + 1]));
+                    ip += 3;
+                }
+                case OpCode.GET_SUPER -> {
+                    Object receiver = stack[base + code[ip + 1]];
+                    Klass superclass = (Klass)stack[base + code[ip + 2]];
+                    Token name = (Token)constants[code[ip + 3]];
+                    stack[base + code[ip]] = new BoundMethod(receiver, findSuperMethod(superclass, name));
+                    ip += 4;
+                }
+                case OpCode.EQUAL -> {
+                    stack[base + code[ip]] = isEqual(base + code[ip + 1], base + code[ip + 2]);
+                    ip += 3;
+                }
+                case OpCode.NOT_EQUAL -> {
+                    stack[base + code[ip]] = !isEqual(base + code[ip + 1], base + code[ip + 2]);
+                    ip += 3;
+                }
+                case OpCode.GREATER -> {
+                    int b = base + code[ip + 1];
+                    int c = base + code[ip + 2];
+                    stack[base + code[ip]] = stack[b] == UNBOXED && stack[c] == UNBOXED
+                            ? nums[b] > nums[c] : compareStrings(b, c, lines[start]) > 0;
+                    ip += 3;
+                }
+                case OpCode.GREATER_EQUAL -> {
+                    int b = base + code[ip + 1];
+                    int c = base + code[ip + 2];
+                    stack[base + code[ip]] = stack[b] == UNBOXED && stack[c] == UNBOXED
+                            ? nums[b] >= nums[c] : compareStrings(b, c, lines[start]) >= 0;
+                    ip += 3;
+                }
+                case OpCode.LESS -> {
+                    int b = base + code[ip + 1];
+                    int c = base + code[ip + 2];
+                    stack[base + code[ip]] = stack[b] == UNBOXED && stack[c] == UNBOXED
+                            ? nums[b] < nums[c] : compareStrings(b, c, lines[start]) < 0;
+                    ip += 3;
+                }
+                case OpCode.LESS_EQUAL -> {
+                    int b = base + code[ip + 1];
+                    int c = base + code[ip + 2];
+                    stack[base + code[ip]] = stack[b] == UNBOXED && stack[c] == UNBOXED
+                            ? nums[b] <= nums[c] : compareStrings(b, c, lines[start]) <= 0;
+                    ip += 3;
+                }
+                case OpCode.ADD -> {
+                    int a = base + code[ip];
+                    int b = base + code[ip + 1];
+                    int c = base + code[ip + 2];
+                    ip += 3;
+                    if (stack[b] == UNBOXED && stack[c] == UNBOXED) {
+                        nums[a] = nums[b] + nums[c];
+                        stack[a] = UNBOXED;
+                    } else {
+                        stack[a] = concatenate(value(b), value(c), lines[start]);
+                    }
+                }
+                case OpCode.SUBTRACT -> {
+                    int a = base + code[ip];
+                    int b = base + code[ip + 1];
+                    int c = base + code[ip + 2];
+                    ip += 3;
+                    if (stack[b] != UNBOXED || stack[c] != UNBOXED) throw error("Operands must be numbers.", lines[start]);
+                    nums[a] = nums[b] - nums[c];
+                    stack[a] = UNBOXED;
+                }
+                case OpCode.MULTIPLY -> {
+                    int a = base + code[ip];
+                    int b = base + code[ip + 1];
+                    int c = base + code[ip + 2];
+                    ip += 3;
+                    if (stack[b] != UNBOXED || stack[c] != UNBOXED) throw error("Operands must be numbers.", lines[start]);
+                    nums[a] = nums[b] * nums[c];
+                    stack[a] = UNBOXED;
+                }
+                case OpCode.DIVIDE -> {
+                    int a = base + code[ip];
+                    int b = base + code[ip + 1];
+                    int c = base + code[ip + 2];
+                    ip += 3;
+                    if (stack[b] != UNBOXED || stack[c] != UNBOXED) throw error("Operands must be numbers.", lines[start]);
+                    if (nums[c] == 0) throw error("Division by zero is undefined.", lines[start]);
+                    nums[a] = nums[b] / nums[c];
+                    stack[a] = UNBOXED;
+                }
+                case OpCode.MODULO -> {
+                    int a = base + code[ip];
+                    int b = base + code[ip + 1];
+                    int c = base + code[ip + 2];
+                    ip += 3;
+                    if (stack[b] != UNBOXED || stack[c] != UNBOXED) throw error("Operands must be numbers.", lines[start]);
+                    if (nums[c] == 0) throw error("Modulo by zero is undefined.", lines[start]);
+                    nums[a] = nums[b] % nums[c];
+                    stack[a] = UNBOXED;
+                }
+                case OpCode.ADD_NUMBER -> {
+                    int a = base + code[ip];
+                    int b = base + code[ip + 1];
+                    double k = number(code, ip + 2);
+                    ip += 4;
+                    if (stack[b] == UNBOXED) {
+                        nums[a] = nums[b] + k;
+                        stack[a] = UNBOXED;
+                    } else {
+                        stack[a] = concatenate(value(b), k, lines[start]);
+                    }
+                }
+                case OpCode.SUBTRACT_NUMBER -> {
+                    int a = base + code[ip];
+                    int b = base + code[ip + 1];
+                    if (stack[b] != UNBOXED) throw error("Operands must be numbers.", lines[start]);
+                    nums[a] = nums[b] - number(code, ip + 2);
+                    stack[a] = UNBOXED;
+                    ip += 4;
+                }
+                case OpCode.MULTIPLY_NUMBER -> {
+                    int a = base + code[ip];
+                    int b = base + code[ip + 1];
+                    if (stack[b] != UNBOXED) throw error("Operands must be numbers.", lines[start]);
+                    nums[a] = nums[b] * number(code, ip + 2);
+                    stack[a] = UNBOXED;
+                    ip += 4;
+                }
+                case OpCode.DIVIDE_NUMBER -> {
+                    int a = base + code[ip];
+                    int b = base + code[ip + 1];
+                    double k = number(code, ip + 2);
+                    if (stack[b] != UNBOXED) throw error("Operands must be numbers.", lines[start]);
+                    if (k == 0) throw error("Division by zero is undefined.", lines[start]);
+                    nums[a] = nums[b] / k;
+                    stack[a] = UNBOXED;
+                    ip += 4;
+                }
+                case OpCode.MODULO_NUMBER -> {
+                    int a = base + code[ip];
+                    int b = base + code[ip + 1];
+                    double k = number(code, ip + 2);
+                    if (stack[b] != UNBOXED) throw error("Operands must be numbers.", lines[start]);
+                    if (k == 0) throw error("Modulo by zero is undefined.", lines[start]);
+                    nums[a] = nums[b] % k;
+                    stack[a] = UNBOXED;
+                    ip += 4;
+                }
+                case OpCode.NOT -> {
+                    stack[base + code[ip]] = !isTruthy(stack[base + code[ip + 1]]);
+                    ip += 2;
+                }
+                case OpCode.NEGATE -> {
+                    int a = base + code[ip];
+                    int b = base + code[ip + 1];
+                    ip += 2;
+                    if (stack[b] != UNBOXED) throw error("Operand must be a number.", lines[start]);
+                    nums[a] = -nums[b];
+                    stack[a] = UNBOXED;
+                }
+                case OpCode.JUMP -> ip = code[ip];
+                case OpCode.JUMP_IF_FALSE -> ip = isTruthy(stack[base + code[ip]]) ? ip + 2 : code[ip + 1];
+                case OpCode.JUMP_IF_TRUE -> ip = isTruthy(stack[base + code[ip]]) ? code[ip + 1] : ip + 2;
+                case OpCode.JUMP_IF_NOT_EQUAL -> ip = isEqual(base + code[ip], base + code[ip + 1]) ? ip + 3 : code[ip + 2];
+                case OpCode.JUMP_IF_NOT_NOT_EQUAL -> ip = isEqual(base + code[ip], base + code[ip + 1]) ? code[ip + 2] : ip + 3;
+                case OpCode.JUMP_IF_NOT_GREATER -> {
+                    int b = base + code[ip];
+                    int c = base + code[ip + 1];
+                    boolean greater = stack[b] == UNBOXED && stack[c] == UNBOXED
+                            ? nums[b] > nums[c] : compareStrings(b, c, lines[start]) > 0;
+                    ip = greater ? ip + 3 : code[ip + 2];
+                }
+                case OpCode.JUMP_IF_NOT_GREATER_EQUAL -> {
+                    int b = base + code[ip];
+                    int c = base + code[ip + 1];
+                    boolean greaterEqual = stack[b] == UNBOXED && stack[c] == UNBOXED
+                            ? nums[b] >= nums[c] : compareStrings(b, c, lines[start]) >= 0;
+                    ip = greaterEqual ? ip + 3 : code[ip + 2];
+                }
+                case OpCode.JUMP_IF_NOT_LESS -> {
+                    int b = base + code[ip];
+                    int c = base + code[ip + 1];
+                    boolean less = stack[b] == UNBOXED && stack[c] == UNBOXED
+                            ? nums[b] < nums[c] : compareStrings(b, c, lines[start]) < 0;
+                    ip = less ? ip + 3 : code[ip + 2];
+                }
+                case OpCode.JUMP_IF_NOT_LESS_EQUAL -> {
+                    int b = base + code[ip];
+                    int c = base + code[ip + 1];
+                    boolean lessEqual = stack[b] == UNBOXED && stack[c] == UNBOXED
+                            ? nums[b] <= nums[c] : compareStrings(b, c, lines[start]) <= 0;
+                    ip = lessEqual ? ip + 3 : code[ip + 2];
+                }
+                case OpCode.JUMP_IF_NOT_EQUAL_NUMBER -> {
+                    int b = base + code[ip];
+                    boolean equal = stack[b] == UNBOXED && sameNumber(nums[b], number(code, ip + 1));
+                    ip = equal ? ip + 4 : code[ip + 3];
+                }
+                case OpCode.JUMP_IF_NOT_NOT_EQUAL_NUMBER -> {
+                    int b = base + code[ip];
+                    boolean equal = stack[b] == UNBOXED && sameNumber(nums[b], number(code, ip + 1));
+                    ip = equal ? code[ip + 3] : ip + 4;
+                }
+                case OpCode.JUMP_IF_NOT_GREATER_NUMBER -> {
+                    int b = base + code[ip];
+                    if (stack[b] != UNBOXED) throw error("Operands must be numbers.", lines[start]);
+                    ip = nums[b] > number(code, ip + 1) ? ip + 4 : code[ip + 3];
+                }
+                case OpCode.JUMP_IF_NOT_GREATER_EQUAL_NUMBER -> {
+                    int b = base + code[ip];
+                    if (stack[b] != UNBOXED) throw error("Operands must be numbers.", lines[start]);
+                    ip = nums[b] >= number(code, ip + 1) ? ip + 4 : code[ip + 3];
+                }
+                case OpCode.JUMP_IF_NOT_LESS_NUMBER -> {
+                    int b = base + code[ip];
+                    if (stack[b] != UNBOXED) throw error("Operands must be numbers.", lines[start]);
+                    ip = nums[b] < number(code, ip + 1) ? ip + 4 : code[ip + 3];
+                }
+                case OpCode.JUMP_IF_NOT_LESS_EQUAL_NUMBER -> {
+                    int b = base + code[ip];
+                    if (stack[b] != UNBOXED) throw error("Operands must be numbers.", lines[start]);
+                    ip = nums[b] <= number(code, ip + 1) ? ip + 4 : code[ip + 3];
+                }
+                case OpCode.CALL, OpCode.INVOKE -> {
+                    int a = code[ip];
+                    Token name = code[start] == OpCode.INVOKE ? (Token)constants[code[++ip]] : null;
+                    int argCount = code[ip + 1];
+                    ip += 2;
+
+                    // Calling a closure (or a method on an instance) with room for its frame is done right here,
+                    // everything else by callValue() and invoke()
+                    Closure closure = name == null ? asClosure(stack[base + a]) : method(stack[base + a], name);
+                    if (closure != null && closure.function.arity == argCount && frameCount < frames.length
+                            && base + a + closure.function.frameSize + STACK_HEADROOM <= stack.length) {
+                        if (code[ip] == OpCode.RETURN && code[ip + 1] == a && !frame.closure.function.isInitialiser) {
+                            // return f(...): see replaceCaller()
+                            if (frame.closure.function.capturesLocals) closeUpvalues(base);
+                            moveDown(base + a, base, argCount + 1);
+                        } else {
+                            frame.ip = ip;
+                            frame = nextFrame();
+                            base += a;
+                        }
+                        Function function = closure.function;
+                        frame.closure = closure;
+                        frame.code = code = function.chunk.code;
+                        frame.constants = constants = function.chunk.constants;
+                        frame.lines = lines = function.chunk.lines;
+                        frame.base = base;
+                        ip = 0;
+                        continue;
+                    }
+
+                    frame.ip = ip;
+                    this.sp = base + a + argCount + 1;
+                    if (name == null) {
+                        callValue(stack[base + a], argCount, lines[start]);
+                    } else {
+                        invoke(name, argCount, lines[start]);
+                    }
+
+                    // return f(...): the caller has nothing left to do, so a new callee frame takes over the caller's
+                    // registers instead of stacking on top of them, keeping tail recursion within FRAMES_MAX
+                    if (frames[frameCount - 1] != frame && code[ip] == OpCode.RETURN && code[ip + 1] == a
+                            && !frame.closure.function.isInitialiser) {
+                        replaceCaller(frame);
+                    }
+
+                    frame = frames[frameCount - 1];
+                    code = frame.code;
+                    constants = frame.constants;
+                    lines = frame.lines;
+                    ip = frame.ip;
+                    base = frame.base;
+                    stack = this.stack;
+                    nums = this.nums;
+                }
+                case OpCode.SUPER_INVOKE -> {
+                    int a = code[ip];
+                    Token name = (Token)constants[code[ip + 1]];
+                    int argCount = code[ip + 2];
+                    Klass superclass = (Klass)stack[base + code[ip + 3]];
+                    ip += 4;
+
+                    frame.ip = ip;
+                    this.sp = base + a + argCount + 1;
+                    Closure method = findSuperMethod(superclass, name);
+                    checkArity(method.function.arity, argCount, lines[start]);
+                    call(method, argCount, lines[start]);
+                    if (code[ip] == OpCode.RETURN && code[ip + 1] == a && !frame.closure.function.isInitialiser) {
+                        replaceCaller(frame);
+                    }
+
+                    frame = frames[frameCount - 1];
+                    code = frame.code;
+                    constants = frame.constants;
+                    lines = frame.lines;
+                    ip = frame.ip;
+                    base = frame.base;
+                    stack = this.stack;
+                    nums = this.nums;
+                }
+                case OpCode.CLOSURE -> {
+                    int a = base + code[ip];
+                    Function function = (Function)constants[code[ip + 1]];
+                    ip += 2;
+                    Closure closure = new Closure(function);
+                    for (int i = 0; i < function.upvalueCount; i++) {
+                        boolean isLocal = code[ip++] == 1;
+                        int index = code[ip++];
+                        closure.upvalues[i] = isLocal ? captureUpvalue(base + index) : frame.closure.upvalues[index];
+                    }
+                    stack[a] = closure;
+                }
+                case OpCode.RETURN -> {
+                    int a = base + code[ip];
+                    Function function = frame.closure.function;
+                    if (function.capturesLocals) closeUpvalues(base);
+                    if (!function.isInitialiser) { // an initialiser returns its receiver, which is already in place
+                        stack[base] = stack[a];
+                        nums[base] = nums[a];
+                    }
+
+                    frameCount--;
+                    if (frameCount == stopAt) {
+                        this.sp = base;
+                        return value(base);
+                    }
+
+                    frame = frames[frameCount - 1];
+                    code = frame.code;
+                    constants = frame.constants;
+                    lines = frame.lines;
+                    ip = frame.ip;
+                    base = frame.base;
+                }
+                case OpCode.CLASS -> {
+                    stack[base + code[ip]] = new Klass(((Token)constants[code[ip + 1]]).lexeme);
+                    ip += 2;
+                }
+                case OpCode.INHERIT -> {
+                    if (!(stack[base + code[ip + 1]] instanceof Klass superclass)) {
+                        throw error("Superclass must be a class.", lines[start]);
+                    }
+                    Klass subclass = (Klass)stack[base + code[ip]];
+                    subclass.methods.putAll(superclass.methods);
+                    subclass.initialiser = superclass.initialiser;
+                    ip += 2;
+                }
+                case OpCode.METHOD -> {
+                    Klass klass = (Klass)stack[base + code[ip]];
+                    Closure method = (Closure)stack[base + code[ip + 1]];
+                    Token name = (Token)constants[code[ip + 2]];
+                    ip += 3;
+                    klass.methods.put(name.symbol, method);
+                    if (method.function.isInitialiser) klass.initialiser = method;
+                }
+                case OpCode.STATIC_METHOD -> {
+                    Klass klass = (Klass)stack[base + code[ip]];
+                    Closure method = (Closure)stack[base + code[ip + 1]];
+                    Token name = (Token)constants[code[ip + 2]];
+                    ip += 3;
+                    klass.staticMethods.put(name.symbol, method);
+                }
+                case OpCode.ARRAY -> {
+                    int a = base + code[ip];
+                    Object[] elements = values(base + code[ip + 1], code[ip + 2]);
+                    ip += 3;
+                    stack[a] = new jloxArray(elements);
+                }
+                default -> throw error("Unknown opcode " + code[start] + ".", lines[start]);
+            }
+        }
+    }
+
+    // A number operand, stored in the code as its bits, high int first
+    private static double number(int[] code, int i) {
+        return Double.longBitsToDouble((long)code[i] << 32 | code[i + 1] & 0xffffffffL);
+    }
+
+    // The value in a register as the rest of the interpreter sees it, boxing a number
+    private Object value(int slot) {
+        Object value = stack[slot];
+        return value == UNBOXED ? (Object)nums[slot] : value;
+    }
+
+    private Object[] values(int first, int count) {
+        Object[] values = new Object[count];
+        for (int i = 0; i < count; i++) {
+            values[i] = value(first + i);
+        }
+        return values;
+    }
+
+    // Puts a value from outside the registers into one, unboxing a number
+    private void load(int slot, Object value) {
+        if (value instanceof Double number) {
+            stack[slot] = UNBOXED;
+            nums[slot] = number;
+        } else {
+            stack[slot] = value;
+        }
+    }
+
+    private void setUpvalue(Upvalue upvalue, int slot) {
+        if (upvalue.slot >= 0) {
+            stack[upvalue.slot] = stack[slot];
+            nums[upvalue.slot] = nums[slot];
+        } else {
+            upvalue.closed = value(slot);
+        }
+    }
+
+    private boolean isEqual(int first, int second) {
+        Object a = stack[first];
+        Object b = stack[second];
+        if (a == UNBOXED || b == UNBOXED) {
+            return a == b && sameNumber(nums[first], nums[second]);
+        }
+        if (a == null) return b == null;
+
+        return a.equals(b);
+    }
+
+    // Numbers compare as the tree-walker's Double.equals() does: NaN equals itself, and 0 doesn't equal -0
+    private static boolean sameNumber(double a, double b) {
+        if (a == b) return a != 0 || Double.doubleToRawLongBits(a) == Double.doubleToRawLongBits(b);
+        return a != a && b != b;
+    }
+
+    // The comparison operators' slow path, for operands that aren't both numbers
+    private int compareStrings(int first, int second, int line) {
+        if (stack[first] instanceof String a && stack[second] instanceof String b) return a.compareTo(b);
+
+        throw error("Operands must be numbers.", line);
+    }
+
+    // ADD's slow path, for operands that aren't both numbers
+    private static String concatenate(Object a, Object b, int line) {
+        if (a instanceof String || b instanceof String) {
+            return CoreLibrary.stringify(a) + CoreLibrary.stringify(b);
+        }
+
+        throw error("Addition requires two number operator, string concanentation requires at least one string object.", line);
+    }
+
+    private void callValue(Object callee, int argCount, int line) {
+        if (callee instanceof Closure closure) {
+            checkArity(closure.function.arity, argCount, line);
+            call(closure, argCount, line);
+        } else {
+            callOther(callee, argCount, line);
+        }
+    }
+
+    private static Closure asClosure(Object callee) {
+        return callee instanceof Closure closure ? closure : null;
+    }
+
+    // The plain method obj.name() calls, or null if it's a getter, a field or anything else invoke() has to sort out
+    private static Closure method(Object receiver, Token name) {
+        if (!(receiver instanceof Instance instance)) return null;
+        Closure method = instance.klass.methods.get(name.symbol);
+        return method != null && !method.function.isGetter ? method : null;
+    }
+
+    // Everything but a plain closure, kept out of callValue() so the common case is small enough to inline
+    private void callOther(Object callee, int argCount, int line) {
+        if (callee instanceof BoundMethod bound) {
+            stack[sp - argCount - 1] = bound.receiver;
+            checkArity(bound.method.function.arity, argCount, line);
+            call(bound.method, argCount, line);
+            return;
+        }
+
+        if (callee instanceof Klass klass) {
+            if (klass.initialiser == null) {
+                checkArity(0, argCount, line);
+                stack[sp - 1] = new Instance(klass);
+                return;
+            }
+
+            checkArity(klass.initialiser.function.arity, argCount, line);
+            stack[sp - argCount - 1] = new Instance(klass);
+            call(klass.initialiser, argCount, line);
+            return;
+        }
+
+        if (callee instanceof jloxCallable function) {
+            checkArity(function.arity(), argCount, line);
+            int first = sp - argCount;
+            Object result = switch (argCount) {
+                case 0 -> function.call0(null);
+                case 1 -> function.call1(null, value(first));
+                case 2 -> function.call2(null, value(first), value(first + 1));
+                case 3 -> function.call3(null, value(first), value(first + 1), value(first + 2));
+                case 4 -> function.call4(null, value(first), value(first + 1), value(first + 2), value(first + 3));
+                default -> function.callN(null, values(first, argCount));
+            };
+            Arrays.fill(stack, first - 1, sp, null);
+            sp = first - 1;
+            load(sp++, result);
+            return;
+        }
+
+        throw error("Can only call functions and classes.", line);
+    }
+
+    // obj.name(args) without materialising a bound method when name is a plain method
+    private void invoke(Token name, int argCount, int line) {
+        Object receiver = stack[sp - argCount - 1];
+        if (receiver instanceof Instance instance) {
+            Closure method = instance.klass.methods.get(name.symbol);
+            if (method != null && !method.function.isGetter) {
+                checkArity(method.function.arity, argCount, line);
+                call(method, argCount, line);
+                return;
+            }
+        }
+
+        Object callee = getProperty(receiver, name);
+        stack[sp - argCount - 1] = callee;
+        callValue(callee, argCount, line);
+    }
+
+    private void call(Closure closure, int argCount, int line) {
+        if (frameCount == FRAMES_MAX) {
+            throw error("Stack overflow.", line);
+        }
+
+        int base = sp - argCount - 1;
+        int needed = base + closure.function.frameSize + STACK_HEADROOM;
+        if (needed > stack.length) {
+            int size = Math.max(stack.length * 2, needed);
+            stack = Arrays.copyOf(stack, size);
+            nums = Arrays.copyOf(nums, size);
+        }
+
+        if (frameCount == frames.length) {
+            frames = Arrays.copyOf(frames, frameCount * 2);
+        }
+        CallFrame frame = nextFrame();
+        frame.closure = closure;
+        frame.code = closure.function.chunk.code;
+        frame.lines = closure.function.chunk.lines;
+        frame.constants = closure.function.chunk.constants;
+        frame.ip = 0;
+        frame.base = base;
+    }
+
+    // Pushes a frame, reusing the object left from an earlier call at the same depth. There must be room for it
+    private CallFrame nextFrame() {
+        CallFrame frame = frames[frameCount];
+        if (frame == null) {
+            frame = new CallFrame();
+            frames[frameCount] = frame;
+        }
+        frameCount++;
+        return frame;
+    }
+
+    // Moves the frame just pushed by a call down over the frame that made it
+    private void replaceCaller(CallFrame caller) {
+        CallFrame callee = frames[frameCount - 1];
+        if (caller.closure.function.capturesLocals) closeUpvalues(caller.base);
+        int count = sp - callee.base; // the callee itself and its arguments
+        moveDown(callee.base, caller.base, count);
+        sp = caller.base + count;
+        callee.base = caller.base;
+
+        frames[frameCount - 2] = callee;
+        frames[frameCount - 1] = caller; // kept for reuse by the next call
+        frameCount--;
+    }
+
+    // Moves a callee and its arguments down to the bottom of the frame they're replacing
+    private void moveDown(int from, int to, int count) {
+        System.arraycopy(stack, from, stack, to, count);
+        System.arraycopy(nums, from, nums, to, count);
+    }
+
+    private void checkArity(int arity, int argCount, int line) {
+        if (argCount != arity) {
+            throw error("Expected " + arity + " arguments but got " + argCount + ".", line);
+        }
+    }
+
+    private Object getProperty(Object receiver, Token name) {
+        if (receiver instanceof Instance instance) {
+            // methods shadow fields, same as the tree-walker
+            Closure method = instance.klass.methods.get(name.symbol);
+            if (method != null) {
+                if (method.function.isGetter) return callGetter(method, instance, name);
+                return new BoundMethod(instance, method);
+            }
+
+            if (instance.fields.containsKey(name.symbol)) {
+                return instance.fields.get(name.symbol);
+            }
+
+            throw new RuntimeError(name, "Undefined property '" + name.lexeme + "'.");
+        }
+
+        if (receiver instanceof Klass klass) {
+            // static methods behave as methods bound to the class itself
+            Closure staticMethod = klass.staticMethods.get(name.symbol);
+            if (staticMethod != null) {
+                if (staticMethod.function.isGetter) return callGetter(staticMethod, klass, name);
+                return new BoundMethod(klass, staticMethod);
+            }
+
+            if (klass.fields.containsKey(name.symbol)) {
+                return klass.fields.get(name.symbol);
+            }
+
+            throw new RuntimeError(name, "Undefined property '" + name.lexeme + "'.");
+        }
+
+        if (receiver instanceof jloxInstance instance) { // arrays
+            return instance.get(name);
+        }
+
+        throw new RuntimeError(name, "Only instances have properties.");
+    }
+
+    private void setProperty(Object receiver, Token name, Object value) {
+        if (receiver instanceof Instance instance) {
+            instance.fields.put(name.symbol, value);
+        } else if (receiver instanceof Klass klass) {
+            klass.fields.put(name.symbol, value);
+        } else if (receiver instanceof jloxInstance instance) { // arrays
+            instance.set(name, value);
+        } else {
+            throw new RuntimeError(name, "Only instances have fields.");
+        }
+    }
+
+    private Closure findSuperMethod(Klass superclass, Token name) {
+        Closure method = superclass.methods.get(name.symbol);
+        if (method == null) {
+            throw new RuntimeError(name, "Undefined property '" + name.lexeme + "'.");
+        }
+        return method;
+    }
+
+    // Getters run to completion before the property access that triggered them carries on
+    private Object callGetter(Closure getter, Object receiver, Token name) {
+        push(receiver);
+        call(getter, 0, name.line);
+        return run(frameCount - 1);
+    }
+
+    private Upvalue captureUpvalue(int slot) {
+        Upvalue previous = null;
+        Upvalue upvalue = openUpvalues;
+        while (upvalue != null && upvalue.slot > slot) {
+            previous = upvalue;
+            upvalue = upvalue.next;
+        }
+
+        if (upvalue != null && upvalue.slot == slot) return upvalue;
+
+        Upvalue created = new Upvalue(slot, upvalue);
+        if (previous == null) {
+            openUpvalues = created;
+        } else {
+            previous.next = created;
+        }
+        return created;
+    }
+
+    private void closeUpvalues(int last) {
+        while (openUpvalues != null && openUpvalues.slot >= last) {
+            Upvalue upvalue = openUpvalues;
+            upvalue.closed = value(upvalue.slot);
+            upvalue.slot = -1;
+            openUpvalues = upvalue.next;
+        }
+    }
+
+    private static RuntimeError error(String message, int line) {
+        return new RuntimeError(new Token(TokenType.EOF, "", null, line), message);
+    }
+
+    private void push(Object value) {
+        stack[sp++] = value;
+    }
+
+    // A global the compiler hadn't seen declared is looked up by name the first time the instruction runs,
+    // then its index is written into the operand so later runs take the fast path
+    private int resolveGlobal(int[] code, int operand, Token name) {
+        int index = globals.resolve(name);
+        code[operand] = index;
+        return index;
+    }
+
+    private static boolean isTruthy(Object object) {
+        if (object == null) return false;
+        if (object instanceof Boolean) return (boolean)object;
+        return true;
+    }
+
+}
@@ -3,31 +3,95 @@ package jlox;
 import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.InputStreamReader;
+import java.io.Reader;
+import java.io.UncheckedIOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
 import java.nio.charset.Charset;
 import java.nio.file.Files;
+import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
 import java.util.List;
 
 public class jlox{
 
     private static final Interpreter interpreter = new Interpreter();
+    private static VM vm = null; // only created for --engine=vm
+    private static NodeInterpreter nodes = null; // only created for --engine=nodes
+    private static boolean optimize = false; // -O: run the Optimizer over each resolved program
+    private static Optimizer optimizer = null;
+    private static String profile = null; // --profile=FILE: type feedback kept between runs of a script
     
     static boolean hadError = false;
     static boolean hadRuntimeError = false;
     public static void main(String[] args) throws IOException {
-        if (args.length > 1) {
-            System.out.println("Usage: jlox [script]");
-            System.exit(64); 
-        } else if (args.length == 1) {
-            runFile(args[0]);
+        String script = null;
+        for (String arg : args) {
+            if (arg.equals("--engine=vm")) {
+                vm = new VM();
+                nodes = null;
+            } else if (arg.equals("--engine=nodes")) {
+                nodes = new NodeInterpreter();
+                vm = null;
+            } else if (arg.equals("--engine=tree")) {
+                vm = null;
+                nodes = null;
+            } else if (arg.equals("-O")) {
+                optimize = true;
+            } else if (arg.equals("--jit=off")) {
+                JitCompiler.threshold = -1;
+            } else if (arg.matches("--jit=\\d{1,9}")) {
+                JitCompiler.threshold = Integer.parseInt(arg.substring("--jit=".length()));
+            } else if (arg.startsWith("--profile=") && arg.length() > "--profile=".length()) {
+                profile = arg.substring("--profile=".length());
+            } else if (arg.startsWith("-") || script != null) {
+                usage();
+            } else {
+                script = arg;
+            }
+        }
+
+        if (profile != null && script == null) usage(); // profiles are of scripts
+
+        if (optimize) {
+            optimizer = new Optimizer(script != null);
+        }
+
+        if (script != null) {
+            runFile(script);
         } else {
             runPrompt(); // this is the REPL
         }
   }
 
+    private static void usage() {
+        System.out.println("Usage: jlox [--engine=tree|nodes|vm] [-O] [--jit=N|off] [--profile=FILE script] [script]");
+        System.exit(64);
+    }
+
     private static void runFile(String path) throws IOException {
-        byte[] bytes = Files.readAllBytes(Paths.get(path));
-        run(new String(bytes, Charset.defaultCharset()));
+        Path file = Paths.get(path);
+        // Only a regular file can be read twice (once to fingerprint it) and has a version worth keeping things for:
+        // anything else, such as a pipe, is just parsed as it's read, without a profile or cached tree
+        String fingerprint = Files.isRegularFile(file) ? fingerprint(file) : null;
+        if (profile != null && fingerprint != null) Profile.current = Profile.load(Paths.get(profile), fingerprint);
+
+        // A script that hasn't changed since its last run is loaded already resolved (see AstCache)
+        List<Stmt> statements = fingerprint != null ? AstCache.load(file, fingerprint) : null;
+        if (statements == null) {
+            // The source is scanned as it's read rather than loaded whole, which matters for large generated scripts
+            try (Reader reader = new InputStreamReader(Files.newInputStream(file), Charset.defaultCharset())) {
+                statements = parse(new Scanner(reader));
+            } catch (UncheckedIOException e) {
+                throw e.getCause(); // a read that failed part way through scanning
+            }
+            if (statements != null && fingerprint != null) AstCache.save(file, fingerprint, statements);
+        }
+        if (statements != null) run(statements);
+        if (Profile.current != null) Profile.current.save();
 
         // Indicate an error in the exit code
         if (hadError) System.exit(65);
@@ -54,7 +118,7 @@ public class jlox{
             }
 
             if (line.endsWith(";") || containsKeyword || line.contains("{") || line.contains("}")) {
-                run(line);
+                run(new Scanner(line));
             } else {
                 runExpression(line); // Challenge 8.1
             }
@@ -63,23 +127,58 @@ public class jlox{
         }
     }
 
-    private static void run(String source) {
-        Scanner scanner = new Scanner(source);
-        List<Token> tokens = scanner.scanTokens();
+    // SHA-256 of a script's bytes, read through a mapping so the file is never copied onto the heap, and the charset
+    // they're decoded with (cached trees hold decoded strings). Profiles and cached trees are only used with the
+    // version of the script they were made from.
+    private static String fingerprint(Path script) throws IOException {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e); // every JVM has SHA-256
+        }
+        try (FileChannel channel = FileChannel.open(script)) {
+            MappedByteBuffer bytes = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            digest.update(bytes);
+        }
+        return HexFormat.of().formatHex(digest.digest()) + " " + Charset.defaultCharset().name();
+    }
+
+    private static void run(Scanner scanner) {
+        List<Stmt> statements = parse(scanner);
+        if (statements != null) run(statements);
+    }
 
-        Parser parser = new Parser(tokens);
+    // The resolved program, or null if it has errors
+    private static List<Stmt> parse(Scanner scanner) {
+        Parser parser = new Parser(scanner);
         List<Stmt> statements = parser.parse();
 
         // stop if there was a syntax error
-        if (hadError) return;
+        if (hadError) return null;
 
-        Resolver resolver = new Resolver(interpreter);
+        Resolver resolver = new Resolver();
         resolver.resolve(statements);
 
         // stop if there was a resolution error
-        if (hadError) return;
+        if (hadError) return null;
+
+        return statements;
+    }
 
-        interpreter.interpret(statements);
+    private static void run(List<Stmt> statements) {
+        if (optimizer != null) {
+            statements = optimizer.optimize(statements);
+        }
+
+        if (vm != null) {
+            VM.Function function = compile(statements);
+            if (function != null) vm.interpret(function);
+        } else if (nodes != null) {
+            nodes.interpret(statements);
+        } else {
+            interpreter.interpret(statements);
+        }
 
         // // Print the AST for debugging purposes
         // System.out.println(new ASTPrinter().print(expression));
@@ -92,19 +191,35 @@ public class jlox{
 
     // Challenge 8.1
     private static void runExpression(String line) {
-        Scanner scanner = new Scanner(line);
-        List<Token> tokens = scanner.scanTokens();
-
-        Parser exprParser = new Parser(tokens);
+        Parser exprParser = new Parser(new Scanner(line));
         Expr expr = exprParser.parseExpression();
         if (!hadError && expr != null) {
-            Object result = interpreter.interpretExpression(expr);
+            String result;
+            if (vm != null) {
+                VM.Function function = new BytecodeCompiler(vm).compileExpression(expr);
+                result = vm.interpretExpression(function);
+            } else if (nodes != null) {
+                result = nodes.interpretExpression(expr);
+            } else {
+                result = interpreter.interpretExpression(expr);
+            }
             if (result != null) {
                 System.out.println(result);
             }
         }
     }
 
+    private static VM.Function compile(List<Stmt> statements) {
+        try {
+            return new BytecodeCompiler(vm).compile(statements);
+        } catch (RuntimeError error) {
+            // limits of the bytecode format (jump distance, constant count, ...) surface while compiling
+            System.err.println("[compile] Error: " + error.getMessage());
+            hadError = true;
+            return null;
+        }
+    }
+
     static void error(int line, String message) {
         report(line, "", message);
     }
@@ -1,8 +1,36 @@
 package jlox;
 
+import java.util.Arrays;
 import java.util.List;
 
 interface jloxCallable {
     int arity();
     Object call(Interpreter interpreter, List<Object> arguments);
+
+    // Fixed-arity entry points, which call sites use so they don't have to build an argument list.
+    // Natives only implement call(); these adapt to it. jloxFunction overrides them to put the arguments
+    // straight into its frame
+    default Object call0(Interpreter interpreter) {
+        return call(interpreter, List.of());
+    }
+
+    default Object call1(Interpreter interpreter, Object a) {
+        return call(interpreter, Arrays.asList(a)); // not List.of(), arguments can be nil
+    }
+
+    default Object call2(Interpreter interpreter, Object a, Object b) {
+        return call(interpreter, Arrays.asList(a, b));
+    }
+
+    default Object call3(Interpreter interpreter, Object a, Object b, Object c) {
+        return call(interpreter, Arrays.asList(a, b, c));
+    }
+
+    default Object call4(Interpreter interpreter, Object a, Object b, Object c, Object d) {
+        return call(interpreter, Arrays.asList(a, b, c, d));
+    }
+
+    default Object callN(Interpreter interpreter, Object... arguments) {
+        return call(interpreter, Arrays.asList(arguments));
+    }
 }
@@ -1,38 +1,47 @@
 package jlox;
 
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 
 class jloxClass extends jloxInstance implements jloxCallable {
     final String name;
     final jloxClass superclass;
-    private final Map<String, jloxFunction> methods;
+    // Flattened: inherited methods are copied in when the class is created, so a lookup is one probe whatever the depth.
+    // Classes can't change after their declaration runs, so the table never needs updating
+    private final Map<Symbol, jloxFunction> methods;
     private final jloxClass metaclass;
+    private final jloxFunction initialiser; // null if neither this class nor a superclass has init()
+    private final int arity;
+    final Shape instanceShape = Shape.root(); // where this class's instances start out
 
-    jloxClass(String name, jloxClass superclass, Map<String, jloxFunction> methods, jloxClass metaclass) {
+    jloxClass(String name, jloxClass superclass, Map<Symbol, jloxFunction> methods, jloxClass metaclass) {
         super(metaclass);
         this.name = name;
         this.superclass = superclass;
-        this.methods = methods;
+        this.methods = flatten(superclass, methods);
         this.metaclass = metaclass;
+        this.initialiser = this.methods.get(Symbol.INIT);
+        this.arity = initialiser == null ? 0 : initialiser.arity();
     }
 
-    jloxFunction findMethod(String name) {
-        if (methods.containsKey(name)) {
-            return methods.get(name);
-        }
+    private static Map<Symbol, jloxFunction> flatten(jloxClass superclass, Map<Symbol, jloxFunction> methods) {
+        if (superclass == null) return Map.copyOf(methods);
 
-        if (superclass != null) {
-            return superclass.findMethod(name);
-        }
+        Map<Symbol, jloxFunction> table = new HashMap<>(superclass.methods);
+        table.putAll(methods); // overrides replace inherited methods
+        return Map.copyOf(table);
+    }
 
-        return null;
+    jloxFunction findMethod(Symbol name) {
+        return methods.get(name);
     }
 
     @Override
     Object get(Token name) {
-        if (metaclass.methods.containsKey(name.lexeme)) {
-            return metaclass.methods.get(name.lexeme);
+        jloxFunction staticMethod = metaclass.methods.get(name.symbol);
+        if (staticMethod != null) {
+            return staticMethod;
         }
         return super.get(name);
     }
@@ -41,19 +50,80 @@ class jloxClass extends jloxInstance implements jloxCallable {
     public Object call(Interpreter interpreter, List<Object> arguments) {
         jloxInstance instance = new jloxInstance(this);
 
-        jloxFunction initialiser = findMethod("init");
         if (initialiser != null) {
-            initialiser.bind(instance).call(interpreter, arguments);
+            initialiser.invoke(instance, interpreter, arguments);
         }
         
         return instance;
     }
 
+    // The fixed-arity entry points define the arguments straight into the initialiser's frame, as jloxFunction's do.
+    // Callers have checked the arity, so there's an initialiser whenever there are arguments
+    @Override
+    public Object call0(Interpreter interpreter) {
+        jloxInstance instance = new jloxInstance(this);
+        if (initialiser != null) {
+            initialiser.run(initialiser.frame(instance), instance, interpreter);
+        }
+        return instance;
+    }
+
+    @Override
+    public Object call1(Interpreter interpreter, Object a) {
+        jloxInstance instance = new jloxInstance(this);
+        Environment frame = initialiser.frame(instance);
+        frame.define(a);
+        initialiser.run(frame, instance, interpreter);
+        return instance;
+    }
+
+    @Override
+    public Object call2(Interpreter interpreter, Object a, Object b) {
+        jloxInstance instance = new jloxInstance(this);
+        Environment frame = initialiser.frame(instance);
+        frame.define(a);
+        frame.define(b);
+        initialiser.run(frame, instance, interpreter);
+        return instance;
+    }
+
+    @Override
+    public Object call3(Interpreter interpreter, Object a, Object b, Object c) {
+        jloxInstance instance = new jloxInstance(this);
+        Environment frame = initialiser.frame(instance);
+        frame.define(a);
+        frame.define(b);
+        frame.define(c);
+        initialiser.run(frame, instance, interpreter);
+        return instance;
+    }
+
+    @Override
+    public Object call4(Interpreter interpreter, Object a, Object b, Object c, Object d) {
+        jloxInstance instance = new jloxInstance(this);
+        Environment frame = initialiser.frame(instance);
+        frame.define(a);
+        frame.define(b);
+        frame.define(c);
+        frame.define(d);
+        initialiser.run(frame, instance, interpreter);
+        return instance;
+    }
+
+    @Override
+    public Object callN(Interpreter interpreter, Object... arguments) {
+        jloxInstance instance = new jloxInstance(this);
+        Environment frame = initialiser.frame(instance);
+        for (Object argument : arguments) {
+            frame.define(argument);
+        }
+        initialiser.run(frame, instance, interpreter);
+        return instance;
+    }
+
     @Override
     public int arity() {
-        jloxFunction initialiser = findMethod("init");
-        if (initialiser == null) return 0;
-        return initialiser.arity();
+        return arity;
     }
 
     @Override
@@ -4,12 +4,21 @@ import java.util.List;
 
 class jloxFunction implements jloxCallable{
     // Challenge 10.2 syntax changed
-    private final FunctionDeclaration declaration;
-    private final Environment closure;
-    private final boolean isInitialiser;
-    private final boolean isGetter;
+    // package-private so NodeFunction can share them
+    final FunctionDeclaration declaration;
+    final Environment closure;
+    final boolean isInitialiser;
+    final boolean isGetter;
+    final jloxInstance receiver; // "this" once bound; null for plain functions and unbound methods
+    private final int arity;
+    private int calls; // counted up to JitCompiler.threshold, then left
+    JitFunction compiled = null; // set once the function is hot, if JitCompiler could compile it
 
     jloxFunction(FunctionDeclaration declaration, Environment closure, boolean isInitialiser, boolean isGetter) {
+        this(declaration, closure, isInitialiser, isGetter, null);
+    }
+
+    jloxFunction(FunctionDeclaration declaration, Environment closure, boolean isInitialiser, boolean isGetter, jloxInstance receiver) {
         this.declaration = declaration;
         this.closure = closure;
         this.isInitialiser = isInitialiser;
@@ -18,13 +27,15 @@ class jloxFunction implements jloxCallable{
         } else {
             this.isGetter = isGetter;
         }
-        
+        this.receiver = receiver;
+        List<Token> params = declaration.getParams();
+        this.arity = params == null ? 0 : params.size(); // getters have no parameter list
+        this.calls = JitCompiler.initialCount(declaration.getName());
     }
 
+    // Only needed when a method is used as a value; calls go straight through invoke()
     jloxFunction bind(jloxInstance instance) {
-        Environment environment = new Environment(closure);
-        environment.define("this", instance);
-        return new jloxFunction(declaration, environment, isInitialiser, isGetter);
+        return new jloxFunction(declaration, closure, isInitialiser, isGetter, instance);
     }
 
     boolean getIsGetter() {
@@ -33,31 +44,155 @@ class jloxFunction implements jloxCallable{
 
     @Override
     public Object call(Interpreter interpreter, List<Object> arguments) {
-        Environment environment = new Environment(closure);
+        return invoke(receiver, interpreter, arguments);
+    }
 
-        List<Token> params = declaration.getParams();
-        if (!isGetter) { // challenge 12.2
-            for (int i = 0; i < params.size(); i++) {
-                environment.define(params.get(i).lexeme, arguments.get(i));
+    @Override
+    public Object call0(Interpreter interpreter) {
+        if (compiled(interpreter) != null) {
+            try {
+                return compiled.call0();
+            } catch (TailCall call) {
+                return call.function.run(call.frame, call.receiver, interpreter);
+            }
+        }
+        return run(frame(receiver), receiver, interpreter);
+    }
+
+    @Override
+    public Object call1(Interpreter interpreter, Object a) {
+        if (compiled(interpreter) != null) {
+            try {
+                return compiled.call1(a);
+            } catch (TailCall call) {
+                return call.function.run(call.frame, call.receiver, interpreter);
+            }
+        }
+        Environment environment = frame(receiver);
+        environment.define(a);
+        return run(environment, receiver, interpreter);
+    }
+
+    @Override
+    public Object call2(Interpreter interpreter, Object a, Object b) {
+        if (compiled(interpreter) != null) {
+            try {
+                return compiled.call2(a, b);
+            } catch (TailCall call) {
+                return call.function.run(call.frame, call.receiver, interpreter);
+            }
+        }
+        Environment environment = frame(receiver);
+        environment.define(a);
+        environment.define(b);
+        return run(environment, receiver, interpreter);
+    }
+
+    @Override
+    public Object call3(Interpreter interpreter, Object a, Object b, Object c) {
+        if (compiled(interpreter) != null) {
+            try {
+                return compiled.call3(a, b, c);
+            } catch (TailCall call) {
+                return call.function.run(call.frame, call.receiver, interpreter);
             }
         }
+        Environment environment = frame(receiver);
+        environment.define(a);
+        environment.define(b);
+        environment.define(c);
+        return run(environment, receiver, interpreter);
+    }
 
-        try {
-            interpreter.executeBlock(declaration.getBody(), environment);
-        } catch (Return returnValue) {
-            if (isInitialiser) return closure.getAt(0, "this");
+    @Override
+    public Object call4(Interpreter interpreter, Object a, Object b, Object c, Object d) {
+        if (compiled(interpreter) != null) {
+            try {
+                return compiled.call4(a, b, c, d);
+            } catch (TailCall call) {
+                return call.function.run(call.frame, call.receiver, interpreter);
+            }
+        }
+        Environment environment = frame(receiver);
+        environment.define(a);
+        environment.define(b);
+        environment.define(c);
+        environment.define(d);
+        return run(environment, receiver, interpreter);
+    }
 
+    @Override
+    public Object callN(Interpreter interpreter, Object... arguments) {
+        if (compiled(interpreter) != null) {
+            try {
+                return compiled.callN(arguments);
+            } catch (TailCall call) {
+                return call.function.run(call.frame, call.receiver, interpreter);
+            }
+        }
+        Environment environment = frame(receiver);
+        for (Object argument : arguments) {
+            environment.define(argument);
+        }
+        return run(environment, receiver, interpreter);
+    }
 
-            return returnValue.value;
+    // Counts a call, compiling the function on the one that makes it hot. Only plain functions are compiled,
+    // which are always called without a receiver
+    private JitFunction compiled(Interpreter interpreter) {
+        if (calls <= JitCompiler.threshold && calls++ == JitCompiler.threshold) {
+            compiled = JitCompiler.compile(this, interpreter);
         }
+        return compiled;
+    }
 
-        if (isInitialiser) return closure.getAt(0, "this");
-        return null;
+    // Calls the function with "this" as receiver, which methods keep in slot 0 of their frame (see Resolver)
+    Object invoke(jloxInstance receiver, Interpreter interpreter, List<Object> arguments) {
+        Environment environment = frame(receiver);
+        if (!isGetter && arguments != null) { // challenge 12.2
+            for (Object argument : arguments) {
+                environment.define(argument);
+            }
+        }
+        return run(environment, receiver, interpreter);
+    }
+
+    // A new frame for a call. Callers define the arguments into it, in order, before passing it to run()
+    final Environment frame(jloxInstance receiver) {
+        Environment environment = new Environment(closure);
+        if (receiver != null) environment.define(receiver);
+        return environment;
+    }
+
+    // Trampoline: a TailCall out of the body swaps in the callee and its frame and goes round again
+    // (only the tree-walker and compiled code throw them, and they only have plain jloxFunctions)
+    Object run(Environment environment, jloxInstance receiver, Interpreter interpreter) {
+        jloxFunction function = this;
+        for (;;) {
+            try {
+                if (function.compiled != null) return function.compiled.enter(environment);
+                interpreter.executeBlock(function.declaration.getBody(), environment);
+            } catch (TailCall call) {
+                function = call.function;
+                function.compiled(interpreter); // a call like any other to the JIT
+                receiver = call.receiver;
+                environment = call.frame;
+                continue;
+            } catch (Return returnValue) {
+                if (function.isInitialiser) return receiver;
+
+
+                return returnValue.value;
+            }
+
+            if (function.isInitialiser) return receiver;
+            return null;
+        }
     }
 
     @Override
     public int arity() {
-        return declaration.getParams().size();
+        return arity;
     }
 
     @Override
@@ -1,26 +1,58 @@
 package jlox;
 
-import java.util.HashMap;
-import java.util.Map;
+import java.util.Arrays;
 
 class jloxInstance {
+    private static final Shape CLASSLESS = Shape.root(); // arrays and metaclasses
     private final jloxClass klass;
-    private final Map<String, Object> fields = new HashMap<>();
+    // fields live in values, laid out by shape (see Shape); property sites cache the shape (see PropertyCache)
+    private Shape shape;
+    private Object[] values = NO_VALUES;
+    private static final Object[] NO_VALUES = new Object[0];
 
     jloxInstance(jloxClass klass) {
         this.klass = klass;
+        this.shape = klass == null ? CLASSLESS : klass.instanceShape;
     }
 
     Object get(Token name) {
-        if (fields.containsKey(name.lexeme)) {
-            return fields.get(name.lexeme);
+        int slot = shape.indexOf(name.symbol);
+        if (slot >= 0) {
+            return values[slot];
         }
 
         throw new RuntimeError(name, "Undefined property '" + name.lexeme + "'.");
     }
 
     void set(Token name, Object value) {
-        fields.put(name.lexeme, value);
+        int slot = shape.indexOf(name.symbol);
+        if (slot >= 0) {
+            values[slot] = value;
+        } else {
+            addField(shape.with(name.symbol), value);
+        }
+    }
+
+    Shape getShape() {
+        return shape;
+    }
+
+    Object getSlot(int slot) {
+        return values[slot];
+    }
+
+    void setSlot(int slot, Object value) {
+        values[slot] = value;
+    }
+
+    // next must be this instance's shape plus one field, which goes in the last slot
+    void addField(Shape next, Object value) {
+        int slot = next.size() - 1;
+        if (slot == values.length) {
+            values = Arrays.copyOf(values, Math.max(4, slot * 2));
+        }
+        values[slot] = value;
+        shape = next;
     }
 
     jloxClass getKlass() {
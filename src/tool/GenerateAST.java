@@ -15,35 +15,37 @@ public class GenerateAST {
         String outputDir = args[0];
         defineAST(outputDir, "Expr", Arrays.asList(
             "Array    : List<Expr> elements",
-            "Assign   : Token name, Expr value",
+            "Assign   : Token name, Expr value | int depth = -1, int slot = -1, int global = -1",
             "Binary   : Expr left, Token operator, Expr right",
             "Call     : Expr callee, Token paren, List<Expr> arguments",
             "Function : List<Token> params, List<Stmt> body",
-            "Get      : Expr object, Token name",
+            "Get      : Expr object, Token name | PropertyCache cache = new PropertyCache()",
             "Grouping : Expr expression",
+            "Inline   : Expr.Call call, Token function, Expr body", // -O, see Inliner
+            "Invariant: Expr expression | Object value = LoopInvariants.UNSET", // -O, see LoopInvariants
             "Literal  : Object value",
             "Logical  : Expr left, Token operator, Expr right",
-            "Set      : Expr object, Token name, Expr value",
-            "Super    : Token keyword, Token method",
-            "This     : Token keyword",
+            "Set      : Expr object, Token name, Expr value | PropertyCache cache = new PropertyCache()",
+            "Super    : Token keyword, Token method | int depth = -1",
+            "This     : Token keyword | int depth = -1, int slot = -1",
             "Ternary  : Expr condition, Token op1, Expr thenExpr, Token op2, Expr elseExpr", // Challenge 6.1
             "Unary    : Token operator, Expr right",
-            "Variable : Token name"
+            "Variable : Token name | int depth = -1, int slot = -1, int global = -1, Resolver.VariableInfo binding = null"
         ));
 
         defineAST(outputDir, "Stmt", Arrays.asList(
-            "Block        : List<Stmt> statements",
+            "Block        : List<Stmt> statements | boolean hasScope = true", // false if it declares nothing (see Resolver)
             "Break        : ", // Challenge 9.3
             "Class        : Token name, Expr.Variable superclass, List<Stmt.Function> staticMethods, List<Stmt.Function> methods", // challenge 12.1
             "Continue     : ", // Challenge 9.3
             "Expression   : Expr expression",
-            "ForDesugared : Expr condition, Stmt increment, Stmt body",
+            "ForDesugared : Token keyword, Expr condition, Stmt increment, Stmt body | List<Expr.Invariant> invariants = null, int backEdges = 0, JitFunction compiled = null",
             "Function     : Token name, List<Token> params, List<Stmt> body",
             "If           : Expr condition, Stmt thenBranch, Stmt elseBranch",
             // "Print        : Expr expression",
             "Return       : Token keyword, Expr value",
             "Var          : Token name, Expr initialiser",
-            "While        : Expr condition, Stmt body"
+            "While        : Token keyword, Expr condition, Stmt body | List<Expr.Invariant> invariants = null, int backEdges = 0, JitFunction compiled = null"
         ));
     }
 
@@ -64,7 +66,14 @@ public class GenerateAST {
         for (String type : types) {
             String className = type.split(":")[0].trim();
             String fields = type.split(":")[1].trim();
-            defineType(writer, baseName, className, fields);            
+
+            // anything after a '|' is filled in after parsing (e.g. by the Resolver), so it's mutable and not in the constructor
+            String resolved = "";
+            if (fields.contains("|")) {
+                resolved = fields.split("\\|")[1].trim();
+                fields = fields.split("\\|")[0].trim();
+            }
+            defineType(writer, baseName, className, fields, resolved);            
         }
 
         // the base accept() method
@@ -87,7 +96,7 @@ public class GenerateAST {
 
     }
 
-    private static void defineType(PrintWriter writer, String baseName, String className, String fieldList) {
+    private static void defineType(PrintWriter writer, String baseName, String className, String fieldList, String resolvedList) {
         writer.println("    static class " + className + " extends " + baseName + " {");
 
         // constructor
@@ -122,6 +131,12 @@ public class GenerateAST {
             writer.println("        final " + field + ";");
         }
 
+        if (!resolvedList.isEmpty()) {
+            for (String field : resolvedList.split(", ")) {
+                writer.println("        " + field + ";");
+            }
+        }
+
         writer.println("    }");
         writer.println();
 